@@ -0,0 +1,112 @@
+package com.nfbsoftware.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream that reads the remaining bytes of a ByteBuffer without copying
+ * them into an intermediate array first. Works with heap, direct and mapped
+ * buffers. The stream reads from a duplicate of the buffer, so the buffer's own
+ * position and limit are left unchanged.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    /**
+     * The view of the buffer being read.
+     */
+    private final ByteBuffer mBuffer;
+
+    /**
+     *
+     * @param buffer The buffer whose remaining bytes are read.
+     */
+    public ByteBufferInputStream(ByteBuffer buffer)
+    {
+        mBuffer = buffer.duplicate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read()
+    {
+        if (!mBuffer.hasRemaining())
+        {
+            return -1;
+        }
+
+        return mBuffer.get() & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] bytes, int offset, int length)
+    {
+        if (length == 0)
+        {
+            return 0;
+        }
+
+        int count = Math.min(length, mBuffer.remaining());
+
+        if (count == 0)
+        {
+            return -1;
+        }
+
+        mBuffer.get(bytes, offset, count);
+
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n)
+    {
+        int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+        mBuffer.position(mBuffer.position() + count);
+
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available()
+    {
+        return mBuffer.remaining();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void mark(int readLimit)
+    {
+        mBuffer.mark();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset()
+    {
+        mBuffer.reset();
+    }
+}
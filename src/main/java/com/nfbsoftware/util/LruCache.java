@@ -0,0 +1,203 @@
+package com.nfbsoftware.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe, size bounded cache that evicts the least recently used entry
+ * once the maximum size is reached. Hit, miss and eviction counts are kept so
+ * that the effectiveness of the cache can be monitored.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LruCache<K, V>
+{
+    /**
+     * The entries, in access order.
+     */
+    private final LinkedHashMap<K, V> mEntries;
+
+    /**
+     * The maximum number of entries kept.
+     */
+    private int mMaximumSize;
+
+    /** */
+    private long mHitCount;
+
+    /** */
+    private long mMissCount;
+
+    /** */
+    private long mEvictionCount;
+
+    /**
+     *
+     * @param maximumSize The maximum number of entries kept; must be at least 1.
+     */
+    public LruCache(int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException("maximumSize must be at least 1: " + maximumSize);
+        }
+
+        mMaximumSize = maximumSize;
+        mEntries = new LinkedHashMap<K, V>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+            {
+                if (size() > mMaximumSize)
+                {
+                    mEvictionCount++;
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     *
+     * @param key The key.
+     * @return The cached value, or null if the key is not cached.
+     */
+    public synchronized V get(K key)
+    {
+        V value = mEntries.get(key);
+
+        if (value == null)
+        {
+            mMissCount++;
+        }
+        else
+        {
+            mHitCount++;
+        }
+
+        return value;
+    }
+
+    /**
+     * Caches a value, evicting the least recently used entry if the cache is full.
+     *
+     * @param key The key.
+     * @param value The value; must not be null.
+     * @return The value now cached under the key. If another thread cached a value
+     * first, that value is kept and returned.
+     */
+    public synchronized V put(K key, V value)
+    {
+        V existing = mEntries.get(key);
+
+        if (existing != null)
+        {
+            return existing;
+        }
+
+        mEntries.put(key, value);
+
+        return value;
+    }
+
+    /**
+     *
+     * @param key The key.
+     * @return The removed value, or null if the key was not cached.
+     */
+    public synchronized V remove(K key)
+    {
+        return mEntries.remove(key);
+    }
+
+    /**
+     * Removes all entries. The statistics are left untouched.
+     */
+    public synchronized void clear()
+    {
+        mEntries.clear();
+    }
+
+    /**
+     *
+     * @return The number of cached entries.
+     */
+    public synchronized int size()
+    {
+        return mEntries.size();
+    }
+
+    /**
+     *
+     * @return The maximum number of entries kept.
+     */
+    public synchronized int getMaximumSize()
+    {
+        return mMaximumSize;
+    }
+
+    /**
+     * Changes the maximum size, evicting least recently used entries if the cache
+     * is now too large.
+     *
+     * @param maximumSize The maximum number of entries kept; must be at least 1.
+     */
+    public synchronized void setMaximumSize(int maximumSize)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException("maximumSize must be at least 1: " + maximumSize);
+        }
+
+        mMaximumSize = maximumSize;
+
+        while (mEntries.size() > mMaximumSize)
+        {
+            K eldest = mEntries.keySet().iterator().next();
+            mEntries.remove(eldest);
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     *
+     * @return The number of lookups that found a cached value.
+     */
+    public synchronized long getHitCount()
+    {
+        return mHitCount;
+    }
+
+    /**
+     *
+     * @return The number of lookups that did not find a cached value.
+     */
+    public synchronized long getMissCount()
+    {
+        return mMissCount;
+    }
+
+    /**
+     *
+     * @return The number of entries evicted to respect the maximum size.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return mEvictionCount;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counts to zero.
+     */
+    public synchronized void resetStatistics()
+    {
+        mHitCount = 0;
+        mMissCount = 0;
+        mEvictionCount = 0;
+    }
+}
@@ -0,0 +1,122 @@
+package com.nfbsoftware.xml;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Collects markup as characters, either into a String or, a buffer at a time,
+ * into a Writer.
+ */
+class CharXmlSink extends XmlSink
+{
+    /**
+     * The number of buffered characters at which they are written to the Writer.
+     */
+    private static final int FLUSH_SIZE = 8192;
+
+    /**
+     * The characters written, or for a Writer those not yet written to it.
+     */
+    private final StringBuilder mBuilder;
+
+    /**
+     * The Writer the characters are written to, or null to collect them.
+     */
+    private final Writer mWriter;
+
+    /**
+     * Used to copy buffered characters to the Writer.
+     */
+    private char[] mChars;
+
+    /**
+     * Collects the characters into a String.
+     *
+     * @param capacity The expected number of characters.
+     */
+    CharXmlSink(int capacity)
+    {
+        mBuilder = new StringBuilder(capacity);
+        mWriter = null;
+    }
+
+    /**
+     *
+     * @param writer The Writer the characters are written to.
+     */
+    CharXmlSink(Writer writer)
+    {
+        mBuilder = new StringBuilder(FLUSH_SIZE);
+        mWriter = writer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void write(char c) throws IOException
+    {
+        mBuilder.append(c);
+
+        if ((mWriter != null) && (mBuilder.length() >= FLUSH_SIZE))
+        {
+            drain();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void write(String text, int start, int end) throws IOException
+    {
+        mBuilder.append(text, start, end);
+
+        if ((mWriter != null) && (mBuilder.length() >= FLUSH_SIZE))
+        {
+            drain();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void flush() throws IOException
+    {
+        if (mWriter != null)
+        {
+            drain();
+            mWriter.flush();
+        }
+    }
+
+    /**
+     *
+     * @return The characters collected.
+     */
+    @Override
+    public String toString()
+    {
+        return mBuilder.toString();
+    }
+
+    /**
+     * Writes the buffered characters to the Writer.
+     *
+     * @throws IOException If the Writer cannot be written to.
+     */
+    private void drain() throws IOException
+    {
+        int length = mBuilder.length();
+
+        if ((mChars == null) || (mChars.length < length))
+        {
+            mChars = new char[Math.max(length, FLUSH_SIZE)];
+        }
+
+        mBuilder.getChars(0, length, mChars, 0);
+        mWriter.write(mChars, 0, length);
+        mBuilder.setLength(0);
+    }
+}
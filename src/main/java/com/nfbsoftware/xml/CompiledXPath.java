@@ -0,0 +1,95 @@
+package com.nfbsoftware.xml;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xml.utils.PrefixResolver;
+import org.apache.xml.utils.PrefixResolverDefault;
+import org.apache.xpath.XPath;
+import org.apache.xpath.XPathContext;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * An XPath expression that has been parsed and compiled once so that it can be
+ * executed any number of times. Compiled expressions hold no execution state and
+ * may be shared between threads; each execution supplies its own XPathContext.
+ */
+final class CompiledXPath
+{
+    /**
+     * The expression text.
+     */
+    private final String mExpression;
+
+    /**
+     * The compiled expression.
+     */
+    private final XPath mXPath;
+
+    /**
+     * The expression's direct DOM evaluator, or null if it is not in the simple subset.
+     */
+    private final SimpleXPath mSimpleXPath;
+
+    /**
+     *
+     * @param expression The expression text.
+     * @param namespaceNode The node whose in-scope namespaces resolve the expression's prefixes.
+     * @throws TransformerException If the expression is invalid.
+     */
+    CompiledXPath(String expression, Node namespaceNode) throws TransformerException
+    {
+        mExpression = expression;
+        mXPath = new XPath(expression, null, createPrefixResolver(namespaceNode), XPath.SELECT, null);
+        mSimpleXPath = SimpleXPath.parse(expression);
+    }
+
+    /**
+     *
+     * @return The expression text.
+     */
+    String getExpression()
+    {
+        return mExpression;
+    }
+
+    /**
+     * Executes the expression against the context node.
+     *
+     * @param xpathContext The execution context, which caches the DTM built for the document.
+     * @param contextNode The node the expression is evaluated from.
+     * @return The selected nodes.
+     * @throws TransformerException If the expression cannot be evaluated.
+     */
+    NodeList selectNodeList(XPathContext xpathContext, Node contextNode) throws TransformerException
+    {
+        return mXPath.execute(xpathContext, contextNode, createPrefixResolver(contextNode)).nodelist();
+    }
+
+    /**
+     * Executes the expression by walking the DOM directly, if it is simple enough.
+     *
+     * @param contextNode The node the expression is evaluated from.
+     * @return The selected nodes, or null if the expression must be executed by Xalan.
+     */
+    NodeList selectSimple(Node contextNode)
+    {
+        return (mSimpleXPath == null) ? null : mSimpleXPath.select(contextNode);
+    }
+
+    /**
+     *
+     * @param namespaceNode The node whose in-scope namespaces resolve prefixes.
+     * @return A resolver for the node, mirroring the one CachedXPathAPI creates.
+     */
+    static PrefixResolver createPrefixResolver(Node namespaceNode)
+    {
+        if (namespaceNode.getNodeType() == Node.DOCUMENT_NODE)
+        {
+            return new PrefixResolverDefault(((Document) namespaceNode).getDocumentElement());
+        }
+
+        return new PrefixResolverDefault(namespaceNode);
+    }
+}
@@ -0,0 +1,286 @@
+package com.nfbsoftware.xml;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+
+/**
+ * Supplies the DocumentBuilder instances used to create and parse XML documents.
+ * <p>
+ * The DocumentBuilderFactory is looked up and configured once per provider. Each
+ * thread is then handed its own DocumentBuilder, which is <code>reset()</code>
+ * before every use, so creating a document no longer pays for a factory lookup
+ * and a new builder.
+ * <p>
+ * Instances are immutable and safe to share between threads.  The provider used
+ * by <code>XmlDocument</code> when none is given explicitly can be replaced with
+ * <code>setDefault(DocumentBuilderProvider)</code>.
+ */
+public class DocumentBuilderProvider
+{
+    /**
+     * The provider used when a document is not given one explicitly.
+     */
+    private static volatile DocumentBuilderProvider sDefaultProvider;
+
+    /**
+     * Fails a validating parse on the first error.
+     */
+    private static final XmlDocument.ErrorHandler sErrorHandler = new XmlDocument.ErrorHandler();
+
+    /**
+     * The configured factory. Access is synchronized since factories are not thread safe.
+     */
+    private final DocumentBuilderFactory mFactory;
+
+    /**
+     * Whether the builders produced by this provider are namespace aware.
+     */
+    private final boolean mNamespaceAware;
+
+    /**
+     * The parser features applied to the factory.
+     */
+    private final Map<String, Boolean> mFeatures;
+
+    /**
+     * The schema documents are validated against while they are parsed, or null.
+     */
+    private final XmlSchema mSchema;
+
+    /**
+     * One builder per thread; DocumentBuilder instances are not thread safe.
+     */
+    private final ThreadLocal<DocumentBuilder> mBuilders = new ThreadLocal<DocumentBuilder>();
+
+    /**
+     * Creates a namespace aware provider with the parser's default features.
+     *
+     * @throws XmlDocumentCheckedException If the parser cannot be configured.
+     */
+    public DocumentBuilderProvider() throws XmlDocumentCheckedException
+    {
+        this(true, null);
+    }
+
+    /**
+     *
+     * @param namespaceAware Whether the parser should provide support for XML namespaces.
+     * @throws XmlDocumentCheckedException If the parser cannot be configured.
+     */
+    public DocumentBuilderProvider(boolean namespaceAware) throws XmlDocumentCheckedException
+    {
+        this(namespaceAware, null);
+    }
+
+    /**
+     *
+     * @param namespaceAware Whether the parser should provide support for XML namespaces.
+     * @param features Parser features (feature URI to value) to set on the factory; may be null.
+     * @throws XmlDocumentCheckedException If the parser cannot be configured.
+     */
+    public DocumentBuilderProvider(boolean namespaceAware, Map<String, Boolean> features) throws XmlDocumentCheckedException
+    {
+        this(namespaceAware, features, null);
+    }
+
+    /**
+     * Creates a namespace aware provider whose parsers validate each document
+     * against the schema while parsing it. Parsing stops at the first error,
+     * so an invalid document is never completely built.
+     *
+     * @param schema The schema documents are validated against.
+     * @throws XmlDocumentCheckedException If the parser cannot be configured.
+     */
+    public DocumentBuilderProvider(XmlSchema schema) throws XmlDocumentCheckedException
+    {
+        this(true, null, schema);
+    }
+
+    /**
+     *
+     * @param namespaceAware Whether the parser should provide support for XML namespaces.
+     * @param features Parser features (feature URI to value) to set on the factory; may be null.
+     * @param schema The schema documents are validated against while they are parsed; may be null.
+     * @throws XmlDocumentCheckedException If the parser cannot be configured.
+     */
+    public DocumentBuilderProvider(boolean namespaceAware, Map<String, Boolean> features, XmlSchema schema) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + "<init>(boolean, Map, XmlSchema)";
+
+        mNamespaceAware = namespaceAware;
+        mSchema = schema;
+
+        if (features == null)
+        {
+            mFeatures = Collections.emptyMap();
+        }
+        else
+        {
+            mFeatures = Collections.unmodifiableMap(new LinkedHashMap<String, Boolean>(features));
+        }
+
+        try
+        {
+            mFactory = DocumentBuilderFactory.newInstance();
+            mFactory.setNamespaceAware(namespaceAware);
+
+            for (Map.Entry<String, Boolean> feature : mFeatures.entrySet())
+            {
+                mFactory.setFeature(feature.getKey(), feature.getValue().booleanValue());
+            }
+
+            if (schema != null)
+            {
+                mFactory.setSchema(schema.getSchema());
+            }
+
+            // Fail now rather than on first use if the configuration is not supported.
+            mBuilders.set(mFactory.newDocumentBuilder());
+        }
+        catch (Exception e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+    }
+
+    /**
+     * Returns the provider used by documents that were not given one explicitly.
+     *
+     * @return the default provider
+     * @throws XmlDocumentCheckedException If the parser cannot be configured.
+     */
+    public static DocumentBuilderProvider getDefault() throws XmlDocumentCheckedException
+    {
+        DocumentBuilderProvider provider = sDefaultProvider;
+
+        if (provider == null)
+        {
+            synchronized (DocumentBuilderProvider.class)
+            {
+                provider = sDefaultProvider;
+
+                if (provider == null)
+                {
+                    provider = new DocumentBuilderProvider();
+                    sDefaultProvider = provider;
+                }
+            }
+        }
+
+        return provider;
+    }
+
+    /**
+     * Replaces the provider used by documents that were not given one explicitly.
+     *
+     * @param provider the new default provider, or null to restore the standard configuration
+     */
+    public static void setDefault(DocumentBuilderProvider provider)
+    {
+        sDefaultProvider = provider;
+    }
+
+    /**
+     *
+     * @return Whether the builders produced by this provider are namespace aware.
+     */
+    public boolean isNamespaceAware()
+    {
+        return mNamespaceAware;
+    }
+
+    /**
+     *
+     * @return The parser features applied to the factory.
+     */
+    public Map<String, Boolean> getFeatures()
+    {
+        return mFeatures;
+    }
+
+    /**
+     *
+     * @return The schema documents are validated against while they are parsed, or null.
+     */
+    public XmlSchema getSchema()
+    {
+        return mSchema;
+    }
+
+    /**
+     * Returns the calling thread's DocumentBuilder, reset to its configured state.
+     * The builder must not be handed to another thread.
+     *
+     * @return a DocumentBuilder owned by the calling thread
+     * @throws XmlDocumentCheckedException If the builder cannot be created.
+     */
+    public DocumentBuilder getDocumentBuilder() throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".getDocumentBuilder()";
+
+        DocumentBuilder builder = mBuilders.get();
+
+        if (builder == null)
+        {
+            try
+            {
+                synchronized (mFactory)
+                {
+                    builder = mFactory.newDocumentBuilder();
+                }
+            }
+            catch (Exception e)
+            {
+                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+            }
+
+            mBuilders.set(builder);
+        }
+        else
+        {
+            builder.reset();
+        }
+
+        if (mSchema != null)
+        {
+            // Stop at the first validation error rather than report it and carry on.
+            builder.setErrorHandler(sErrorHandler);
+        }
+
+        return builder;
+    }
+
+    /**
+     *
+     * @return A new, empty document.
+     * @throws XmlDocumentCheckedException If the builder cannot be created.
+     */
+    public Document newDocument() throws XmlDocumentCheckedException
+    {
+        return getDocumentBuilder().newDocument();
+    }
+
+    /**
+     *
+     * @param source The XML to parse.
+     * @return The parsed document.
+     * @throws SAXException If the XML is not well formed.
+     * @throws IOException If the source cannot be read.
+     * @throws XmlDocumentCheckedException If the builder cannot be created.
+     */
+    public Document parse(InputSource source) throws SAXException, IOException, XmlDocumentCheckedException
+    {
+        return getDocumentBuilder().parse(source);
+    }
+}
@@ -3,6 +3,9 @@ package com.nfbsoftware.xml;
 import java.io.File;
 import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
 
 import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
 
@@ -21,6 +24,117 @@ public interface IXmlDocument extends IXmlElement
      */
     String getNameSpace() throws XmlDocumentCheckedException;
 
+    /**
+     * This method returns whether the child accessors of this document's elements
+     * return live views.
+     *
+     * @return true if <code>getChild</code> and <code>getChildren</code> return live views,
+     * false if they return copies.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    boolean isLiveViews() throws XmlDocumentCheckedException;
+
+    /**
+     * This method selects how <code>getChild(String)</code>, <code>getChild(int)</code>,
+     * <code>getChildren()</code> and <code>getChildrenByName(String)</code> return elements
+     * for every element of this document. By default each returned element is a deep copy
+     * held in a new document. In live view mode the returned elements are lightweight
+     * wrappers over the document's own nodes: nothing is copied, and changes made through
+     * them are made to this document. Use <code>clone(true)</code> to take an explicit copy.
+     *
+     * @param liveViews true to return live views, false to return copies
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void setLiveViews(boolean liveViews) throws XmlDocumentCheckedException;
+
+    /**
+     * This method returns whether lookups by element name use an index.
+     *
+     * @return true if lookups by element name use an index of this document's elements.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    boolean isNameIndexed() throws XmlDocumentCheckedException;
+
+    /**
+     * This method selects whether lookups by element name use an index of this
+     * document's elements, grouped by name in document order. The index speeds up
+     * <code>getDescendantsByName(String)</code>, child paths such as
+     * <code>getChild("A/B/C")</code> looked up from the document or its root
+     * element, and <code>//name</code> XPath queries. It is built on the first
+     * lookup and again on the first lookup after the document's structure is
+     * changed through an XmlDocument method, so it suits documents that are read
+     * far more often than they are restructured.
+     *
+     * @param nameIndexed true to index lookups by element name
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void setNameIndexed(boolean nameIndexed) throws XmlDocumentCheckedException;
+
+    /**
+     * This method returns whether XPath queries reuse one context over this document.
+     *
+     * @return true if XPath queries on this document reuse one context.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    boolean isXPathContextReused() throws XmlDocumentCheckedException;
+
+    /**
+     * This method selects whether XPath queries on this document's elements reuse
+     * one XPath context, which keeps the model Xalan builds over the document
+     * between queries instead of building it again for each one. The context is
+     * dropped whenever the document is changed through an XmlDocument method, so
+     * it suits documents that are queried far more often than they are changed.
+     * Changes made directly to the DOM, through <code>getDocument()</code> or
+     * <code>getRootNode()</code>, are not seen by queries until the next change
+     * made through an XmlDocument method.
+     *
+     * @param xpathContextReused true to reuse one XPath context
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void setXPathContextReused(boolean xpathContextReused) throws XmlDocumentCheckedException;
+
+    /**
+     * This method declares a key, much like an XSLT <code>xsl:key</code>, that this
+     * document's elements with the given name can be looked up by in constant time:
+     * the value of one of their attributes, such as <code>@id</code>, or the string
+     * value of the children at a path, such as <code>id</code> or <code>Header/Id</code>.
+     * Once declared, XPath queries of the form <code>//Element[@id='1000']</code> or
+     * <code>//Element[Header/Id='1000']</code> also use the key. The key's index is
+     * built on the first lookup; values changed through XmlDocument methods are
+     * updated in place, while adding or removing nodes makes it rebuild on the next
+     * lookup. Declaring the same key again has no effect.
+     *
+     * @param elementName The name of the elements.
+     * @param use <code>@attribute</code> or a child path.
+     * @throws XmlDocumentCheckedException If the key is invalid.
+     */
+    void declareKey(String elementName, String use) throws XmlDocumentCheckedException;
+
+    /**
+     * This method returns the elements with the given name whose value for the first
+     * key declared for them is the given value, in document order. The elements are
+     * live views of this document's nodes.
+     *
+     * @param elementName The name of the elements.
+     * @param value The key value.
+     * @return The matching elements; empty if there are none.
+     * @throws XmlDocumentCheckedException If no key has been declared for the elements.
+     */
+    List<IXmlElement> getByKey(String elementName, String value) throws XmlDocumentCheckedException;
+
+    /**
+     * This method returns the elements with the given name whose value for the given
+     * key is the given value, in document order. The elements are live views of this
+     * document's nodes.
+     *
+     * @param elementName The name of the elements.
+     * @param use <code>@attribute</code> or a child path, as declared.
+     * @param value The key value.
+     * @return The matching elements; empty if there are none.
+     * @throws XmlDocumentCheckedException If the key has not been declared.
+     */
+    List<IXmlElement> getByKey(String elementName, String use, String value) throws XmlDocumentCheckedException;
+
     /**
      * This method replaces the content of the current root node
      * with that of the input file.
@@ -68,6 +182,38 @@ public interface IXmlDocument extends IXmlElement
      */
     void load(InputStream in, String encoding) throws XmlDocumentCheckedException;
 
+    /**
+     * This method replaces the content of the current root node
+     * with that of the byte array. The encoding is detected by the parser
+     * from the byte order mark or the XML declaration.
+     *
+     * @param bytes The bytes of an XML document.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void load(byte[] bytes) throws XmlDocumentCheckedException;
+
+    /**
+     * This method replaces the content of the current root node
+     * with the remaining bytes of the buffer, which may be a heap or a direct
+     * buffer. The buffer's position is not changed. The encoding is detected
+     * by the parser from the byte order mark or the XML declaration.
+     *
+     * @param buffer A buffer containing an XML document.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void load(ByteBuffer buffer) throws XmlDocumentCheckedException;
+
+    /**
+     * This method replaces the content of the current root node
+     * with that of the input file, which is read through a channel, whole if
+     * it is small, and closed before this method returns. The encoding is
+     * detected by the parser from the byte order mark or the XML declaration.
+     *
+     * @param path points to the XML file
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void load(Path path) throws XmlDocumentCheckedException;
+
     /**
      * This method replaces the content of the current root node
      * with that of the input string.
@@ -85,8 +231,40 @@ public interface IXmlDocument extends IXmlElement
     IXmlElement getRootElement()  throws XmlDocumentCheckedException;
 
     /**
-     * Determine if the xml document in question
+     * Determine if the xml document in question is valid against the DTD or
+     * the schemas named by its <code>xsi:schemaLocation</code> hints. Documents
+     * without a DTD are validated in place, without being serialized.
+     *
      * @throws XmlDocumentCheckedException If the XML is invalid.
      */
     void isValid() throws XmlDocumentCheckedException;
+
+    /**
+     * Determine if the xml document in question is valid against the schema.
+     * The document is validated in place, without being serialized.
+     *
+     * @param schema A compiled schema, obtained from <code>XmlSchemaCache</code>.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void isValid(XmlSchema schema) throws XmlDocumentCheckedException;
+
+    /**
+     * Determine if the xml document in question is still valid against the
+     * schema, re-checking only the elements changed through XmlDocument methods
+     * since it was last found valid against the same schema. The first call,
+     * or a call after many changes, validates the whole document.
+     * <p>
+     * Each change is checked with the subtree of its nearest element that is
+     * declared globally where it stands, or with the whole document when the
+     * schema's declarations cannot be resolved.
+     * <p>
+     * Changed subtrees are checked on their own, so identity constraints
+     * (<code>xs:key</code>, <code>xs:unique</code>) declared above a changed
+     * element are not re-checked. Use <code>isValid(XmlSchema)</code> when
+     * those must hold.
+     *
+     * @param schema A compiled schema, obtained from <code>XmlSchemaCache</code>.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void isValidIncremental(XmlSchema schema) throws XmlDocumentCheckedException;
 }
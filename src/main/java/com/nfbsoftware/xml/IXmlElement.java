@@ -3,6 +3,8 @@ package com.nfbsoftware.xml;
 import java.io.File;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ForkJoinPool;
 import java.util.Collection;
 import java.util.List;
 
@@ -91,6 +93,18 @@ public interface IXmlElement extends Serializable
      */
     IXmlElement createChildren(String fullChildPath) throws XmlDocumentCheckedException;
 
+    /**
+     * This method creates all of the child elements referenced by a compiled
+     * child path that do not exist yet.
+     *
+     * @param path the compiled path of the elements to create
+     *
+     * @return IXmlElement the last element in the child path
+     *
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    IXmlElement createChildren(XmlPath path) throws XmlDocumentCheckedException;
+
     /**
      * This method returns the attribute's value according to input attribute name.
      *
@@ -147,6 +161,17 @@ public interface IXmlElement extends Serializable
      * XmlDocumentCheckedException.Codes.GENERAL_ERROR</code>
      */
     IXmlElement getChild(String childName) throws XmlDocumentCheckedException;
+
+    /**
+     * This method returns the first child element identified by a compiled path.
+     *
+     * @param path the compiled path to the child element
+     *
+     * @return The first child element identified by the path, or null if there is none
+     *
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    IXmlElement getChild(XmlPath path) throws XmlDocumentCheckedException;
     
     /**
      * 
@@ -177,6 +202,18 @@ public interface IXmlElement extends Serializable
      */
     String getChildAttribute(String child, String attr) throws XmlDocumentCheckedException;
 
+    /**
+     * This method returns the attribute value of the child identified by a compiled path.
+     *
+     * @param path the compiled path to the child element
+     * @param attr Contains the attribute name
+     *
+     * @return A string contains the attribute value
+     *
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    String getChildAttribute(XmlPath path, String attr) throws XmlDocumentCheckedException;
+
     /**
      * This method returns the number of children.
      *
@@ -205,6 +242,40 @@ public interface IXmlElement extends Serializable
      */
     Collection<IXmlElement> getChildrenByName(String name) throws XmlDocumentCheckedException;
 
+    /**
+     * This method returns all of the elements below this element with the given
+     * name, at any depth, in document order.
+     *
+     * @param name of the desired elements.
+     * @return a list of the matching elements
+     *
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    List<IXmlElement> getDescendantsByName(String name) throws XmlDocumentCheckedException;
+
+    /**
+     * This method returns a lazy view of this element's children. Each iteration
+     * walks the children once, in document order, creating each element only as it
+     * is reached. Elements are copies or live views according to the document's
+     * live view mode. The iterator does not support <code>remove()</code>.
+     *
+     * @return the element's children
+     *
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    Iterable<IXmlElement> getChildElements() throws XmlDocumentCheckedException;
+
+    /**
+     * This method returns a lazy view of this element's children with the given name.
+     * Each iteration walks the children once, in document order.
+     *
+     * @param name of the desired children.
+     * @return the element's children with the given name
+     *
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    Iterable<IXmlElement> getChildElements(String name) throws XmlDocumentCheckedException;
+
     /**
      * This method returns the descendent's value.
      *
@@ -216,6 +287,17 @@ public interface IXmlElement extends Serializable
      */
     String getChildValue(String childName) throws XmlDocumentCheckedException;
 
+    /**
+     * This method returns the value of the descendent identified by a compiled path.
+     *
+     * @param path the compiled path to the child element
+     *
+     * @return the value of the child element
+     *
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    String getChildValue(XmlPath path) throws XmlDocumentCheckedException;
+
     /**
      * This method returns the descendent's value.
      *
@@ -289,6 +371,17 @@ public interface IXmlElement extends Serializable
      * @throws XmlDocumentCheckedException If the XML is invalid.
      */
     IXmlElement removeChild(String childName) throws XmlDocumentCheckedException;
+
+    /**
+     * This method removes the child element identified by a compiled path.
+     *
+     * @param path the compiled path to the element to remove
+     *
+     * @return the removed child
+     *
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    IXmlElement removeChild(XmlPath path) throws XmlDocumentCheckedException;
     
     /**
      * This method removes a single child element with the given xpath query.
@@ -407,4 +500,38 @@ public interface IXmlElement extends Serializable
      */
     void write(OutputStream output) throws XmlDocumentCheckedException;
 
+    /**
+     * This methods writes the content of the current XML document to the
+     * output stream, serializing the top level subtrees in parallel on the
+     * pool. The bytes written are the same as those of
+     * <code>write(OutputStream)</code>; this is worthwhile for large documents.
+     *
+     * @param output Contains the output stream to write to
+     * @param pool The pool the subtrees are serialized on
+     *
+     * @throws XmlDocumentCheckedException If the XML cannot be written.
+     */
+    void write(OutputStream output, ForkJoinPool pool) throws XmlDocumentCheckedException;
+
+    /**
+     * This methods writes the content of the current XML document to the
+     * channel, such as a FileChannel, without copying it to an intermediate
+     * array or String first.
+     *
+     * @param channel A channel in blocking mode
+     *
+     * @throws XmlDocumentCheckedException If the XML cannot be written.
+     */
+    void write(WritableByteChannel channel) throws XmlDocumentCheckedException;
+
+    /**
+     * This method starts a serialization of the current XML document that is
+     * written into ByteBuffers or onto non-blocking channels a buffer at a
+     * time. The document must not be changed until it is complete.
+     *
+     * @return The serialization.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    XmlSerialization createSerialization() throws XmlDocumentCheckedException;
+
 }
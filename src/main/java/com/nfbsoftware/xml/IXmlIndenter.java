@@ -0,0 +1,17 @@
+package com.nfbsoftware.xml;
+
+/**
+ * Decides how XmlSerializer indents markup. Elements whose content is only
+ * other elements, comments and processing instructions have each child
+ * written on a new line, followed by the indent for its depth; elements
+ * holding text are written unchanged.
+ */
+public interface IXmlIndenter
+{
+    /**
+     *
+     * @param depth The nesting depth of the markup that follows; 0 for the document element.
+     * @return The text written at the start of the new line, before the markup.
+     */
+    String getIndent(int depth);
+}
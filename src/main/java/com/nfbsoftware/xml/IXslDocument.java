@@ -2,8 +2,16 @@ package com.nfbsoftware.xml;
 
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
 
 import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
 
@@ -35,6 +43,17 @@ public interface IXslDocument extends Serializable
      */
     void load(File file, String encoding) throws XmlDocumentCheckedException;
 
+    /**
+     * This method replaces the content of the current root node
+     * with that of the input file, which is read through a channel, whole if
+     * it is small, and closed before this method returns.
+     *
+     * @param path points to the XML file
+     *
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void load(Path path) throws XmlDocumentCheckedException;
+
     /**
      * This method replaces the content of the current root node
      * with that of the InputStream.
@@ -141,6 +160,85 @@ public interface IXslDocument extends Serializable
      */
     String transform(String xml) throws XmlDocumentCheckedException;
 
+    /**
+     * This method transforms the xml document using this style sheet and
+     * writes the result to the stream as it is produced. The stream is
+     * flushed but not closed.
+     *
+     * @param xmlElement the XML document
+     * @param out the stream the result is written to
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void transform(IXmlElement xmlElement, OutputStream out) throws XmlDocumentCheckedException;
+
+    /**
+     * This method transforms the xml document using this style sheet and
+     * writes the result to the writer as it is produced. The writer is
+     * flushed but not closed.
+     *
+     * @param xmlElement the XML document
+     * @param writer the writer the result is written to
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void transform(IXmlElement xmlElement, Writer writer) throws XmlDocumentCheckedException;
+
+    /**
+     * This method transforms the xml document using this style sheet and
+     * writes the result to the channel as it is produced. The channel is
+     * not closed.
+     *
+     * @param xmlElement the XML document
+     * @param channel the channel the result is written to
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void transform(IXmlElement xmlElement, WritableByteChannel channel) throws XmlDocumentCheckedException;
+
+    /**
+     * This method transforms the xml document using this style sheet into
+     * the result.
+     *
+     * @param xmlElement the XML document
+     * @param result the result the output is written to
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void transform(IXmlElement xmlElement, Result result) throws XmlDocumentCheckedException;
+
+    /**
+     * This method transforms the source using this style sheet into the result.
+     *
+     * @param source the source of the XML document
+     * @param result the result the output is written to
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    void transform(Source source, Result result) throws XmlDocumentCheckedException;
+
+    /**
+     * This method starts transforming the xml document using this style sheet
+     * on a background thread and returns a stream the result can be read from
+     * while it is being produced. If the transform fails, reading the stream
+     * throws an IOException once the output produced so far has been read.
+     * The stream should be closed when done with; closing it early stops the
+     * transform.
+     *
+     * @param xmlElement the XML document
+     * @return A stream of the result.
+     * @throws XmlDocumentCheckedException If the style sheet is invalid.
+     */
+    InputStream transformToInputStream(IXmlElement xmlElement) throws XmlDocumentCheckedException;
+
+    /**
+     * This method starts transforming the xml document using this style sheet
+     * on a thread of the executor and returns a stream the result can be read
+     * from while it is being produced.
+     *
+     * @param xmlElement the XML document
+     * @param executor the executor the transform runs on
+     * @return A stream of the result.
+     * @throws XmlDocumentCheckedException If the style sheet is invalid.
+     * @see #transformToInputStream(IXmlElement)
+     */
+    InputStream transformToInputStream(IXmlElement xmlElement, Executor executor) throws XmlDocumentCheckedException;
+
     /**
      * This method transforms the xml document using this style sheet.
      *
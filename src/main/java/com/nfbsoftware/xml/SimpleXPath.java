@@ -0,0 +1,553 @@
+package com.nfbsoftware.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * An XPath expression from the simple subset most queries use, evaluated by
+ * walking the DOM directly instead of through Xalan. The subset is location
+ * paths, relative or absolute, whose steps are separated by <code>/</code> or
+ * <code>//</code> and are each an unprefixed element name or <code>*</code>,
+ * optionally with one predicate comparing an attribute or a child element with
+ * a literal:
+ *
+ * <pre>
+ * a/b/c
+ * //name
+ * //name[@attr='v']
+ * /ROOT/name[child="v"]//*
+ * </pre>
+ *
+ * Anything else, including whitespace outside literals, is left to Xalan.
+ * Simple expressions hold no execution state and may be shared between threads.
+ */
+final class SimpleXPath
+{
+    /**
+     * Orders distinct nodes of the same document in document order.
+     */
+    private static final Comparator<Node> sDocumentOrder = new Comparator<Node>()
+    {
+        @Override
+        public int compare(Node node, Node other)
+        {
+            return ((node.compareDocumentPosition(other) & Node.DOCUMENT_POSITION_FOLLOWING) != 0) ? -1 : 1;
+        }
+    };
+
+    /**
+     * Thrown while selecting nodes to hand the expression back to Xalan; it
+     * carries no stack trace, so throwing it costs little.
+     */
+    private static final RuntimeException sUnsupported = new RuntimeException("Not a simple XPath case", null, false, false)
+    {
+        private static final long serialVersionUID = 1L;
+    };
+
+    /**
+     * Whether the path starts from the root of the document.
+     */
+    private final boolean mAbsolute;
+
+    /**
+     * The steps of the path.
+     */
+    private final Step[] mSteps;
+
+    /**
+     *
+     * @param absolute Whether the path starts from the root of the document.
+     * @param steps The steps of the path.
+     */
+    private SimpleXPath(boolean absolute, Step[] steps)
+    {
+        mAbsolute = absolute;
+        mSteps = steps;
+    }
+
+    /**
+     * Parses an expression if it is in the simple subset.
+     *
+     * @param expression The XPath expression.
+     * @return The simple expression, or null if the expression is not in the subset.
+     */
+    static SimpleXPath parse(String expression)
+    {
+        int length = expression.length();
+        int index = 0;
+        boolean absolute = false;
+        boolean descendant = false;
+
+        if (expression.startsWith("//"))
+        {
+            absolute = true;
+            descendant = true;
+            index = 2;
+        }
+        else if (expression.startsWith("/"))
+        {
+            absolute = true;
+            index = 1;
+        }
+
+        List<Step> steps = new ArrayList<Step>();
+
+        while (true)
+        {
+            int end = (expression.startsWith("*", index)) ? index + 1 : skipName(expression, index);
+
+            if (end == index)
+            {
+                return null;
+            }
+
+            String name = expression.substring(index, end);
+            Step step = new Step(descendant, name.equals("*") ? null : name);
+            index = end;
+
+            if (expression.startsWith("[", index))
+            {
+                index = parsePredicate(expression, index + 1, step);
+
+                if (index < 0)
+                {
+                    return null;
+                }
+            }
+
+            steps.add(step);
+
+            if (index == length)
+            {
+                return new SimpleXPath(absolute, steps.toArray(new Step[steps.size()]));
+            }
+
+            if (expression.startsWith("//", index))
+            {
+                descendant = true;
+                index += 2;
+            }
+            else if (expression.startsWith("/", index))
+            {
+                descendant = false;
+                index += 1;
+            }
+            else
+            {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Selects the nodes the expression matches.
+     *
+     * @param contextNode The node the expression is evaluated from.
+     * @return The selected nodes in document order, or null if they must be
+     *         selected by Xalan, as when the document holds entity references or
+     *         prefixed names created without namespace support.
+     */
+    NodeList select(Node contextNode)
+    {
+        try
+        {
+            return selectNodes(contextNode);
+        }
+        catch (RuntimeException e)
+        {
+            if (e != sUnsupported)
+            {
+                throw e;
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @param contextNode The node the expression is evaluated from.
+     * @return The selected nodes in document order, or null if they must be selected by Xalan.
+     */
+    private NodeList selectNodes(Node contextNode)
+    {
+        short type = contextNode.getNodeType();
+
+        if ((type != Node.ELEMENT_NODE) && (type != Node.DOCUMENT_NODE))
+        {
+            return null;
+        }
+
+        if (mAbsolute)
+        {
+            // The root of a tree that is not in a document is left to Xalan.
+            while ((contextNode != null) && (contextNode.getNodeType() != Node.DOCUMENT_NODE))
+            {
+                contextNode = contextNode.getParentNode();
+            }
+
+            if (contextNode == null)
+            {
+                return null;
+            }
+        }
+
+        List<Node> nodes = Collections.singletonList(contextNode);
+
+        // Whether any of the nodes may contain another.
+        boolean nested = false;
+
+        for (Step step : mSteps)
+        {
+            List<Node> selected = new ArrayList<Node>();
+
+            if (step.mDescendant)
+            {
+                Node covered = null;
+
+                for (Node node : nodes)
+                {
+                    // A node inside one already searched adds nothing new.
+                    if (nested && (covered != null) && isAncestor(covered, node))
+                    {
+                        continue;
+                    }
+
+                    covered = node;
+                    selectDescendants(node, step, selected);
+                }
+
+                nested = selected.size() > 1;
+            }
+            else
+            {
+                for (Node node : nodes)
+                {
+                    selectChildren(node, step, selected);
+                }
+
+                // The children of nested nodes come out of document order.
+                if (nested && (selected.size() > 1))
+                {
+                    Collections.sort(selected, sDocumentOrder);
+                }
+            }
+
+            if (selected.isEmpty())
+            {
+                return new StaticNodeList(selected);
+            }
+
+            nodes = selected;
+        }
+
+        return new StaticNodeList(nodes);
+    }
+
+    /**
+     *
+     * @param node The node.
+     * @param step The step.
+     * @param selected Receives the node's children the step matches.
+     */
+    private static void selectChildren(Node node, Step step, List<Node> selected)
+    {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            short type = child.getNodeType();
+
+            if (type == Node.ENTITY_REFERENCE_NODE)
+            {
+                throw sUnsupported;
+            }
+
+            if ((type == Node.ELEMENT_NODE) && step.matches(child))
+            {
+                selected.add(child);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param root The node.
+     * @param step The step.
+     * @param selected Receives the node's descendants the step matches, in document order.
+     */
+    private static void selectDescendants(Node root, Step step, List<Node> selected)
+    {
+        Node node = root.getFirstChild();
+
+        while (node != null)
+        {
+            short type = node.getNodeType();
+
+            if (type == Node.ENTITY_REFERENCE_NODE)
+            {
+                throw sUnsupported;
+            }
+
+            Node next = null;
+
+            if (type == Node.ELEMENT_NODE)
+            {
+                if (step.matches(node))
+                {
+                    selected.add(node);
+                }
+
+                next = node.getFirstChild();
+            }
+
+            while ((next == null) && (node != root))
+            {
+                next = node.getNextSibling();
+
+                if (next == null)
+                {
+                    node = node.getParentNode();
+                }
+            }
+
+            node = next;
+        }
+    }
+
+    /**
+     *
+     * @param ancestor A node.
+     * @param node Another node.
+     * @return Whether the first node contains the second.
+     */
+    private static boolean isAncestor(Node ancestor, Node node)
+    {
+        for (Node parent = node.getParentNode(); parent != null; parent = parent.getParentNode())
+        {
+            if (parent == ancestor)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Parses a predicate of the form <code>@attr='v'</code> or <code>child="v"</code>.
+     *
+     * @param expression The expression.
+     * @param index The index after the predicate's '['.
+     * @param step The step the predicate belongs to.
+     * @return The index after the predicate's ']', or -1 if it is not in the subset.
+     */
+    private static int parsePredicate(String expression, int index, Step step)
+    {
+        boolean attribute = expression.startsWith("@", index);
+
+        if (attribute)
+        {
+            index++;
+        }
+
+        int end = skipName(expression, index);
+
+        if (end == index)
+        {
+            return -1;
+        }
+
+        String name = expression.substring(index, end);
+
+        // Namespace declarations are not attributes in XPath.
+        if (attribute && name.equals("xmlns"))
+        {
+            return -1;
+        }
+
+        if (!expression.startsWith("=", end) || (end + 1 >= expression.length()))
+        {
+            return -1;
+        }
+
+        char quote = expression.charAt(end + 1);
+
+        if ((quote != '\'') && (quote != '"'))
+        {
+            return -1;
+        }
+
+        int close = expression.indexOf(quote, end + 2);
+
+        if ((close < 0) || !expression.startsWith("]", close + 1))
+        {
+            return -1;
+        }
+
+        step.mPredicateName = name;
+        step.mPredicateAttribute = attribute;
+        step.mPredicateValue = expression.substring(end + 2, close);
+
+        return close + 2;
+    }
+
+    /**
+     *
+     * @param expression The expression.
+     * @param index The index the name starts at.
+     * @return The index after the name, or the index itself if there is no name there.
+     */
+    private static int skipName(String expression, int index)
+    {
+        int length = expression.length();
+
+        if ((index == length) || (!Character.isLetter(expression.charAt(index)) && (expression.charAt(index) != '_')))
+        {
+            return index;
+        }
+
+        int end = index + 1;
+
+        while (end < length)
+        {
+            char c = expression.charAt(end);
+
+            if (!Character.isLetterOrDigit(c) && (c != '_') && (c != '-') && (c != '.'))
+            {
+                break;
+            }
+
+            end++;
+        }
+
+        return end;
+    }
+
+    /**
+     *
+     * @param node An element or attribute.
+     * @param name An unprefixed name.
+     * @return Whether an unprefixed XPath name test matches the node.
+     */
+    private static boolean hasName(Node node, String name)
+    {
+        String localName = node.getLocalName();
+
+        if (localName == null)
+        {
+            // A node created without namespace support has no namespace, but
+            // Xalan matches a prefixed one by the rest of its name on some axes
+            // and not on others, so those are left to it.
+            String nodeName = node.getNodeName();
+
+            if (nodeName.equals(name))
+            {
+                return true;
+            }
+
+            if (nodeName.endsWith(name) && (nodeName.charAt(nodeName.length() - name.length() - 1) == ':'))
+            {
+                throw sUnsupported;
+            }
+
+            return false;
+        }
+
+        return (node.getNamespaceURI() == null) && name.equals(localName);
+    }
+
+    /**
+     * A step of a simple path.
+     */
+    private static final class Step
+    {
+        /**
+         * Whether the step selects descendants rather than children.
+         */
+        private final boolean mDescendant;
+
+        /**
+         * The name of the elements the step selects, or null for any element.
+         */
+        private final String mName;
+
+        /**
+         * The name of the attribute or child the predicate compares, or null if there is no predicate.
+         */
+        private String mPredicateName;
+
+        /**
+         * Whether the predicate compares an attribute rather than a child.
+         */
+        private boolean mPredicateAttribute;
+
+        /**
+         * The value the predicate compares with.
+         */
+        private String mPredicateValue;
+
+        /**
+         *
+         * @param descendant Whether the step selects descendants rather than children.
+         * @param name The name of the elements the step selects, or null for any element.
+         */
+        Step(boolean descendant, String name)
+        {
+            mDescendant = descendant;
+            mName = name;
+        }
+
+        /**
+         *
+         * @param element An element.
+         * @return Whether the step selects the element.
+         */
+        boolean matches(Node element)
+        {
+            if ((mName != null) && !hasName(element, mName))
+            {
+                return false;
+            }
+
+            if (mPredicateName == null)
+            {
+                return true;
+            }
+
+            if (mPredicateAttribute)
+            {
+                NamedNodeMap attributes = element.getAttributes();
+
+                for (int i = 0, length = attributes.getLength(); i < length; i++)
+                {
+                    Node attribute = attributes.item(i);
+                    String nodeName = attribute.getNodeName();
+
+                    // Namespace declarations are not attributes in XPath.
+                    if (hasName(attribute, mPredicateName) && !nodeName.equals("xmlns") && !nodeName.startsWith("xmlns:") && mPredicateValue.equals(attribute.getNodeValue()))
+                    {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            // As in XPath, the predicate holds if any such child has the value.
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                if ((child.getNodeType() == Node.ELEMENT_NODE) && hasName(child, mPredicateName) && mPredicateValue.equals(child.getTextContent()))
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.nfbsoftware.xml;
+
+import java.util.List;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A NodeList over a fixed list of nodes, for results that are not computed
+ * by a DOM or XPath implementation.
+ */
+final class StaticNodeList implements NodeList
+{
+    /** */
+    private final List<Node> mNodes;
+
+    /**
+     *
+     * @param nodes The nodes in the list.
+     */
+    StaticNodeList(List<Node> nodes)
+    {
+        mNodes = nodes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Node item(int index)
+    {
+        return ((index >= 0) && (index < mNodes.size())) ? mNodes.get(index) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLength()
+    {
+        return mNodes.size();
+    }
+}
@@ -0,0 +1,299 @@
+package com.nfbsoftware.xml;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+
+import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+
+/**
+ * A bounded pool of Transformers created from one compiled stylesheet.
+ * <p>
+ * Transformers are not thread safe, but they are reusable once
+ * <code>reset()</code>. The pool hands each caller its own Transformer, so any
+ * number of threads, up to the maximum size, can transform with the same
+ * stylesheet at once. When every Transformer is in use, <code>borrow()</code>
+ * waits up to the maximum wait time for one to be returned before failing with
+ * <code>TRANSFORMER_POOL_EXHAUSTED</code>.
+ * <p>
+ * Usage counts and wait times are kept so the pool can be sized from
+ * production metrics.
+ */
+public class TransformerPool
+{
+    /**
+     * The default maximum number of Transformers, in use or idle.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The default time in milliseconds to wait for a Transformer when all are in use.
+     */
+    public static final long DEFAULT_MAXIMUM_WAIT_MILLIS = 30000L;
+
+    /**
+     * The compiled stylesheet the Transformers are created from.
+     */
+    private final Templates mTemplates;
+
+    /**
+     * The maximum number of Transformers, in use or idle.
+     */
+    private final int mMaximumSize;
+
+    /**
+     * The time in milliseconds to wait for a Transformer when all are in use.
+     */
+    private final long mMaximumWaitMillis;
+
+    /**
+     * One permit per Transformer that may still be borrowed.
+     */
+    private final Semaphore mPermits;
+
+    /**
+     * The Transformers that have been returned and reset.
+     */
+    private final ConcurrentLinkedQueue<Transformer> mIdle = new ConcurrentLinkedQueue<Transformer>();
+
+    /** */
+    private final AtomicLong mBorrowCount = new AtomicLong();
+
+    /** */
+    private final AtomicLong mCreatedCount = new AtomicLong();
+
+    /** */
+    private final AtomicLong mWaitCount = new AtomicLong();
+
+    /** */
+    private final AtomicLong mWaitNanos = new AtomicLong();
+
+    /** */
+    private final AtomicLong mTimeoutCount = new AtomicLong();
+
+    /**
+     *
+     * @param templates The compiled stylesheet the Transformers are created from.
+     */
+    public TransformerPool(Templates templates)
+    {
+        this(templates, DEFAULT_MAXIMUM_SIZE, DEFAULT_MAXIMUM_WAIT_MILLIS);
+    }
+
+    /**
+     *
+     * @param templates The compiled stylesheet the Transformers are created from.
+     * @param maximumSize The maximum number of Transformers, in use or idle; must be at least 1.
+     * @param maximumWaitMillis The time in milliseconds to wait for a Transformer when all are in use.
+     */
+    public TransformerPool(Templates templates, int maximumSize, long maximumWaitMillis)
+    {
+        if (maximumSize < 1)
+        {
+            throw new IllegalArgumentException("The maximum size must be at least 1: " + maximumSize);
+        }
+
+        mTemplates = templates;
+        mMaximumSize = maximumSize;
+        mMaximumWaitMillis = maximumWaitMillis;
+        mPermits = new Semaphore(maximumSize, true);
+    }
+
+    /**
+     *
+     * @return The compiled stylesheet the Transformers are created from.
+     */
+    public Templates getTemplates()
+    {
+        return mTemplates;
+    }
+
+    /**
+     * Takes a Transformer from the pool, creating one if none is idle. Every
+     * Transformer borrowed must be given back with <code>release(Transformer)</code>.
+     *
+     * @return A Transformer for the caller's exclusive use.
+     * @throws XmlDocumentCheckedException If none became available within the maximum wait time.
+     */
+    public Transformer borrow() throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".borrow()";
+
+        if (!mPermits.tryAcquire())
+        {
+            long start = System.nanoTime();
+            boolean acquired;
+
+            try
+            {
+                acquired = mPermits.tryAcquire(mMaximumWaitMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+
+                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+            }
+            finally
+            {
+                mWaitCount.incrementAndGet();
+                mWaitNanos.addAndGet(System.nanoTime() - start);
+            }
+
+            if (!acquired)
+            {
+                mTimeoutCount.incrementAndGet();
+
+                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.TRANSFORMER_POOL_EXHAUSTED, Long.valueOf(mMaximumWaitMillis), debugString);
+            }
+        }
+
+        mBorrowCount.incrementAndGet();
+
+        Transformer transformer = mIdle.poll();
+
+        if (transformer == null)
+        {
+            try
+            {
+                transformer = mTemplates.newTransformer();
+                mCreatedCount.incrementAndGet();
+            }
+            catch (TransformerConfigurationException e)
+            {
+                mPermits.release();
+
+                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+            }
+        }
+
+        return transformer;
+    }
+
+    /**
+     * Returns a borrowed Transformer to the pool. Its parameters, output
+     * properties and listeners are reset before it is reused.
+     *
+     * @param transformer A Transformer obtained from <code>borrow()</code>.
+     */
+    public void release(Transformer transformer)
+    {
+        try
+        {
+            transformer.reset();
+            mIdle.offer(transformer);
+        }
+        catch (RuntimeException e)
+        {
+            // A Transformer that cannot be reset is dropped; a new one is created when needed.
+        }
+        finally
+        {
+            mPermits.release();
+        }
+    }
+
+    /**
+     *
+     * @return The maximum number of Transformers, in use or idle.
+     */
+    public int getMaximumSize()
+    {
+        return mMaximumSize;
+    }
+
+    /**
+     *
+     * @return The time in milliseconds to wait for a Transformer when all are in use.
+     */
+    public long getMaximumWaitMillis()
+    {
+        return mMaximumWaitMillis;
+    }
+
+    /**
+     *
+     * @return The number of Transformers currently borrowed.
+     */
+    public int getActiveCount()
+    {
+        return mMaximumSize - mPermits.availablePermits();
+    }
+
+    /**
+     *
+     * @return The number of Transformers waiting to be reused.
+     */
+    public int getIdleCount()
+    {
+        return mIdle.size();
+    }
+
+    /**
+     *
+     * @return The fraction, from 0 to 1, of the maximum size currently borrowed.
+     */
+    public double getUtilization()
+    {
+        return (double) getActiveCount() / mMaximumSize;
+    }
+
+    /**
+     *
+     * @return The number of threads currently waiting for a Transformer.
+     */
+    public int getWaitingCount()
+    {
+        return mPermits.getQueueLength();
+    }
+
+    /**
+     *
+     * @return The number of successful borrows.
+     */
+    public long getBorrowCount()
+    {
+        return mBorrowCount.get();
+    }
+
+    /**
+     *
+     * @return The number of Transformers created from the stylesheet.
+     */
+    public long getCreatedCount()
+    {
+        return mCreatedCount.get();
+    }
+
+    /**
+     *
+     * @return The number of borrows that had to wait because every Transformer was in use.
+     */
+    public long getWaitCount()
+    {
+        return mWaitCount.get();
+    }
+
+    /**
+     *
+     * @return The total time in milliseconds borrowers have spent waiting.
+     */
+    public long getTotalWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(mWaitNanos.get());
+    }
+
+    /**
+     *
+     * @return The number of borrows that failed because no Transformer became available in time.
+     */
+    public long getTimeoutCount()
+    {
+        return mTimeoutCount.get();
+    }
+}
@@ -0,0 +1,212 @@
+package com.nfbsoftware.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encodes markup as UTF-8 straight into a byte buffer, which is written to an
+ * OutputStream whenever it fills. No Writer or CharsetEncoder sits in between,
+ * and the stream needs no buffering of its own. Without a stream the buffer
+ * grows instead, and its bytes are taken by the caller.
+ */
+class Utf8XmlSink extends XmlSink
+{
+    /**
+     * The initial size of the byte buffer.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The stream the bytes are written to, or null to keep them in the buffer.
+     */
+    private final OutputStream mOutput;
+
+    /**
+     * The encoded bytes not yet written to the stream.
+     */
+    private byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The number of bytes in mBuffer.
+     */
+    private int mPosition;
+
+    /**
+     *
+     * @param output The stream the bytes are written to.
+     */
+    Utf8XmlSink(OutputStream output)
+    {
+        mOutput = output;
+    }
+
+    /**
+     * Creates a sink that keeps the bytes in its buffer.
+     */
+    Utf8XmlSink()
+    {
+        this(null);
+    }
+
+    /**
+     *
+     * @return The buffer holding the bytes written since the last reset.
+     */
+    byte[] getBuffer()
+    {
+        return mBuffer;
+    }
+
+    /**
+     *
+     * @return The number of bytes in the buffer.
+     */
+    int size()
+    {
+        return mPosition;
+    }
+
+    /**
+     * Empties the buffer.
+     */
+    void reset()
+    {
+        mPosition = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void write(char c) throws IOException
+    {
+        if (c < 0x80)
+        {
+            if (mPosition == mBuffer.length)
+            {
+                drain();
+            }
+
+            mBuffer[mPosition++] = (byte) c;
+        }
+        else
+        {
+            write(String.valueOf(c), 0, 1);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void write(String text, int start, int end) throws IOException
+    {
+        byte[] buffer = mBuffer;
+        int position = mPosition;
+
+        for (int i = start; i < end; i++)
+        {
+            // Room for the longest encoding, four bytes.
+            if (position > buffer.length - 4)
+            {
+                mPosition = position;
+                drain();
+                buffer = mBuffer;
+                position = mPosition;
+            }
+
+            char c = text.charAt(i);
+
+            if (c < 0x80)
+            {
+                buffer[position++] = (byte) c;
+            }
+            else if (c < 0x800)
+            {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && (i + 1 < end) && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                // An unpaired surrogate has no encoding.
+                buffer[position++] = (byte) '?';
+            }
+            else
+            {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        mPosition = position;
+    }
+
+    /**
+     * Writes bytes that are already encoded.
+     *
+     * @param bytes The array holding the bytes.
+     * @param offset The index of the first byte to write.
+     * @param length The number of bytes to write.
+     * @throws IOException If the stream cannot be written to.
+     */
+    void write(byte[] bytes, int offset, int length) throws IOException
+    {
+        if ((mOutput != null) && (length > mBuffer.length - mPosition))
+        {
+            drain();
+            mOutput.write(bytes, offset, length);
+
+            return;
+        }
+
+        while (length > mBuffer.length - mPosition)
+        {
+            drain();
+        }
+
+        System.arraycopy(bytes, offset, mBuffer, mPosition, length);
+        mPosition += length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void flush() throws IOException
+    {
+        if (mOutput != null)
+        {
+            drain();
+            mOutput.flush();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the stream or, without one, makes room for more.
+     *
+     * @throws IOException If the stream cannot be written to.
+     */
+    private void drain() throws IOException
+    {
+        if (mOutput == null)
+        {
+            mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+        }
+        else if (mPosition > 0)
+        {
+            mOutput.write(mBuffer, 0, mPosition);
+            mPosition = 0;
+        }
+    }
+}
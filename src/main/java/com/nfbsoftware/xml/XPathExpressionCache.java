@@ -0,0 +1,220 @@
+package com.nfbsoftware.xml;
+
+import javax.xml.transform.TransformerException;
+
+import org.w3c.dom.Node;
+
+import com.nfbsoftware.util.LruCache;
+
+/**
+ * The process wide cache of compiled XPath expressions used by
+ * <code>selectChildren</code>, <code>selectChild</code> and the XPath based
+ * remove methods.
+ * <p>
+ * Expressions are keyed by their text and, when they use namespace prefixes, by
+ * the namespace URIs those prefixes resolve to from the context node. The cache
+ * holds at most <code>getMaximumSize()</code> expressions and evicts the least
+ * recently used one when full.
+ */
+public final class XPathExpressionCache
+{
+    /**
+     * The default maximum number of cached expressions.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+    /**
+     * Separates the expression text from the namespace bindings in a cache key.
+     */
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    /** */
+    private static final LruCache<String, CompiledXPath> sCache = new LruCache<String, CompiledXPath>(DEFAULT_MAXIMUM_SIZE);
+
+    /**
+     * Static access only.
+     */
+    private XPathExpressionCache()
+    {
+    }
+
+    /**
+     * Returns the compiled form of the expression, compiling and caching it on first use.
+     *
+     * @param expression The XPath expression.
+     * @param namespaceNode The node whose in-scope namespaces resolve the expression's prefixes.
+     * @return The compiled expression.
+     * @throws TransformerException If the expression is invalid.
+     */
+    static CompiledXPath getExpression(String expression, Node namespaceNode) throws TransformerException
+    {
+        String key = createKey(expression, namespaceNode);
+
+        CompiledXPath compiled = sCache.get(key);
+
+        if (compiled == null)
+        {
+            compiled = sCache.put(key, new CompiledXPath(expression, namespaceNode));
+        }
+
+        return compiled;
+    }
+
+    /**
+     *
+     * @return The number of lookups that found a compiled expression.
+     */
+    public static long getHitCount()
+    {
+        return sCache.getHitCount();
+    }
+
+    /**
+     *
+     * @return The number of lookups that had to compile the expression.
+     */
+    public static long getMissCount()
+    {
+        return sCache.getMissCount();
+    }
+
+    /**
+     *
+     * @return The number of expressions evicted to respect the maximum size.
+     */
+    public static long getEvictionCount()
+    {
+        return sCache.getEvictionCount();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counts to zero.
+     */
+    public static void resetStatistics()
+    {
+        sCache.resetStatistics();
+    }
+
+    /**
+     *
+     * @return The number of cached expressions.
+     */
+    public static int size()
+    {
+        return sCache.size();
+    }
+
+    /**
+     *
+     * @return The maximum number of cached expressions.
+     */
+    public static int getMaximumSize()
+    {
+        return sCache.getMaximumSize();
+    }
+
+    /**
+     *
+     * @param maximumSize The maximum number of cached expressions; must be at least 1.
+     */
+    public static void setMaximumSize(int maximumSize)
+    {
+        sCache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Removes all cached expressions.
+     */
+    public static void clear()
+    {
+        sCache.clear();
+    }
+
+    /**
+     * Builds the cache key. Expressions without namespace prefixes, by far the most
+     * common case, are keyed by their text alone; otherwise the URI each prefix
+     * resolves to is appended, since the compiled form depends on it.
+     *
+     * @param expression The XPath expression.
+     * @param namespaceNode The node whose in-scope namespaces resolve the expression's prefixes.
+     * @return The cache key.
+     */
+    private static String createKey(String expression, Node namespaceNode)
+    {
+        StringBuilder key = null;
+
+        int length = expression.length();
+        char quote = 0;
+        int nameStart = -1;
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = expression.charAt(i);
+
+            if (quote != 0)
+            {
+                if (c == quote)
+                {
+                    quote = 0;
+                }
+                continue;
+            }
+
+            if ((c == '\'') || (c == '"'))
+            {
+                quote = c;
+                nameStart = -1;
+            }
+            else if ((c == ':') && (nameStart >= 0))
+            {
+                boolean axis = ((i + 1) < length) && (expression.charAt(i + 1) == ':');
+
+                if (!axis)
+                {
+                    String prefix = expression.substring(nameStart, i);
+
+                    if (key == null)
+                    {
+                        key = new StringBuilder(expression);
+                    }
+
+                    key.append(KEY_SEPARATOR).append(prefix).append('=').append(lookupNamespaceURI(prefix, namespaceNode));
+                }
+                else
+                {
+                    i++;
+                }
+                nameStart = -1;
+            }
+            else if (Character.isLetterOrDigit(c) || (c == '_') || (c == '-') || (c == '.'))
+            {
+                if (nameStart < 0)
+                {
+                    nameStart = i;
+                }
+            }
+            else
+            {
+                nameStart = -1;
+            }
+        }
+
+        if (key == null)
+        {
+            return expression;
+        }
+
+        return key.toString();
+    }
+
+    /**
+     *
+     * @param prefix The namespace prefix.
+     * @param namespaceNode The node whose in-scope namespaces resolve the prefix.
+     * @return The namespace URI, or null if the prefix is not bound.
+     */
+    private static String lookupNamespaceURI(String prefix, Node namespaceNode)
+    {
+        return CompiledXPath.createPrefixResolver(namespaceNode).getNamespaceForPrefix(prefix);
+    }
+}
@@ -1,30 +1,42 @@
 package com.nfbsoftware.xml;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.xerces.dom.DocumentImpl;
-import org.apache.xml.serialize.OutputFormat;
-import org.apache.xml.serialize.XMLSerializer;
-import org.apache.xpath.CachedXPathAPI;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -37,9 +49,10 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
-import org.xml.sax.helpers.XMLReaderFactory;
 
+import com.nfbsoftware.util.ByteBufferInputStream;
 import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+import com.nfbsoftware.xml.exception.XmlDocumentRuntimeException;
 
 /**
  * 
@@ -53,6 +66,11 @@ public class XmlDocument implements IXmlDocument
 	 */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The size from which files are parsed as they are read rather than read whole first.
+     */
+    static final int STREAMING_THRESHOLD = 1024 * 1024;
+
     /**
      * <B>mDocument</B> stores the Document Node of the XML document. In W3C's
      * DOM model, each XML document must have a Document node and a root Element
@@ -66,21 +84,67 @@ public class XmlDocument implements IXmlDocument
     protected org.w3c.dom.Node mRootNode;
 
     /**
-     *
+     * The provider used to create and parse documents; the default provider is used when null.
+     */
+    private transient DocumentBuilderProvider mDocumentBuilderProvider;
+
+    /**
+     * Why the last load failed, or null if it succeeded.
+     */
+    private transient Exception mLoadFailure;
+
+    /**
+     * Whether documents loaded by <code>load(...)</code> keep the text they were loaded from.
+     */
+    private transient boolean mPreserveSource;
+
+    /**
+     * The shared state of the wrapped DOM document; resolved lazily.
+     */
+    private transient XmlDocumentContext mContext;
+
+    /**
+     * The element children of the root node, cached for indexed access.
      */
-    private transient DocumentBuilder mDocumentBuilder;
+    private transient Node[] mElementChildren;
 
     /**
-    *
-    */
-    private transient CachedXPathAPI mXPathAPI;
+     * The document's structure modification count when mElementChildren was built.
+     */
+    private transient long mElementChildrenVersion;
+
+    /**
+     * The root node's child node count when mElementChildren was built.
+     */
+    private transient int mElementChildrenNodeCount;
 
     /**
      * <B>sSeparator</B> contains the separator symbol used in child path.
      */
     protected final static String SEPARATOR = "/";
 
-    private static class ErrorHandler extends DefaultHandler
+    /**
+     * The factory for parsers that validate documents with a DTD; created on first use.
+     */
+    private static SAXParserFactory sDtdValidatingParserFactory;
+
+    /**
+     * Writes documents as they are, for <code>write(...)</code>.
+     */
+    private static final XmlSerializer sSerializer = new XmlSerializer();
+
+    /**
+     * Writes documents indented, for <code>toString()</code>.
+     */
+    private static final XmlSerializer sIndentingSerializer = new XmlSerializer(new XmlIndenter(4));
+
+    /**
+     * Matches <code>//Element[@attribute='value']</code> and <code>//Element[Child/Path="value"]</code>,
+     * the XPath queries a declared key can answer.
+     */
+    private static final Pattern sKeyQuery = Pattern.compile("//([A-Za-z_][\\w.-]*)\\[\\s*(@[A-Za-z_][\\w.-]*|[A-Za-z_][\\w.-]*(?:/[A-Za-z_][\\w.-]*)*)\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")\\s*\\]");
+
+    static class ErrorHandler extends DefaultHandler
     {
         @Override
         public void warning(final SAXParseException e) throws SAXException
@@ -112,6 +176,77 @@ public class XmlDocument implements IXmlDocument
         create();
     }
 
+    /**
+     * Creates an empty document that uses the given provider to create and
+     * parse documents, including all subsequent calls to <code>load(...)</code>.
+     *
+     * @param provider The DocumentBuilder provider.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public XmlDocument(DocumentBuilderProvider provider) throws XmlDocumentCheckedException
+    {
+        mDocumentBuilderProvider = provider;
+
+        create();
+    }
+
+    /**
+     * Creates an empty document whose subsequent calls to <code>load(...)</code>
+     * validate each document against the schema while parsing it.
+     *
+     * @param schema The schema documents are validated against.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public XmlDocument(XmlSchema schema) throws XmlDocumentCheckedException
+    {
+        this(schema.getDocumentBuilderProvider());
+    }
+
+    /**
+     * Creates a document from a stream, validating it against the schema while
+     * parsing it. Parsing stops at the first error.
+     *
+     * @param in The input stream with the xml document.
+     * @param schema The schema the document is validated against.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public XmlDocument(InputStream in, XmlSchema schema) throws XmlDocumentCheckedException
+    {
+        mDocumentBuilderProvider = schema.getDocumentBuilderProvider();
+
+        load(in);
+    }
+
+    /**
+     * Creates a document from a file, validating it against the schema while
+     * parsing it. Parsing stops at the first error.
+     *
+     * @param path The XML file.
+     * @param schema The schema the document is validated against.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public XmlDocument(Path path, XmlSchema schema) throws XmlDocumentCheckedException
+    {
+        mDocumentBuilderProvider = schema.getDocumentBuilderProvider();
+
+        load(path);
+    }
+
+    /**
+     * Creates a document from a string, validating it against the schema while
+     * parsing it. Parsing stops at the first error.
+     *
+     * @param xml A string with hopefully valid XML.
+     * @param schema The schema the document is validated against.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public XmlDocument(String xml, XmlSchema schema) throws XmlDocumentCheckedException
+    {
+        mDocumentBuilderProvider = schema.getDocumentBuilderProvider();
+
+        load(xml);
+    }
+
     /**
      *
      *
@@ -121,15 +256,13 @@ public class XmlDocument implements IXmlDocument
      */
     public XmlDocument(File file) throws XmlDocumentCheckedException
     {
-        this();
-
         final String debugString = getClass().getName() + ".XmlDocument(File)";
 
         try
         {
-            if (!replaceFromStream(new FileInputStream(file)))
+            if (!replaceFromFile(file.toPath(), null))
             {
-                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+                throw createLoadFailedException(debugString);
             }
         }
         catch (IOException ex)
@@ -152,9 +285,9 @@ public class XmlDocument implements IXmlDocument
 
         try
         {
-            if (!replaceFromStream(new FileInputStream(file), enc))
+            if (!replaceFromFile(file.toPath(), enc))
             {
-                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+                throw createLoadFailedException(debugString);
             }
         }
         catch (IOException ex)
@@ -176,7 +309,7 @@ public class XmlDocument implements IXmlDocument
 
         if (!replaceFromStream(in))
         {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+            throw createLoadFailedException(debugString);
         }
     }
 
@@ -196,7 +329,7 @@ public class XmlDocument implements IXmlDocument
         {
             if (!replaceFromStream(in, enc))
             {
-                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+                throw createLoadFailedException(debugString);
             }
         }
         catch (UnsupportedEncodingException ex)
@@ -218,10 +351,45 @@ public class XmlDocument implements IXmlDocument
 
         if (!replaceFromReader(reader))
         {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+            throw createLoadFailedException(debugString);
         }
     }
 
+    /**
+     * Creates a document from raw bytes; the parser detects the encoding.
+     *
+     * @param bytes The bytes of an XML document.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public XmlDocument(byte[] bytes) throws XmlDocumentCheckedException
+    {
+        load(bytes);
+    }
+
+    /**
+     * Creates a document from the remaining bytes of a heap or direct buffer;
+     * the parser detects the encoding.
+     *
+     * @param buffer A buffer containing an XML document.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public XmlDocument(ByteBuffer buffer) throws XmlDocumentCheckedException
+    {
+        load(buffer);
+    }
+
+    /**
+     * Creates a document from a file, which is read through a channel, whole
+     * if it is small; the parser detects the encoding.
+     *
+     * @param path The XML file.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public XmlDocument(Path path) throws XmlDocumentCheckedException
+    {
+        load(path);
+    }
+
     /**
      * @param node Node to create element from. 
      * @param doc Document to create element from.
@@ -257,7 +425,7 @@ public class XmlDocument implements IXmlDocument
 
         if (!replaceFromString(xml))
         {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+            throw createLoadFailedException(debugString);
         }
     }
 
@@ -267,8 +435,7 @@ public class XmlDocument implements IXmlDocument
      */
     private void create() throws XmlDocumentCheckedException
     {
-        mDocumentBuilder = createDocumentBuilder();
-        mDocument = mDocumentBuilder.newDocument();
+        mDocument = getDocumentBuilderProvider().newDocument();
         mRootNode = mDocument;
     }
 
@@ -299,6 +466,62 @@ public class XmlDocument implements IXmlDocument
         return new XmlDocument(rootNode, doc).getRootElement();
     }
 
+    /**
+     * Wraps a child node for the child accessors: a live view over the node when the
+     * document is in live view mode, otherwise a deep copy in a new document.
+     *
+     * @param node The child node.
+     * @return The element for the node.
+     * @throws XmlDocumentCheckedException If the node cannot be copied.
+     */
+    private IXmlElement createChildElement(Node node) throws XmlDocumentCheckedException
+    {
+        if (getContext().isLiveViews())
+        {
+            return create(node, mDocument);
+        }
+
+        return create(node);
+    }
+
+    /**
+     * Returns the state shared by all wrappers over this object's DOM document.
+     *
+     * @return The document context.
+     */
+    XmlDocumentContext getContext()
+    {
+        XmlDocumentContext context = mContext;
+
+        if ((context == null) || (context.getDocument() != mDocument))
+        {
+            context = XmlDocumentContext.get(mDocument);
+            mContext = context;
+        }
+
+        return context;
+    }
+
+    /**
+     * Records a change to a node's value or attributes.
+     *
+     * @param node The changed node.
+     */
+    private void contentModified(Node node)
+    {
+        getContext().contentModified(node);
+    }
+
+    /**
+     * Records that children were added to, removed from or replaced in a node.
+     *
+     * @param parent The node whose children changed.
+     */
+    private void structureModified(Node parent)
+    {
+        getContext().structureModified(parent);
+    }
+
     /**
      *
      * @param child to be added to current root node of this object.
@@ -313,6 +536,7 @@ public class XmlDocument implements IXmlDocument
         {
             Node e = mDocument.createElement(child);
             mRootNode.appendChild(e);
+            structureModified(mRootNode);
 
             if (!StringUtils.isEmpty(value))
             {
@@ -347,6 +571,7 @@ public class XmlDocument implements IXmlDocument
                 throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.NULL_ROOT_ELEMENT, debugString);
             }
             mRootNode.appendChild(examineChild(child.getDocument(), root));
+            structureModified(mRootNode);
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -408,6 +633,7 @@ public class XmlDocument implements IXmlDocument
             Node childRoot = child.getRootNode();
 
             parentNode.appendChild(examineChild(child.getDocument(), childRoot));
+            structureModified(parentNode);
         }
         catch (XmlDocumentCheckedException e)
         {
@@ -498,6 +724,24 @@ public class XmlDocument implements IXmlDocument
         return results;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IXmlElement createChildren(XmlPath path) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".createChildren(XmlPath)";
+
+        try
+        {
+            return create(prgCreateChildByPath(path), mDocument);
+        }
+        catch (XmlDocumentCheckedException ex)
+        {
+            throw new XmlDocumentCheckedException(debugString, ex);
+        }
+    }
+
     /**
      * This method creates a standing alone XmlData object with sName and
      * sValue. Note: NameSpace is not supported for all the implementations.
@@ -511,7 +755,7 @@ public class XmlDocument implements IXmlDocument
         final String debugString = getClass().getName() + ".createChildByName(String)";
         try
         {
-            Node childNode = prgCreateChildByName(child);
+            Node childNode = prgCreateChildByPath(XmlPath.get(child));
             return create(childNode, mDocument);
         }
         catch (XmlDocumentCheckedException e)
@@ -691,7 +935,7 @@ public class XmlDocument implements IXmlDocument
         final String debugString = getClass().getName() + ".getChild(int)";
         try
         {
-            Node child = getElementChildByIndex(mRootNode, index);
+            Node child = getElementChildByIndex(index);
 
             if (child == null)
             {
@@ -699,7 +943,7 @@ public class XmlDocument implements IXmlDocument
             }
             else
             {
-                return create(child);
+                return createChildElement(child);
             }
         }
         catch (XmlDocumentCheckedException e)
@@ -760,7 +1004,16 @@ public class XmlDocument implements IXmlDocument
      */
     public IXmlElement getChild(String childName) throws XmlDocumentCheckedException
     {
-        final String debugString = getClass().getName() + ".getChild(String)";
+        return getChild(XmlPath.get(childName));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IXmlElement getChild(XmlPath path) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".getChild(XmlPath)";
         Node childNode;
 
         try
@@ -770,7 +1023,7 @@ public class XmlDocument implements IXmlDocument
                 throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.NULL_ROOT_ELEMENT, debugString);
             }
 
-            childNode = prvGetChildByName(childName);
+            childNode = prvGetChildByPath(path, mRootNode);
 
             if (childNode == null)
             {
@@ -782,7 +1035,7 @@ public class XmlDocument implements IXmlDocument
             throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, ex, debugString, ex);
         }
 
-        return create(childNode);
+        return createChildElement(childNode);
     }
 
     /**
@@ -795,10 +1048,19 @@ public class XmlDocument implements IXmlDocument
      */
     public String getChildAttribute(String child, String attr) throws XmlDocumentCheckedException
     {
-        final String debugString = getClass().getName() + ".getChildAttribute(String, String)";
+        return getChildAttribute(XmlPath.get(child), attr);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getChildAttribute(XmlPath path, String attr) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".getChildAttribute(XmlPath, String)";
         try
         {
-            Node childNode = prvGetChildByName(child);
+            Node childNode = prvGetChildByPath(path, mRootNode);
 
             if (childNode == null)
             {
@@ -837,7 +1099,7 @@ public class XmlDocument implements IXmlDocument
         final String debugString = getClass().getName() + ".getChildrenCount()";
         try
         {
-            return getElementChildNodesLength(mRootNode.getChildNodes());
+            return getElementChildren().length;
         }
         catch (XmlDocumentCheckedException xdce)
         {
@@ -849,35 +1111,6 @@ public class XmlDocument implements IXmlDocument
         }
     }
 
-    /**
-     *
-     * @param childNodes A list of nodes.
-     * @return The length of the list.
-     * @throws XmlDocumentCheckedException If the XML is invalid.
-     */
-    private final int getElementChildNodesLength(NodeList childNodes) throws XmlDocumentCheckedException
-    {
-        final String debugString = getClass().getName() + ".getElementChildNodesLength(NodeList)";
-        try
-        {
-            int length = childNodes.getLength();
-            int size = 0;
-
-            for (int i = 0; i < length; i++)
-            {
-                if (childNodes.item(i).getNodeType() == Node.ELEMENT_NODE)
-                {
-                    size++;
-                }
-            }
-            return size;
-        }
-        catch (Exception ex)
-        {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, ex, debugString, ex);
-        }
-    }
-
     /**
      *
      *
@@ -917,13 +1150,11 @@ public class XmlDocument implements IXmlDocument
 
         try
         {
-            int length = getElementChildNodesLength(mRootNode.getChildNodes());
-            results = new ArrayList<IXmlElement>(length);
+            results = new ArrayList<IXmlElement>();
 
-            for (int i = 0; i < length; i++)
+            for (IXmlElement child : getChildElements())
             {
-                Node child = getElementChildByIndex(mRootNode, i);
-                results.add(create(child));
+                results.add(child);
             }
 
             return results;
@@ -932,6 +1163,10 @@ public class XmlDocument implements IXmlDocument
         {
             throw xdce;
         }
+        catch (XmlDocumentRuntimeException ex)
+        {
+            throw new XmlDocumentCheckedException(debugString, ex.getRootCause());
+        }
         catch (Exception ex)
         {
             throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, ex, debugString, ex);
@@ -951,17 +1186,11 @@ public class XmlDocument implements IXmlDocument
 
         try
         {
-            int length = getElementChildNodesLength(mRootNode.getChildNodes());
-            results = new ArrayList<IXmlElement>(length);
+            results = new ArrayList<IXmlElement>();
 
-            for (int i = 0; i < length; i++)
+            for (IXmlElement child : getChildElements(name))
             {
-                Node child = getElementChildByIndex(mRootNode, i);
-
-                if (child.getNodeName().equals(name))
-                {
-                    results.add(create(child));
-                }
+                results.add(child);
             }
 
             return results;
@@ -970,6 +1199,10 @@ public class XmlDocument implements IXmlDocument
         {
             throw e;
         }
+        catch (XmlDocumentRuntimeException e)
+        {
+            throw new XmlDocumentCheckedException(debugString, e.getRootCause());
+        }
         catch (Exception e)
         {
             throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
@@ -977,71 +1210,277 @@ public class XmlDocument implements IXmlDocument
     }
 
     /**
-     *
-     *
-     * @param childName The name of the child.
-     * @return The value of the corresponding child.
-     * @throws XmlDocumentCheckedException If the XML is invalid.
-     *
+     * {@inheritDoc}
      */
-    public String getChildValue(String childName) throws XmlDocumentCheckedException
+    @Override
+    public List<IXmlElement> getDescendantsByName(String name) throws XmlDocumentCheckedException
     {
-        final String debugString = getClass().getName() + ".getChildValue(String)";
-
-        String results;
+        List<IXmlElement> descendants = new ArrayList<IXmlElement>();
+        XmlNameIndex index = getContext().getNameIndex();
 
-        try
+        if (index != null)
         {
-            results = getNodeValue(childName);
+            for (Node node : index.get(name))
+            {
+                if (isDescendant(node, mRootNode))
+                {
+                    descendants.add(createChildElement(node));
+                }
+            }
+
+            return descendants;
         }
-        catch (XmlDocumentCheckedException ex)
+
+        Node node = mRootNode.getFirstChild();
+
+        while (node != null)
         {
-            throw new XmlDocumentCheckedException(debugString, ex);
+            if ((node.getNodeType() == Node.ELEMENT_NODE) && node.getNodeName().equals(name))
+            {
+                descendants.add(createChildElement(node));
+            }
+
+            Node next = node.getFirstChild();
+
+            while ((next == null) && (node != mRootNode))
+            {
+                next = node.getNextSibling();
+
+                if (next == null)
+                {
+                    node = node.getParentNode();
+                }
+            }
+
+            node = next;
         }
 
-        return results;
+        return descendants;
     }
 
     /**
      *
-     *
-     * @param childName The name of the child.
-     * @return The corresponding CDATA of the child.
-     * @throws XmlDocumentCheckedException If the XML is invalid.
-     *
+     * @param node A node of this document.
+     * @param ancestor Another node of this document.
+     * @return Whether the node is below the ancestor.
      */
-    public String getCDATASection(String childName) throws XmlDocumentCheckedException
+    private boolean isDescendant(Node node, Node ancestor)
     {
-        final String debugString = getClass().getName() + ".getCDATASection(String)";
-
-        String results;
-
-        try
+        if (ancestor == mDocument)
         {
-            results = getCDATAValue(childName);
+            // The index holds only the nodes in the document.
+            return true;
         }
-        catch (XmlDocumentCheckedException ex)
+
+        for (Node parent = node.getParentNode(); parent != null; parent = parent.getParentNode())
         {
-            throw new XmlDocumentCheckedException(debugString, ex);
+            if (parent == ancestor)
+            {
+                return true;
+            }
         }
 
-        return results;
+        return false;
     }
 
     /**
-     *
-     * @param sChild The name of the child.
-     * @return The corresponding name value.
-     * @throws XmlDocumentCheckedException If the XML is invalid.
+     * {@inheritDoc}
      */
-    public final String getNodeValue(String sChild) throws XmlDocumentCheckedException
+    @Override
+    public Iterable<IXmlElement> getChildElements() throws XmlDocumentCheckedException
     {
-        final String debugString = getClass().getName() + ".getNodeValue(String)";
-        try
-        {
-            Node childNode = prvGetChildByName(sChild);
+        return getChildElements(null);
+    }
 
-            if (childNode == null)
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterable<IXmlElement> getChildElements(final String name) throws XmlDocumentCheckedException
+    {
+        return new Iterable<IXmlElement>()
+        {
+            @Override
+            public Iterator<IXmlElement> iterator()
+            {
+                return new ChildElementIterator(mRootNode, name);
+            }
+        };
+    }
+
+    /**
+     * Walks the element children of a node once, through getNextSibling(), creating
+     * each element as it is reached.
+     */
+    private class ChildElementIterator implements Iterator<IXmlElement>
+    {
+        /**
+         * The name the children must have, or null for all children.
+         */
+        private final String mName;
+
+        /**
+         * The next child to return, or null when the iteration is complete.
+         */
+        private Node mNext;
+
+        /**
+         *
+         * @param parent The node whose children are iterated.
+         * @param name The name the children must have, or null for all children.
+         */
+        ChildElementIterator(Node parent, String name)
+        {
+            mName = name;
+            mNext = findElement(parent.getFirstChild());
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return (mNext != null);
+        }
+
+        @Override
+        public IXmlElement next()
+        {
+            final String debugString = getClass().getName() + ".next()";
+
+            Node node = mNext;
+
+            if (node == null)
+            {
+                throw new java.util.NoSuchElementException();
+            }
+            mNext = findElement(node.getNextSibling());
+
+            try
+            {
+                return createChildElement(node);
+            }
+            catch (XmlDocumentCheckedException e)
+            {
+                throw new XmlDocumentRuntimeException(XmlDocumentRuntimeException.Codes.GENERAL_FATAL_ERROR, e, debugString, e);
+            }
+        }
+
+        /**
+         *
+         * @param start The first node to consider.
+         * @return The first matching element at or after start, or null if there is none.
+         */
+        private Node findElement(Node start)
+        {
+            Node node = start;
+
+            while ((node != null) && ((node.getNodeType() != Node.ELEMENT_NODE) || ((mName != null) && !node.getNodeName().equals(mName))))
+            {
+                node = node.getNextSibling();
+            }
+
+            return node;
+        }
+    }
+
+    /**
+     *
+     *
+     * @param childName The name of the child.
+     * @return The value of the corresponding child.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     *
+     */
+    public String getChildValue(String childName) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".getChildValue(String)";
+
+        String results;
+
+        try
+        {
+            results = getNodeValue(childName);
+        }
+        catch (XmlDocumentCheckedException ex)
+        {
+            throw new XmlDocumentCheckedException(debugString, ex);
+        }
+
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getChildValue(XmlPath path) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".getChildValue(XmlPath)";
+
+        String results;
+
+        try
+        {
+            results = getNodeValue(path);
+        }
+        catch (XmlDocumentCheckedException ex)
+        {
+            throw new XmlDocumentCheckedException(debugString, ex);
+        }
+
+        return results;
+    }
+
+    /**
+     *
+     *
+     * @param childName The name of the child.
+     * @return The corresponding CDATA of the child.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     *
+     */
+    public String getCDATASection(String childName) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".getCDATASection(String)";
+
+        String results;
+
+        try
+        {
+            results = getCDATAValue(childName);
+        }
+        catch (XmlDocumentCheckedException ex)
+        {
+            throw new XmlDocumentCheckedException(debugString, ex);
+        }
+
+        return results;
+    }
+
+    /**
+     *
+     * @param sChild The name of the child.
+     * @return The corresponding name value.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public final String getNodeValue(String sChild) throws XmlDocumentCheckedException
+    {
+        return getNodeValue(XmlPath.get(sChild));
+    }
+
+    /**
+     *
+     * @param path The path of the child.
+     * @return The corresponding name value.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public final String getNodeValue(XmlPath path) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".getNodeValue(XmlPath)";
+        try
+        {
+            Node childNode = prvGetChildByPath(path, mRootNode);
+
+            if (childNode == null)
             {
                 return StringUtils.EMPTY;
             }
@@ -1073,11 +1512,43 @@ public class XmlDocument implements IXmlDocument
             throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.NULL_ROOT_ELEMENT, "No ROOT element found");
         }
 
-        mXPathAPI = new CachedXPathAPI();
+        if (((root == mDocument) || (root == mDocument.getDocumentElement())) && isDescendantQuery(childName))
+        {
+            XmlNameIndex index = getContext().getNameIndex();
+
+            if (index != null)
+            {
+                List<Node> nodes = new ArrayList<Node>();
+
+                for (Node node : index.get(childName.substring(2)))
+                {
+                    // As in XPath, an unprefixed name only matches elements in no namespace.
+                    if (node.getNamespaceURI() == null)
+                    {
+                        nodes.add(node);
+                    }
+                }
+
+                return new StaticNodeList(nodes);
+            }
+        }
+
+        if ((root == mDocument) || (root == mDocument.getDocumentElement()))
+        {
+            NodeList nodes = selectNodesViaKey(childName);
+
+            if (nodes != null)
+            {
+                return nodes;
+            }
+        }
 
         try
         {
-            return mXPathAPI.selectNodeList(root, childName);
+            CompiledXPath xpath = XPathExpressionCache.getExpression(childName, root);
+            NodeList nodes = xpath.selectSimple(root);
+
+            return (nodes != null) ? nodes : getContext().selectNodes(xpath, root);
         }
         catch (Exception e)
         {
@@ -1085,6 +1556,81 @@ public class XmlDocument implements IXmlDocument
         }
     }
 
+    /**
+     * Answers a query of the form <code>//Element[@id='1000']</code> or
+     * <code>//Element[Header/Id="1000"]</code> from a declared key.
+     *
+     * @param query An XPath query.
+     * @return The selected nodes, or null if the query does not have that form or no such key is declared.
+     */
+    private NodeList selectNodesViaKey(String query)
+    {
+        // Most queries are not key lookups, and most documents declare no keys.
+        if (!query.startsWith("//") || !query.endsWith("]"))
+        {
+            return null;
+        }
+
+        XmlDocumentContext context = XmlDocumentContext.find(mDocument);
+
+        if (context == null)
+        {
+            return null;
+        }
+
+        Matcher matcher = sKeyQuery.matcher(query);
+
+        if (!matcher.matches())
+        {
+            return null;
+        }
+
+        XmlKeyIndex key = context.getKey(matcher.group(1), matcher.group(2));
+
+        if (key == null)
+        {
+            return null;
+        }
+
+        List<Node> nodes = new ArrayList<Node>();
+
+        for (Node node : key.get((matcher.group(3) != null) ? matcher.group(3) : matcher.group(4)))
+        {
+            // As in XPath, an unprefixed name only matches elements in no namespace.
+            if (node.getNamespaceURI() == null)
+            {
+                nodes.add(node);
+            }
+        }
+
+        return new StaticNodeList(nodes);
+    }
+
+    /**
+     *
+     * @param query An XPath query.
+     * @return Whether the query is <code>//name</code>, selecting every element in no namespace with the name.
+     */
+    private static boolean isDescendantQuery(String query)
+    {
+        if ((query.length() < 3) || !query.startsWith("//") || (!Character.isLetter(query.charAt(2)) && (query.charAt(2) != '_')))
+        {
+            return false;
+        }
+
+        for (int i = 3; i < query.length(); i++)
+        {
+            char c = query.charAt(i);
+
+            if (!Character.isLetterOrDigit(c) && (c != '_') && (c != '-') && (c != '.'))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      *
      * @param node The node.
@@ -1186,6 +1732,109 @@ public class XmlDocument implements IXmlDocument
         return (mRootNode).getNodeName();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLiveViews() throws XmlDocumentCheckedException
+    {
+        return getContext().isLiveViews();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLiveViews(boolean liveViews) throws XmlDocumentCheckedException
+    {
+        getContext().setLiveViews(liveViews);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isNameIndexed() throws XmlDocumentCheckedException
+    {
+        return getContext().isNameIndexed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setNameIndexed(boolean nameIndexed) throws XmlDocumentCheckedException
+    {
+        getContext().setNameIndexed(nameIndexed);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isXPathContextReused() throws XmlDocumentCheckedException
+    {
+        return getContext().isXPathContextReused();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setXPathContextReused(boolean xpathContextReused) throws XmlDocumentCheckedException
+    {
+        getContext().setXPathContextReused(xpathContextReused);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void declareKey(String elementName, String use) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".declareKey(String, String)";
+        try
+        {
+            getContext().declareKey(elementName, use);
+        }
+        catch (Exception e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<IXmlElement> getByKey(String elementName, String value) throws XmlDocumentCheckedException
+    {
+        return getByKey(elementName, null, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<IXmlElement> getByKey(String elementName, String use, String value) throws XmlDocumentCheckedException
+    {
+        XmlKeyIndex key = getContext().getKey(elementName, use);
+
+        if (key == null)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, "No key declared for " + elementName + ((use == null) ? "" : "[" + use + "]"));
+        }
+
+        List<IXmlElement> elements = new ArrayList<IXmlElement>();
+
+        for (Node node : key.get(value))
+        {
+            elements.add(create(node, mDocument));
+        }
+
+        return elements;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1217,9 +1866,9 @@ public class XmlDocument implements IXmlDocument
 
         try
         {
-            if (!replaceFromStream(new FileInputStream(file)))
+            if (!replaceFromFile(file.toPath(), null))
             {
-                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+                throw createLoadFailedException(debugString);
             }
         }
         catch (IOException ex)
@@ -1238,9 +1887,9 @@ public class XmlDocument implements IXmlDocument
 
         try
         {
-            if (!replaceFromStream(new FileInputStream(file), enc))
+            if (!replaceFromFile(file.toPath(), enc))
             {
-                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+                throw createLoadFailedException(debugString);
             }
         }
         catch (IOException ex)
@@ -1259,7 +1908,7 @@ public class XmlDocument implements IXmlDocument
 
         if (!replaceFromStream(in))
         {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+            throw createLoadFailedException(debugString);
         }
     }
 
@@ -1275,7 +1924,7 @@ public class XmlDocument implements IXmlDocument
         {
             if (!replaceFromStream(in, enc))
             {
-                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+                throw createLoadFailedException(debugString);
             }
         }
         catch (UnsupportedEncodingException ex)
@@ -1284,6 +1933,55 @@ public class XmlDocument implements IXmlDocument
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void load(byte[] bytes) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".load(byte[])";
+
+        if (!replaceFromBytes(bytes, 0, bytes.length))
+        {
+            throw createLoadFailedException(debugString);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void load(ByteBuffer buffer) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".load(ByteBuffer)";
+
+        if (!replaceFromBuffer(buffer))
+        {
+            throw createLoadFailedException(debugString);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void load(Path path) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".load(Path)";
+
+        try
+        {
+            if (!replaceFromFile(path, null))
+            {
+                throw createLoadFailedException(debugString);
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, ex, debugString, ex);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1294,7 +1992,7 @@ public class XmlDocument implements IXmlDocument
 
         if (!replaceFromReader(reader))
         {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+            throw createLoadFailedException(debugString);
         }
     }
 
@@ -1308,7 +2006,7 @@ public class XmlDocument implements IXmlDocument
 
         if (!replaceFromString(xml))
         {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+            throw createLoadFailedException(debugString);
         }
     }
 
@@ -1322,6 +2020,7 @@ public class XmlDocument implements IXmlDocument
         try
         {
             mRootNode.getAttributes().removeNamedItem(attrName);
+            contentModified(mRootNode);
         }
         catch (Exception e)
         {
@@ -1338,13 +2037,14 @@ public class XmlDocument implements IXmlDocument
         final String debugString = getClass().getName() + ".removeChild(int)";
         try
         {
-            Node child = getElementChildByIndex(mRootNode, index);
+            Node child = getElementChildByIndex(index);
 
             if (child == null)
             {
                 throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.INVALID_INDEX, debugString);
             }
             child.getParentNode().removeChild(child);
+            structureModified(mRootNode);
 
             return create(child, mDocument);
         }
@@ -1364,16 +2064,27 @@ public class XmlDocument implements IXmlDocument
     @Override
     public IXmlElement removeChild(String childName) throws XmlDocumentCheckedException
     {
-        final String debugString = getClass().getName() + ".removeChild(String)";
+        return removeChild(XmlPath.get(childName));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IXmlElement removeChild(XmlPath path) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".removeChild(XmlPath)";
         try
         {
-            Node xmlNode = prvGetChildByName(childName);
+            Node xmlNode = prvGetChildByPath(path, mRootNode);
 
             if (xmlNode == null)
             {
                 throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.CHILD_NOT_FOUND, debugString);
             }
-            xmlNode.getParentNode().removeChild(xmlNode);
+            Node parentNode = xmlNode.getParentNode();
+            parentNode.removeChild(xmlNode);
+            structureModified(parentNode);
 
             return create(xmlNode, mDocument);
         }
@@ -1408,7 +2119,9 @@ public class XmlDocument implements IXmlDocument
             {
                 Node childNode = nodes.item(i);
 
-                childNode.getParentNode().removeChild(childNode);
+                Node parentNode = childNode.getParentNode();
+                parentNode.removeChild(childNode);
+                structureModified(parentNode);
 
                 removedChildren.add(create(childNode, mDocument));
             }
@@ -1464,6 +2177,7 @@ public class XmlDocument implements IXmlDocument
                 throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.CHILD_NOT_FOUND, debugString);
             }
             xmlNode.getAttributes().removeNamedItem(attrName);
+            contentModified(xmlNode);
         }
 
         catch (Exception e)
@@ -1509,6 +2223,8 @@ public class XmlDocument implements IXmlDocument
                     mRootNode.appendChild(textNodes.elementAt(i));
                 }
             }
+            structureModified(mRootNode);
+
             Node parentNode = parent.getRootNode();
 
             if (parentNode == null)
@@ -1528,6 +2244,7 @@ public class XmlDocument implements IXmlDocument
                     mRootNode.appendChild(newChild);
                 }
             }
+            structureModified(mRootNode);
         }
         catch (XmlDocumentCheckedException e)
         {
@@ -1548,7 +2265,7 @@ public class XmlDocument implements IXmlDocument
         final String debugString = getClass().getName() + ".replaceChild(int, IXmlElement)";
         try
         {
-            Node child = getElementChildByIndex(mRootNode, index);
+            Node child = getElementChildByIndex(index);
 
             if (child == null)
             {
@@ -1556,6 +2273,8 @@ public class XmlDocument implements IXmlDocument
             }
             Node newNode = (newChild).getRootNode();
             mRootNode.replaceChild(examineChild(newChild.getDocument(), newNode), child);
+            structureModified(mRootNode);
+
             return create(child, mDocument);
         }
         catch (XmlDocumentCheckedException e)
@@ -1585,7 +2304,9 @@ public class XmlDocument implements IXmlDocument
             }
             Node newNode = newChild.getRootNode();
 
-            xmlNode.getParentNode().replaceChild(examineChild(newChild.getDocument(), newNode), xmlNode);
+            Node parentNode = xmlNode.getParentNode();
+            parentNode.replaceChild(examineChild(newChild.getDocument(), newNode), xmlNode);
+            structureModified(parentNode);
 
             return create(xmlNode, mDocument);
         }
@@ -1621,6 +2342,8 @@ public class XmlDocument implements IXmlDocument
         {
             attr.setNodeValue(value);
         }
+        contentModified(mRootNode);
+
         return this;
     }
 
@@ -1649,6 +2372,7 @@ public class XmlDocument implements IXmlDocument
                 if (children.item(i).getNodeType() == Node.TEXT_NODE)
                 {
                     children.item(i).setNodeValue(value);
+                    contentModified(node);
                     return;
                 }
             }
@@ -1658,6 +2382,7 @@ public class XmlDocument implements IXmlDocument
         {
             Text text = mDocument.createTextNode(value);
             node.appendChild(text);
+            contentModified(node);
         }
     }
 
@@ -1680,6 +2405,7 @@ public class XmlDocument implements IXmlDocument
         {
             Text text = mDocument.createCDATASection(value);
             node.appendChild(text);
+            contentModified(node);
         }
     }
 
@@ -1715,13 +2441,9 @@ public class XmlDocument implements IXmlDocument
     {
         final String debugString = getClass().getName() + ".write(File)";
 
-        try
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
         {
-            java.io.FileOutputStream output = new java.io.FileOutputStream(file);
-
-            writeToStream(output);
-
-            output.close();
+            write(channel);
         }
         catch (Exception ex)
         {
@@ -1739,24 +2461,7 @@ public class XmlDocument implements IXmlDocument
         final String debugString = getClass().getName() + ".writeToStream(OutputStream)";
         try
         {
-            OutputFormat format = new OutputFormat(mDocument);
-            format.setIndenting(false);
-            // format.setPreserveEmptyAttributes(true);
-            format.setPreserveSpace(true);
-            // Serialize DOM
-
-            XMLSerializer serial = new XMLSerializer(output, format);
-            serial.asDOMSerializer();
-            // As a DOM Serializer
-
-            if (mRootNode == mDocument)
-            {
-                serial.serialize(mDocument);
-            }
-            else
-            {
-                serial.serialize((Element) mRootNode);
-            }
+            sSerializer.serialize(mRootNode, output);
         }
         catch (IOException e)
         {
@@ -1781,113 +2486,363 @@ public class XmlDocument implements IXmlDocument
      * {@inheritDoc}
      */
     @Override
-    public IXmlElement getRootElement() throws XmlDocumentCheckedException
+    public void write(OutputStream output, ForkJoinPool pool) throws XmlDocumentCheckedException
     {
-        // final String debugString = getClass().getName() +
-        // ".getRootElement()";
+        final String debugString = getClass().getName() + ".write(OutputStream, ForkJoinPool)";
 
-        return new XmlDocument(create(mDocument.getDocumentElement(), mDocument));
+        try
+        {
+            sSerializer.serialize(mRootNode, output, pool);
+        }
+        catch (IOException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public String toString()
+    public void write(WritableByteChannel channel) throws XmlDocumentCheckedException
     {
-        StringWriter stringwriter = new StringWriter();
+        final String debugString = getClass().getName() + ".write(WritableByteChannel)";
+
+        if ((channel instanceof SelectableChannel) && !((SelectableChannel) channel).isBlocking())
+        {
+            throw new IllegalBlockingModeException();
+        }
+
         try
         {
-            OutputFormat outputformat = new OutputFormat();
-            outputformat.setIndenting(true);
-            outputformat.setLineWidth(0);
-            XMLSerializer xmlserializer = new XMLSerializer(stringwriter, outputformat);
-            xmlserializer.serialize(mDocument);
-            stringwriter.close();
+            createSerialization().writeTo(channel);
         }
-        catch (Exception ex)
+        catch (IOException e)
         {
-            // Do nothing
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
         }
+    }
 
-        return stringwriter.toString();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public XmlSerialization createSerialization() throws XmlDocumentCheckedException
+    {
+        // Serializations may be written out from several threads at once.
+        getContext().ensureExpanded();
+
+        return sSerializer.createSerialization(mRootNode);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IXmlElement getRootElement() throws XmlDocumentCheckedException
+    {
+        // final String debugString = getClass().getName() +
+        // ".getRootElement()";
 
-    private DocumentBuilder createDocumentBuilder() throws XmlDocumentCheckedException
+        return new XmlDocument(create(mDocument.getDocumentElement(), mDocument));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
     {
-        final String debugString = getClass().getName() + ".createDocumentBuilder()";
-        try
-        {
-            DocumentBuilderFactory docBuidlerFactory = DocumentBuilderFactory.newInstance();
-            docBuidlerFactory.setNamespaceAware(true);
+        XmlDocumentContext context = getContext();
 
-            return docBuidlerFactory.newDocumentBuilder();
-        }
-        catch (Exception e)
+        // Sized from the last serialization, so the buffer rarely has to grow.
+        String xml = sIndentingSerializer.serializeToString(mDocument, context.getSerializedLength() + 64);
+
+        context.setSerializedLength(xml.length());
+
+        return xml;
+    }
+
+    /**
+     * This method returns the provider used to create and parse documents.
+     *
+     * @return The document's provider, or the default provider if none was set.
+     * @throws XmlDocumentCheckedException If the default provider cannot be created.
+     */
+    public DocumentBuilderProvider getDocumentBuilderProvider() throws XmlDocumentCheckedException
+    {
+        if (mDocumentBuilderProvider == null)
         {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+            return DocumentBuilderProvider.getDefault();
         }
+
+        return mDocumentBuilderProvider;
+    }
+
+    /**
+     * This method makes subsequent calls to <code>load(...)</code> validate each
+     * document against the schema while parsing it, in a single pass. Loading
+     * an invalid document fails at the first error.
+     *
+     * @param schema The schema, or null to stop validating while parsing.
+     * @throws XmlDocumentCheckedException If the parser cannot be configured.
+     */
+    public void setSchema(XmlSchema schema) throws XmlDocumentCheckedException
+    {
+        mDocumentBuilderProvider = (schema == null) ? null : schema.getDocumentBuilderProvider();
+    }
+
+    /**
+     * This method makes subsequent calls to <code>load(...)</code> keep the
+     * text each document is loaded from. When the document is then written
+     * without indentation, elements that have not changed since are copied
+     * from that text as they are, rather than serialized, so their whitespace,
+     * quoting and character references are kept and writing a large document
+     * after a few edits is little more than a copy. Only changes made through
+     * XmlDocument methods are seen; the text is held for as long as the document.
+     *
+     * @param preserveSource Whether loaded documents keep the text they were loaded from.
+     */
+    public void setPreserveSource(boolean preserveSource)
+    {
+        mPreserveSource = preserveSource;
+    }
+
+    /**
+     * This method sets the provider used by subsequent calls to <code>load(...)</code>.
+     *
+     * @param provider The DocumentBuilder provider, or null to use the default provider.
+     */
+    public void setDocumentBuilderProvider(DocumentBuilderProvider provider)
+    {
+        mDocumentBuilderProvider = provider;
     }
 
     /**
      * This method replaces the content of the current root node with that of
-     * the InputStream.
+     * the InputStream. The bytes are handed to the parser as they are, so the
+     * encoding is detected from the byte order mark or the XML declaration.
      *
      * @param in A stream containing an XML document.
      * @return boolean Indicates success or failure
      */
     public boolean replaceFromStream(InputStream in)
     {
-        return replaceFromReader(new InputStreamReader(in));
+        return replaceFromInputSource(new InputSource(in));
+    }
+
+    /**
+     * This method replaces the content of the current root node with that of
+     * the InputStream. The bytes are handed to the parser, which decodes them
+     * with the given encoding.
+     *
+     * @param in A stream containing an XML document.
+     * @param encoding The name of the supported character encoding
+     * @return boolean Indicates success or failure
+     * @throws java.io.UnsupportedEncodingException If the encoding is not supported.
+     */
+    public boolean replaceFromStream(InputStream in, String encoding) throws java.io.UnsupportedEncodingException
+    {
+        if (!isSupportedEncoding(encoding))
+        {
+            throw new UnsupportedEncodingException(encoding);
+        }
+
+        InputSource source = new InputSource(in);
+        source.setEncoding(encoding);
+
+        return replaceFromInputSource(source);
+    }
+
+    /**
+     * This method replaces the content of the current root node with that of
+     * a range of a byte array. The bytes are parsed in place, without a copy.
+     *
+     * @param bytes The bytes of an XML document.
+     * @param offset The offset of the document in the array.
+     * @param length The length of the document in bytes.
+     * @return boolean Indicates success or failure
+     */
+    public boolean replaceFromBytes(byte[] bytes, int offset, int length)
+    {
+        return replaceFromStream(new ByteArrayInputStream(bytes, offset, length));
+    }
+
+    /**
+     * This method replaces the content of the current root node with the
+     * remaining bytes of a heap or direct buffer. A heap buffer's backing array
+     * is parsed in place; other buffers are read through a view, so in neither
+     * case are the bytes copied first. The buffer's position is not changed.
+     *
+     * @param buffer A buffer containing an XML document.
+     * @return boolean Indicates success or failure
+     */
+    public boolean replaceFromBuffer(ByteBuffer buffer)
+    {
+        if (buffer.hasArray())
+        {
+            return replaceFromBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        return replaceFromStream(new ByteBufferInputStream(buffer));
+    }
+
+    /**
+     * This method replaces the content of the current root node with that of
+     * the file. A file smaller than <code>STREAMING_THRESHOLD</code> is read
+     * whole into a heap array sized from the file, with channel reads straight
+     * into it, and parsed from the array; a larger one is parsed through a
+     * buffer as it is read from the channel, so its size adds nothing to the
+     * memory the document needs. Files are deliberately not memory mapped: a
+     * mapping keeps the file open until it is garbage collected, which on
+     * Windows stops the file being written again, as when a document is loaded,
+     * edited and written back. The file is closed before this method returns.
+     *
+     * @param path The XML file.
+     * @param encoding The name of the supported character encoding, or null to let the parser detect it.
+     * @return boolean Indicates success or failure
+     * @throws IOException If the file cannot be read.
+     */
+    private boolean replaceFromFile(Path path, String encoding) throws IOException
+    {
+        InputStream in;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+
+            if (size >= STREAMING_THRESHOLD)
+            {
+                // Parse while the channel is open.
+                in = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+
+                return encoding == null ? replaceFromStream(in) : replaceFromStream(in, encoding);
+            }
+            else
+            {
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+                while (buffer.hasRemaining() && (channel.read(buffer) >= 0))
+                {
+                    // Keep reading until the buffer is full or the file ends.
+                }
+
+                buffer.flip();
+                in = new ByteArrayInputStream(buffer.array(), 0, buffer.limit());
+            }
+        }
+
+        return encoding == null ? replaceFromStream(in) : replaceFromStream(in, encoding);
     }
 
     /**
      * This method replaces the content of the current root node with that of
-     * the InputStream.
+     * the reader.
      *
-     * @param in A stream containing an XML document.
-     * @param encoding The name of the supported character encoding
+     * @param reader A reader stream with an XML document.
      * @return boolean Indicates success or failure
-     * @throws java.io.UnsupportedEncodingException If the encoding is not supported.
      */
-    public boolean replaceFromStream(InputStream in, String encoding) throws java.io.UnsupportedEncodingException
+    public boolean replaceFromReader(Reader reader)
     {
-        return replaceFromReader(new InputStreamReader(in, encoding));
+        return replaceFromInputSource(new InputSource(reader));
     }
 
     /**
-     * This method replaces the content of the current root node with that of
-     * the reader.
+     * This method replaces the content of the current root node with the
+     * document parsed from the input source.
      *
-     * @param reader A reader stream with an XML document.
+     * @param source The input source of an XML document.
      * @return boolean Indicates success or failure
      */
-    public boolean replaceFromReader(Reader reader)
+    private boolean replaceFromInputSource(InputSource source)
     {
         try
         {
-            if (mDocumentBuilder == null)
+            if (mPreserveSource)
+            {
+                loadPreservingSource(source);
+            }
+            else
             {
-                mDocumentBuilder = createDocumentBuilder();
-                mDocument = mDocumentBuilder.newDocument();
-                mRootNode = mDocument;
+                mDocument = getDocumentBuilderProvider().parse(source);
             }
-            // mDOMParser.parse(new InputSource(reader));
-            mDocument = mDocumentBuilder.parse(new InputSource(reader));
+
             mRootNode = mDocument;
+            mElementChildren = null;
+            mLoadFailure = null;
         }
         catch (Exception e)
         {
-            // e.printStackTrace();
             mDocument = null;
             mRootNode = null;
+            mLoadFailure = e;
 
             return false;
         }
         return true;
     }
 
+    /**
+     * Parses the document from the input source, keeping the text it was
+     * parsed from. The input is read whole first, and bytes are decoded with
+     * the encoding the parser found.
+     *
+     * @param source The input source of an XML document.
+     * @throws Exception If the input cannot be read or parsed.
+     */
+    private void loadPreservingSource(InputSource source) throws Exception
+    {
+        String text;
+
+        if (source.getCharacterStream() != null)
+        {
+            StringWriter writer = new StringWriter();
+            source.getCharacterStream().transferTo(writer);
+            text = writer.toString();
+
+            mDocument = getDocumentBuilderProvider().parse(new InputSource(new StringReader(text)));
+        }
+        else
+        {
+            byte[] bytes = source.getByteStream().readAllBytes();
+
+            InputSource byteSource = new InputSource(new ByteArrayInputStream(bytes));
+            byteSource.setEncoding(source.getEncoding());
+
+            mDocument = getDocumentBuilderProvider().parse(byteSource);
+
+            String encoding = (source.getEncoding() != null) ? source.getEncoding() : mDocument.getInputEncoding();
+            text = new String(bytes, (encoding != null) ? encoding : "UTF-8");
+
+            // A byte order mark is not part of the document.
+            if (text.startsWith("\uFEFF"))
+            {
+                text = text.substring(1);
+            }
+        }
+
+        getContext().setSource(XmlSource.create(text, mDocument));
+    }
+
+    /**
+     * Creates the exception reported when a load fails, naming the first parse
+     * or validation error and where it was found.
+     *
+     * @param debugString The debug information.
+     * @return The exception.
+     */
+    private XmlDocumentCheckedException createLoadFailedException(String debugString)
+    {
+        if (mLoadFailure == null)
+        {
+            return new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, debugString);
+        }
+
+        Throwable cause = XmlSchema.getErrorCause(mLoadFailure);
+
+        return new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, XmlSchema.describeError(cause), debugString, cause);
+    }
+
     /**
      * This method replaces the content of the current root node with that of
      * the input string.
@@ -1900,6 +2855,23 @@ public class XmlDocument implements IXmlDocument
         return replaceFromReader(new StringReader(xml));
     }
 
+    /**
+     *
+     * @param encoding The name of a character encoding.
+     * @return Whether the encoding is supported.
+     */
+    private static boolean isSupportedEncoding(String encoding)
+    {
+        try
+        {
+            return Charset.isSupported(encoding);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
     /**
      * Description of the Method
      *
@@ -1922,19 +2894,93 @@ public class XmlDocument implements IXmlDocument
      * @return Description of the Returned Value
      */
     protected Node prvGetChildByName(String sChildName, Node rootNode)
+    {
+        return prvGetChildByPath(XmlPath.get(sChildName), rootNode);
+    }
+
+    /**
+     * Finds the first element, in document order, at the end of the path.
+     *
+     * @param path The path of the child.
+     * @param rootNode The node the path starts from.
+     * @return The child, or null if there is none.
+     */
+    protected Node prvGetChildByPath(XmlPath path, Node rootNode)
     {
         Node childNode = null;
+        String[] names = path.getNames();
+
+        // Checking each indexed element's ancestors only pays when the path starts at the top.
+        XmlNameIndex index = ((names.length > 0) && ((rootNode == mDocument) || (rootNode == mDocument.getDocumentElement()))) ? getContext().getNameIndex() : null;
 
         // Descend through path of tags until first matching child found
-        String[] tagList = StringUtils.split(sChildName, SEPARATOR);
         synchronized (mDocument)
         {
-            childNode = getChildNodeByTag(rootNode, tagList, 0);
+            childNode = (index != null) ? getChildNodeByIndex(rootNode, names, index) : getChildNodeByTag(rootNode, names, 0);
         }
 
         return childNode;
     }
 
+    /**
+     * Finds the first element at the end of the path among the indexed elements
+     * with the last name in the path, checking each one's ancestors.
+     *
+     * @param rootNode The node the path starts from.
+     * @param names The element names in the path.
+     * @param index The index of the document's elements by name.
+     * @return The child, or null if there is none.
+     */
+    private Node getChildNodeByIndex(Node rootNode, String[] names, XmlNameIndex index)
+    {
+        for (Node candidate : index.get(names[names.length - 1]))
+        {
+            Node node = candidate;
+            int i = names.length - 1;
+
+            while (i > 0)
+            {
+                node = node.getParentNode();
+
+                if ((node == null) || !node.getNodeName().equals(names[i - 1]))
+                {
+                    break;
+                }
+
+                i--;
+            }
+
+            if ((i == 0) && (node.getParentNode() == rootNode))
+            {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     *
+     * @param parent The parent node.
+     * @param name The child's name.
+     * @return The first child with the name, or null if there is none.
+     */
+    private Node getFirstChildByName(Node parent, String name)
+    {
+        synchronized (mDocument)
+        {
+            for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling())
+            {
+                if (node.getNodeName().equals(name))
+                {
+                    return node;
+                }
+            }
+        }
+
+        return null;
+    }
+
     /**
      * NOTE: Before calling this method, you must first wrap it in
      * synchronized(MDocument)
@@ -2076,44 +3122,42 @@ public class XmlDocument implements IXmlDocument
 
     /**
      *
+     * @param path The path of the child, whose missing elements are created.
+     * @return The child.
      * @throws XmlDocumentCheckedException If the XML is invalid.
      */
-    private final Node prgCreateChildByName(String sChild) throws XmlDocumentCheckedException
+    private final Node prgCreateChildByPath(XmlPath path) throws XmlDocumentCheckedException
     {
-        final String debugString = getClass().getName() + ".prgCreateChildByName(String)";
+        final String debugString = getClass().getName() + ".prgCreateChildByPath(XmlPath)";
         try
         {
-            Node childNode = prvGetChildByName(sChild);
+            Node childNode = prvGetChildByPath(path, mRootNode);
 
             if (childNode == null)
             {
                 // Now traverse the path from top to bottom, creating descedent
                 // nodes along the way
 
-                StringTokenizer childTokens = new StringTokenizer(sChild, SEPARATOR);
-
-                int size = childTokens.countTokens();
+                String[] names = path.getNames();
 
                 Node rootNode = mRootNode;
 
-                for (int i = 0; i < size; i++)
+                for (int i = 0; i < names.length; i++)
                 {
-                    String nextChildName = childTokens.nextToken();
-                    childNode = prvGetChildByName(nextChildName, rootNode);
+                    childNode = getFirstChildByName(rootNode, names[i]);
 
                     if (childNode == null)
                     {
-                        Node newChild = mDocument.createElement(nextChildName);
+                        Node newChild = mDocument.createElement(names[i]);
 
                         rootNode.appendChild(newChild);
+                        structureModified(rootNode);
 
                         rootNode = newChild;
 
-                        while (childTokens.hasMoreTokens())
+                        for (int j = i + 1; j < names.length; j++)
                         {
-                            nextChildName = childTokens.nextToken();
-
-                            newChild = mDocument.createElement(nextChildName);
+                            newChild = mDocument.createElement(names[j]);
 
                             rootNode.appendChild(newChild);
 
@@ -2145,21 +3189,33 @@ public class XmlDocument implements IXmlDocument
     }
 
     /**
-     * @throws XmlDocumentCheckedException If the XML is invalid.
+     * {@inheritDoc}
      */
+    @Override
     public void isValid() throws XmlDocumentCheckedException
     {
         final String debugString = getClass().getName() + ".isValid()";
 
-        String parserClass = "com.sun.org.apache.xerces.internal.parsers.SAXParser";
-        String validationFeature = "http://xml.org/sax/features/validation";
-        String schemaFeature = "http://apache.org/xml/features/validation/schema";
+        if (mDocument.getDoctype() == null)
+        {
+            Element documentElement = mDocument.getDocumentElement();
+
+            // As with a validating parser, a document with no grammar at all is not valid.
+            if ((documentElement == null)
+                || (!documentElement.hasAttributeNS(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation")
+                    && !documentElement.hasAttributeNS(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "noNamespaceSchemaLocation")))
+            {
+                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.VALIDATION_FAILED, "no grammar found", debugString);
+            }
+
+            XmlSchemaCache.getHintedSchema().validate(mDocument);
+            return;
+        }
 
+        // DTDs are only checked by a validating parser, so the document has to be re-read.
         try
         {
-            XMLReader r = XMLReaderFactory.createXMLReader(parserClass);
-            r.setFeature(validationFeature, true);
-            r.setFeature(schemaFeature, true);
+            XMLReader r = getDtdValidatingParserFactory().newSAXParser().getXMLReader();
             r.setErrorHandler(new ErrorHandler());
 
             InputSource inputSource = new InputSource(new StringReader(this.toString()));
@@ -2168,14 +3224,200 @@ public class XmlDocument implements IXmlDocument
         }
         catch (SAXException e)
         {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+            throw XmlSchema.createValidationException(e, debugString);
         }
-        catch (IOException ex)
+        catch (Exception ex)
         {
             throw new XmlDocumentCheckedException(debugString, ex);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void isValid(XmlSchema schema) throws XmlDocumentCheckedException
+    {
+        if ((mRootNode == mDocument) || (mRootNode == mDocument.getDocumentElement()))
+        {
+            validateDocument(schema);
+        }
+        else
+        {
+            schema.validate(mRootNode);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void isValidIncremental(XmlSchema schema) throws XmlDocumentCheckedException
+    {
+        XmlDocumentContext context = getContext();
+        long modificationCount = context.getModificationCount();
+
+        Node[] changes = context.getChangesSince(schema);
+
+        if (changes == null)
+        {
+            validateDocument(schema);
+            return;
+        }
+
+        Set<Node> validated = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        List<Node> roots = new ArrayList<Node>();
+
+        for (Node node : changes)
+        {
+            // A node removed from the document is covered by the change to its old parent.
+            if (isWithin(node, validated))
+            {
+                continue;
+            }
+
+            // Each change is checked with the subtree of the nearest element declared
+            // globally where it is, so it meets the declarations the document gives it.
+            Element element = getElement(node);
+            Element root = (element != null) ? schema.getGloballyDeclared(element) : null;
+
+            if ((root == null) || (root == mDocument.getDocumentElement()))
+            {
+                validateDocument(schema);
+                return;
+            }
+
+            roots.add(root);
+        }
+
+        // Validate the outermost subtrees first; subtrees inside them are then covered.
+        Collections.sort(roots, new Comparator<Node>()
+        {
+            @Override
+            public int compare(Node a, Node b)
+            {
+                return getDepth(a) - getDepth(b);
+            }
+        });
+
+        try
+        {
+            for (Node root : roots)
+            {
+                if (!isWithin(root, validated))
+                {
+                    schema.validate(root);
+                    validated.add(root);
+                }
+            }
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            // A subtree checked on its own can fail where the whole document does not,
+            // for example on a reference to an ID outside it, so the document decides.
+            validateDocument(schema);
+            return;
+        }
+
+        context.validated(schema, modificationCount);
+    }
+
+    /**
+     * Validates the whole document and records it as the baseline for
+     * incremental validation.
+     *
+     * @param schema The schema.
+     * @throws XmlDocumentCheckedException If the document is not valid.
+     */
+    private void validateDocument(XmlSchema schema) throws XmlDocumentCheckedException
+    {
+        XmlDocumentContext context = getContext();
+        long modificationCount = context.getModificationCount();
+
+        schema.validate(mDocument);
+
+        context.validated(schema, modificationCount);
+    }
+
+    /**
+     *
+     * @param node A changed node.
+     * @return The element the node is or belongs to; the document element, if any, for the document itself.
+     */
+    private Element getElement(Node node)
+    {
+        Node element = (node.getNodeType() == Node.ATTRIBUTE_NODE) ? ((Attr) node).getOwnerElement() : node;
+
+        while ((element != null) && (element.getNodeType() != Node.ELEMENT_NODE))
+        {
+            element = (element == mDocument) ? mDocument.getDocumentElement() : element.getParentNode();
+        }
+
+        return (element != null) ? (Element) element : mDocument.getDocumentElement();
+    }
+
+    /**
+     *
+     * @param node A node.
+     * @param roots The roots of subtrees.
+     * @return Whether the node is in one of the subtrees; a node removed from the document counts as in one.
+     */
+    private static boolean isWithin(Node node, Set<Node> roots)
+    {
+        for (Node n = node; n != null; n = n.getParentNode())
+        {
+            if (roots.contains(n))
+            {
+                return true;
+            }
+
+            if (n.getNodeType() == Node.DOCUMENT_NODE)
+            {
+                return false;
+            }
+        }
+
+        // Detached; the node it was removed from was recorded as changed instead.
+        return true;
+    }
+
+    /**
+     *
+     * @param node A node.
+     * @return The number of ancestors the node has.
+     */
+    private static int getDepth(Node node)
+    {
+        int depth = 0;
+
+        for (Node n = node.getParentNode(); n != null; n = n.getParentNode())
+        {
+            depth++;
+        }
+
+        return depth;
+    }
+
+    /**
+     *
+     * @return The factory for parsers that validate against a document's DTD and schema hints.
+     * @throws Exception If the parser cannot be configured.
+     */
+    private static synchronized SAXParserFactory getDtdValidatingParserFactory() throws Exception
+    {
+        if (sDtdValidatingParserFactory == null)
+        {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setValidating(true);
+            factory.setFeature("http://apache.org/xml/features/validation/schema", true);
+
+            sDtdValidatingParserFactory = factory;
+        }
+
+        return sDtdValidatingParserFactory;
+    }
+
     /**
      *
      * @param index Desired position.
@@ -2206,40 +3448,66 @@ public class XmlDocument implements IXmlDocument
 
     /**
      *
-     * @param parent The parent node.
-     * @param index The position of the child.
+     * @param index The position of the child among the root node's element children.
      * @return The child node.
      * @throws XmlDocumentCheckedException If the XML is invalid or the index is invalid.
      */
-    private final Node getElementChildByIndex(Node parent, int index) throws XmlDocumentCheckedException
+    private final Node getElementChildByIndex(int index) throws XmlDocumentCheckedException
     {
-        final String debugString = getClass().getName() + ".getElementChildByIndex(Node, int)";
+        final String debugString = getClass().getName() + ".getElementChildByIndex(int)";
+
+        Node[] children = getElementChildren();
+
+        if ((index < 0) || (index >= children.length))
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.INVALID_INDEX, debugString);
+        }
+
+        return children[index];
+    }
+
+    /**
+     * Returns the element children of the root node. The array is cached and rebuilt
+     * when the document's structure has been changed, through this class or directly
+     * through the DOM, or when the root node's child count no longer matches. A DOM
+     * that does not report its changes is scanned on every call.
+     *
+     * @return The element children, in document order.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    private Node[] getElementChildren() throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".getElementChildren()";
         try
         {
-            int cnt = 0;
-            NodeList children = parent.getChildNodes();
-            int len = children.getLength();
-            for (int i = 0; i < len; i++)
+            XmlDocumentContext context = getContext();
+            // Mutation events only reach the document's listeners from nodes in its tree.
+            boolean watched = context.watchStructure() && context.isInDocument(mRootNode);
+            long version = context.getStructureModificationCount();
+            int nodeCount = mRootNode.getChildNodes().getLength();
+
+            Node[] children = mElementChildren;
+
+            if (!watched || (children == null) || (version != mElementChildrenVersion) || (nodeCount != mElementChildrenNodeCount))
             {
-                if (children.item(i).getNodeType() != Node.ELEMENT_NODE)
-                {
-                    continue;
-                }
+                List<Node> elements = new ArrayList<Node>();
 
-                if (cnt == index)
-                {
-                    return children.item(i);
-                }
-                else
+                for (Node node = mRootNode.getFirstChild(); node != null; node = node.getNextSibling())
                 {
-                    cnt++;
+                    if (node.getNodeType() == Node.ELEMENT_NODE)
+                    {
+                        elements.add(node);
+                    }
                 }
+
+                children = elements.toArray(new Node[elements.size()]);
+
+                mElementChildren = children;
+                mElementChildrenVersion = version;
+                mElementChildrenNodeCount = nodeCount;
             }
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.INVALID_INDEX, debugString);
-        }
-        catch (XmlDocumentCheckedException xdce)
-        {
-            throw xdce;
+
+            return children;
         }
         catch (Exception ex)
         {
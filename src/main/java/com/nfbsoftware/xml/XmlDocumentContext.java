@@ -0,0 +1,663 @@
+package com.nfbsoftware.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xpath.CachedXPathAPI;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
+import org.w3c.dom.events.EventTarget;
+
+/**
+ * Holds the settings and state shared by every XmlDocument wrapper over the same
+ * DOM document. A document's context is kept in the Document node's user data,
+ * so wrappers created for child elements, XPath results and root elements all
+ * see the same context.
+ * <p>
+ * The indexes and the reused XPath context a document can opt into only see
+ * changes made through XmlDocument methods; changes made directly to the DOM
+ * are not.
+ */
+final class XmlDocumentContext
+{
+    /**
+     * The user data key the context is stored under.
+     */
+    private static final String USER_DATA_KEY = XmlDocumentContext.class.getName();
+
+    /**
+     * The most nodes recorded as changed before the whole document is treated
+     * as changed instead.
+     */
+    private static final int MAXIMUM_CHANGED_NODES = 1024;
+
+    /**
+     * The document this context belongs to.
+     */
+    private final Document mDocument;
+
+    /**
+     * Whether child accessors return live views instead of copies.
+     */
+    private volatile boolean mLiveViews;
+
+    /**
+     * Incremented whenever the document is changed through an XmlDocument method.
+     */
+    private volatile long mModificationCount;
+
+    /**
+     * Incremented whenever nodes are added to or removed from the document
+     * through an XmlDocument method.
+     */
+    private volatile long mStructureModificationCount;
+
+    /**
+     * Whether nodes added to or removed from the document directly through the
+     * DOM also increment mStructureModificationCount. Guarded by this context.
+     */
+    private boolean mStructureWatched;
+
+    /**
+     * Whether every node of the document has been expanded since it was last
+     * structurally modified.
+     */
+    private volatile boolean mExpanded;
+
+    /**
+     * The schema the whole document was last found valid against, or null.
+     * Guarded by this context.
+     */
+    private XmlSchema mValidatedSchema;
+
+    /**
+     * The nodes changed since the document was last found valid against
+     * mValidatedSchema; null while there is no such validation to compare with.
+     * Guarded by this context.
+     */
+    private volatile Set<Node> mChangedNodes;
+
+    /**
+     * Whether more nodes changed than are worth recording. Guarded by this context.
+     */
+    private boolean mAllChanged;
+
+    /**
+     * The length of the document's last serialization to a String, used to
+     * size the buffer for the next one.
+     */
+    private volatile int mSerializedLength = 1024;
+
+    /**
+     * The text the document was loaded from, kept so that unchanged elements
+     * can be copied from it when the document is written; null if it was not kept.
+     */
+    private volatile XmlSource mSource;
+
+    /**
+     * Whether lookups by element name use an index of the document's elements.
+     */
+    private volatile boolean mNameIndexed;
+
+    /**
+     * The index of the document's elements by name, built on first use; null
+     * until then. Guarded by this context.
+     */
+    private XmlNameIndex mNameIndex;
+
+    /**
+     * The structure modification count when mNameIndex was built. Guarded by this context.
+     */
+    private long mNameIndexVersion;
+
+    /**
+     * The keys declared for the document, in the order they were declared;
+     * replaced rather than changed.
+     */
+    private volatile XmlKeyIndex[] mKeys = new XmlKeyIndex[0];
+
+    /**
+     * Whether XPath queries reuse one context over the document.
+     */
+    private volatile boolean mXPathContextReused;
+
+    /**
+     * The XPath context reused by queries on the document, which keeps the DTM
+     * Xalan builds over the document between them; null until the first query
+     * and after each change. Used while holding mXPathLock.
+     */
+    private volatile CachedXPathAPI mXPathAPI;
+
+    /**
+     * Held while a query uses mXPathAPI.
+     */
+    private final ReentrantLock mXPathLock = new ReentrantLock();
+
+    /**
+     *
+     * @param document The document this context belongs to.
+     */
+    private XmlDocumentContext(Document document)
+    {
+        mDocument = document;
+    }
+
+    /**
+     * Returns the document's context without creating one.
+     *
+     * @param document The document.
+     * @return The document's context, or null if it has none yet.
+     */
+    static XmlDocumentContext find(Document document)
+    {
+        return (XmlDocumentContext) document.getUserData(USER_DATA_KEY);
+    }
+
+    /**
+     * Returns the document's context, creating it on first use.
+     *
+     * @param document The document.
+     * @return The document's context.
+     */
+    static XmlDocumentContext get(Document document)
+    {
+        synchronized (document)
+        {
+            XmlDocumentContext context = (XmlDocumentContext) document.getUserData(USER_DATA_KEY);
+
+            if (context == null)
+            {
+                context = new XmlDocumentContext(document);
+                document.setUserData(USER_DATA_KEY, context, null);
+            }
+
+            return context;
+        }
+    }
+
+    /**
+     *
+     * @return The document this context belongs to.
+     */
+    Document getDocument()
+    {
+        return mDocument;
+    }
+
+    /**
+     *
+     * @return Whether child accessors return live views instead of copies.
+     */
+    boolean isLiveViews()
+    {
+        return mLiveViews;
+    }
+
+    /**
+     *
+     * @param liveViews Whether child accessors return live views instead of copies.
+     */
+    void setLiveViews(boolean liveViews)
+    {
+        mLiveViews = liveViews;
+    }
+
+    /**
+     *
+     * @return The number of changes made to the document.
+     */
+    long getModificationCount()
+    {
+        return mModificationCount;
+    }
+
+    /**
+     *
+     * @return The number of structural changes made to the document.
+     */
+    long getStructureModificationCount()
+    {
+        return mStructureModificationCount;
+    }
+
+    /**
+     * Makes nodes added to or removed from the document directly through the
+     * DOM increment the structure modification count too, by listening for the
+     * DOM's mutation events from then on. Listening makes such changes slower,
+     * so it is only started for documents whose caches need it.
+     *
+     * @return Whether the document's structural changes are all counted; false
+     *         if its DOM does not report mutation events.
+     */
+    synchronized boolean watchStructure()
+    {
+        if (!mStructureWatched)
+        {
+            if (!(mDocument instanceof EventTarget))
+            {
+                return false;
+            }
+
+            EventListener listener = new EventListener()
+            {
+                @Override
+                public void handleEvent(Event event)
+                {
+                    mStructureModificationCount++;
+                }
+            };
+
+            ((EventTarget) mDocument).addEventListener("DOMNodeInserted", listener, true);
+            ((EventTarget) mDocument).addEventListener("DOMNodeRemoved", listener, true);
+
+            mStructureWatched = true;
+        }
+
+        return true;
+    }
+
+    /**
+     *
+     * @return The length of the document's last serialization to a String.
+     */
+    int getSerializedLength()
+    {
+        return mSerializedLength;
+    }
+
+    /**
+     *
+     * @param serializedLength The length of the document's last serialization to a String.
+     */
+    void setSerializedLength(int serializedLength)
+    {
+        mSerializedLength = serializedLength;
+    }
+
+    /**
+     *
+     * @return The text the document was loaded from, or null if it was not kept.
+     */
+    XmlSource getSource()
+    {
+        return mSource;
+    }
+
+    /**
+     *
+     * @param source The text the document was loaded from, or null to stop keeping it.
+     */
+    void setSource(XmlSource source)
+    {
+        mSource = source;
+    }
+
+    /**
+     *
+     * @return Whether lookups by element name use an index.
+     */
+    boolean isNameIndexed()
+    {
+        return mNameIndexed;
+    }
+
+    /**
+     *
+     * @param nameIndexed Whether lookups by element name use an index.
+     */
+    synchronized void setNameIndexed(boolean nameIndexed)
+    {
+        mNameIndexed = nameIndexed;
+
+        if (!nameIndexed)
+        {
+            mNameIndex = null;
+        }
+    }
+
+    /**
+     * Returns the index of the document's elements by name, building it if the
+     * document's structure has changed since it was last built.
+     *
+     * @return The index, or null if lookups by name are not indexed.
+     */
+    XmlNameIndex getNameIndex()
+    {
+        if (!mNameIndexed)
+        {
+            return null;
+        }
+
+        synchronized (this)
+        {
+            if ((mNameIndex == null) || (mNameIndexVersion != mStructureModificationCount))
+            {
+                mNameIndexVersion = mStructureModificationCount;
+                mNameIndex = mNameIndexed ? new XmlNameIndex(mDocument) : null;
+            }
+
+            return mNameIndex;
+        }
+    }
+
+    /**
+     *
+     * @return Whether XPath queries reuse one context over the document.
+     */
+    boolean isXPathContextReused()
+    {
+        return mXPathContextReused;
+    }
+
+    /**
+     *
+     * @param xpathContextReused Whether XPath queries reuse one context over the document.
+     */
+    void setXPathContextReused(boolean xpathContextReused)
+    {
+        mXPathContextReused = xpathContextReused;
+        mXPathAPI = null;
+    }
+
+    /**
+     * Declares a key the document's elements can be looked up by; declaring
+     * the same key again has no effect.
+     *
+     * @param elementName The name of the elements.
+     * @param use <code>@attribute</code> or a child path.
+     * @return The key.
+     */
+    synchronized XmlKeyIndex declareKey(String elementName, String use)
+    {
+        XmlKeyIndex key = getKey(elementName, use);
+
+        if (key == null)
+        {
+            key = new XmlKeyIndex(mDocument, elementName, use);
+
+            XmlKeyIndex[] keys = Arrays.copyOf(mKeys, mKeys.length + 1);
+            keys[mKeys.length] = key;
+            mKeys = keys;
+        }
+
+        return key;
+    }
+
+    /**
+     *
+     * @param elementName The name of the elements.
+     * @param use <code>@attribute</code> or a child path, or null for the first key declared for the elements.
+     * @return The key, or null if it has not been declared.
+     */
+    XmlKeyIndex getKey(String elementName, String use)
+    {
+        for (XmlKeyIndex key : mKeys)
+        {
+            if (key.getElementName().equals(elementName) && ((use == null) || key.getUse().equals(use)))
+            {
+                return key;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Executes an XPath expression. When the context is reused, the DTM built
+     * over the document by earlier queries is kept as long as the document has
+     * not been changed through an XmlDocument method since.
+     *
+     * @param xpath The expression.
+     * @param root The node the expression is evaluated from.
+     * @return The selected nodes, which do not change if the document does.
+     * @throws TransformerException If the expression cannot be evaluated.
+     */
+    NodeList selectNodes(CompiledXPath xpath, Node root) throws TransformerException
+    {
+        // Nodes outside the document's tree would each add a DTM to the cached
+        // context, and a query running on another thread is not waited for.
+        if (!mXPathContextReused || !isInDocument(root) || !mXPathLock.tryLock())
+        {
+            return snapshot(xpath.selectNodeList(new CachedXPathAPI().getXPathContext(), root));
+        }
+
+        try
+        {
+            CachedXPathAPI xpathAPI = mXPathAPI;
+
+            if (xpathAPI == null)
+            {
+                xpathAPI = new CachedXPathAPI();
+                mXPathAPI = xpathAPI;
+            }
+
+            // The result is read through the DTM, so it is copied before another query can extend it.
+            return snapshot(xpath.selectNodeList(xpathAPI.getXPathContext(), root));
+        }
+        finally
+        {
+            mXPathLock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @param node A node.
+     * @return Whether the node is in the document's tree.
+     */
+    boolean isInDocument(Node node)
+    {
+        if (node.getNodeType() == Node.ATTRIBUTE_NODE)
+        {
+            node = ((Attr) node).getOwnerElement();
+        }
+
+        while ((node != null) && (node != mDocument))
+        {
+            node = node.getParentNode();
+        }
+
+        return node != null;
+    }
+
+    /**
+     *
+     * @param nodes The nodes.
+     * @return A list of the same nodes that does not depend on the original.
+     */
+    private static NodeList snapshot(NodeList nodes)
+    {
+        int length = nodes.getLength();
+        List<Node> copy = new ArrayList<Node>(length);
+
+        for (int i = 0; i < length; i++)
+        {
+            copy.add(nodes.item(i));
+        }
+
+        return new StaticNodeList(copy);
+    }
+
+    /**
+     * Records a change to a node's value or attributes.
+     *
+     * @param node The changed node.
+     */
+    void contentModified(Node node)
+    {
+        mModificationCount++;
+        mXPathAPI = null;
+        recordChange(node);
+
+        for (XmlKeyIndex key : mKeys)
+        {
+            key.contentModified(node);
+        }
+    }
+
+    /**
+     * Records that children were added to, removed from or replaced in a node.
+     *
+     * @param parent The node whose children changed.
+     */
+    void structureModified(Node parent)
+    {
+        mModificationCount++;
+        mStructureModificationCount++;
+        mExpanded = false;
+        mXPathAPI = null;
+        recordChange(parent);
+
+        for (XmlKeyIndex key : mKeys)
+        {
+            key.structureModified();
+        }
+    }
+
+    /**
+     * Records that the whole document was found valid against the schema;
+     * changes are tracked from here on so that only they need revalidating.
+     *
+     * @param schema The schema the document is valid against.
+     * @param modificationCount The modification count when the validation began.
+     */
+    synchronized void validated(XmlSchema schema, long modificationCount)
+    {
+        // A change made while validating may not have been seen, so it cannot serve as a baseline.
+        mValidatedSchema = (modificationCount == mModificationCount) ? schema : null;
+        mAllChanged = false;
+
+        if (mChangedNodes == null)
+        {
+            mChangedNodes = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        }
+        else
+        {
+            mChangedNodes.clear();
+        }
+    }
+
+    /**
+     * Returns the nodes changed since the document was last found valid
+     * against the schema.
+     *
+     * @param schema The schema.
+     * @return The changed nodes, or null if the whole document must be validated.
+     */
+    synchronized Node[] getChangesSince(XmlSchema schema)
+    {
+        if ((mChangedNodes == null) || mAllChanged || (mValidatedSchema != schema))
+        {
+            return null;
+        }
+
+        return mChangedNodes.toArray(new Node[mChangedNodes.size()]);
+    }
+
+    /**
+     *
+     * @param node The node whose value, attributes or children changed.
+     */
+    private void recordChange(Node node)
+    {
+        XmlSource source = mSource;
+
+        if (source != null)
+        {
+            source.modified(node);
+        }
+
+        // Nothing is recorded until a validation gives the changes a baseline.
+        if (mChangedNodes == null)
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (mAllChanged)
+            {
+                return;
+            }
+
+            if (mChangedNodes.size() >= MAXIMUM_CHANGED_NODES)
+            {
+                mAllChanged = true;
+                mChangedNodes.clear();
+            }
+            else
+            {
+                mChangedNodes.add(node);
+            }
+        }
+    }
+
+    /**
+     * Makes the document safe to read from several threads at once. Parsers
+     * such as Xerces build a deferred DOM whose nodes are only materialised,
+     * by writing to the tree, when they are first visited; concurrent readers
+     * of such a tree can corrupt it. Visiting every node once, under a lock,
+     * leaves nothing to materialise, after which read-only access such as a
+     * transform needs no lock.
+     */
+    void ensureExpanded()
+    {
+        if (mExpanded)
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (mExpanded)
+            {
+                return;
+            }
+
+            Node node = mDocument;
+
+            while (node != null)
+            {
+                node.getNodeValue();
+
+                NamedNodeMap attributes = node.getAttributes();
+
+                if (attributes != null)
+                {
+                    for (int i = 0; i < attributes.getLength(); i++)
+                    {
+                        attributes.item(i).getNodeValue();
+                    }
+                }
+
+                Node next = node.getFirstChild();
+
+                while ((next == null) && (node != null))
+                {
+                    next = node.getNextSibling();
+
+                    if (next == null)
+                    {
+                        node = node.getParentNode();
+                    }
+                }
+
+                node = next;
+            }
+
+            mExpanded = true;
+        }
+    }
+}
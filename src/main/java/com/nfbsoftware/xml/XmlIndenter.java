@@ -0,0 +1,78 @@
+package com.nfbsoftware.xml;
+
+/**
+ * Indents each level of nesting by a fixed unit, such as four spaces or a tab.
+ * The indent for each depth is built once and reused.
+ */
+public class XmlIndenter implements IXmlIndenter
+{
+    /**
+     * The number of depths whose indent is built up front.
+     */
+    private static final int PREBUILT_DEPTHS = 32;
+
+    /**
+     * The text added for each level of nesting.
+     */
+    private final String mUnit;
+
+    /**
+     * The indent for each depth below PREBUILT_DEPTHS.
+     */
+    private final String[] mIndents = new String[PREBUILT_DEPTHS];
+
+    /**
+     *
+     * @param spaces The number of spaces added for each level of nesting.
+     */
+    public XmlIndenter(int spaces)
+    {
+        this(repeat(" ", spaces));
+    }
+
+    /**
+     *
+     * @param unit The text added for each level of nesting.
+     */
+    public XmlIndenter(String unit)
+    {
+        mUnit = unit;
+
+        for (int i = 0; i < PREBUILT_DEPTHS; i++)
+        {
+            mIndents[i] = repeat(unit, i);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getIndent(int depth)
+    {
+        if (depth < PREBUILT_DEPTHS)
+        {
+            return mIndents[depth];
+        }
+
+        return repeat(mUnit, depth);
+    }
+
+    /**
+     *
+     * @param text The text to repeat.
+     * @param count The number of times to repeat it.
+     * @return The text repeated the number of times.
+     */
+    private static String repeat(String text, int count)
+    {
+        StringBuilder builder = new StringBuilder(text.length() * count);
+
+        for (int i = 0; i < count; i++)
+        {
+            builder.append(text);
+        }
+
+        return builder.toString();
+    }
+}
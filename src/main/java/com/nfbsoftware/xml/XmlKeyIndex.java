@@ -0,0 +1,332 @@
+package com.nfbsoftware.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * An index of a document's elements with a given name by a key value: the
+ * value of one of their attributes, as for <code>Element[@id='1000']</code>,
+ * or the string value of the children at a path, as for
+ * <code>Element[id='1000']</code>. An element whose path leads to several
+ * children is indexed under each of their values, so lookups match the
+ * XPath comparison.
+ * <p>
+ * Changes to values are applied to the index as they are made; changes to
+ * the document's structure make the index rebuild itself on the next lookup.
+ */
+final class XmlKeyIndex
+{
+    /**
+     * The name of the indexed elements.
+     */
+    private final String mElementName;
+
+    /**
+     * What the key is: <code>@attribute</code> or a child path.
+     */
+    private final String mUse;
+
+    /**
+     * The attribute whose value is the key, or null if the key is a child path.
+     */
+    private final String mAttributeName;
+
+    /**
+     * The child path whose values are the key, or null if the key is an attribute.
+     */
+    private final String[] mPath;
+
+    /**
+     * The document the index is for.
+     */
+    private final Document mDocument;
+
+    /**
+     * The elements with each key value, in document order; null until built
+     * and after the document's structure changes. Guarded by this index.
+     */
+    private Map<String, List<Node>> mElements;
+
+    /**
+     * The key values each indexed element is held under. Guarded by this index.
+     */
+    private Map<Node, String[]> mValues;
+
+    /**
+     *
+     * @param document The document the index is for.
+     * @param elementName The name of the indexed elements.
+     * @param use <code>@attribute</code> or a child path, such as <code>id</code> or <code>Header/Id</code>.
+     */
+    XmlKeyIndex(Document document, String elementName, String use)
+    {
+        if ((elementName == null) || (use == null))
+        {
+            throw new IllegalArgumentException("The key's element name or use is null");
+        }
+
+        mDocument = document;
+        mElementName = elementName;
+        mUse = use;
+
+        if (use.startsWith("@"))
+        {
+            mAttributeName = use.substring(1);
+            mPath = null;
+        }
+        else
+        {
+            mAttributeName = null;
+            mPath = XmlPath.compile(use).getNames();
+        }
+
+        if (elementName.isEmpty() || ((mAttributeName != null) ? mAttributeName.isEmpty() : (mPath.length == 0)))
+        {
+            throw new IllegalArgumentException("Invalid key: " + elementName + "[" + use + "]");
+        }
+    }
+
+    /**
+     *
+     * @return The name of the indexed elements.
+     */
+    String getElementName()
+    {
+        return mElementName;
+    }
+
+    /**
+     *
+     * @return What the key is: <code>@attribute</code> or a child path.
+     */
+    String getUse()
+    {
+        return mUse;
+    }
+
+    /**
+     *
+     * @param value The key value.
+     * @return The elements with the key value, in document order.
+     */
+    synchronized List<Node> get(String value)
+    {
+        if (mElements == null)
+        {
+            build();
+        }
+
+        List<Node> elements = mElements.get(value);
+
+        return (elements == null) ? Collections.<Node>emptyList() : new ArrayList<Node>(elements);
+    }
+
+    /**
+     * Updates the key values of the indexed elements a change to a node may affect.
+     *
+     * @param node The node whose value or attributes changed.
+     */
+    synchronized void contentModified(Node node)
+    {
+        if (mElements == null)
+        {
+            return;
+        }
+
+        if (node.getNodeType() == Node.ATTRIBUTE_NODE)
+        {
+            node = ((Attr) node).getOwnerElement();
+        }
+
+        if (mAttributeName != null)
+        {
+            // Only an element's own attributes are its key.
+            if ((node != null) && mElementName.equals(node.getNodeName()))
+            {
+                update(node);
+            }
+
+            return;
+        }
+
+        // A child's string value includes the text of all of its descendants.
+        for (; node != null; node = node.getParentNode())
+        {
+            if ((node.getNodeType() == Node.ELEMENT_NODE) && mElementName.equals(node.getNodeName()))
+            {
+                update(node);
+            }
+        }
+    }
+
+    /**
+     * Records that nodes were added to or removed from the document; the index
+     * is rebuilt on the next lookup.
+     */
+    synchronized void structureModified()
+    {
+        mElements = null;
+        mValues = null;
+    }
+
+    /**
+     * Indexes every element with the name, in document order.
+     */
+    private void build()
+    {
+        mElements = new HashMap<String, List<Node>>();
+        mValues = new IdentityHashMap<Node, String[]>();
+
+        Node node = mDocument.getDocumentElement();
+
+        while (node != null)
+        {
+            if ((node.getNodeType() == Node.ELEMENT_NODE) && mElementName.equals(node.getNodeName()))
+            {
+                String[] values = getValues(node);
+
+                if (values.length > 0)
+                {
+                    mValues.put(node, values);
+
+                    for (String value : values)
+                    {
+                        List<Node> elements = mElements.get(value);
+
+                        if (elements == null)
+                        {
+                            elements = new ArrayList<Node>(1);
+                            mElements.put(value, elements);
+                        }
+
+                        elements.add(node);
+                    }
+                }
+            }
+
+            Node next = node.getFirstChild();
+
+            while ((next == null) && (node != null))
+            {
+                next = node.getNextSibling();
+
+                if (next == null)
+                {
+                    node = node.getParentNode();
+                }
+            }
+
+            node = next;
+        }
+    }
+
+    /**
+     * Moves an element to the entries for its current key values.
+     *
+     * @param element The element.
+     */
+    private void update(Node element)
+    {
+        String[] oldValues = mValues.remove(element);
+        String[] newValues = getValues(element);
+
+        if (oldValues != null)
+        {
+            for (String value : oldValues)
+            {
+                List<Node> elements = mElements.get(value);
+                elements.remove(element);
+
+                if (elements.isEmpty())
+                {
+                    mElements.remove(value);
+                }
+            }
+        }
+
+        if (newValues.length == 0)
+        {
+            return;
+        }
+
+        mValues.put(element, newValues);
+
+        for (String value : newValues)
+        {
+            List<Node> elements = mElements.get(value);
+
+            if (elements == null)
+            {
+                elements = new ArrayList<Node>(1);
+                mElements.put(value, elements);
+            }
+
+            // Keep the entries in document order.
+            int index = elements.size();
+
+            while ((index > 0) && ((elements.get(index - 1).compareDocumentPosition(element) & Node.DOCUMENT_POSITION_PRECEDING) != 0))
+            {
+                index--;
+            }
+
+            elements.add(index, element);
+        }
+    }
+
+    /**
+     *
+     * @param element An element with the indexed name.
+     * @return The element's distinct key values; none if it has no such attribute or child.
+     */
+    private String[] getValues(Node element)
+    {
+        if (mAttributeName != null)
+        {
+            Node attribute = element.getAttributes().getNamedItem(mAttributeName);
+
+            return (attribute == null) ? new String[0] : new String[] { attribute.getNodeValue() };
+        }
+
+        List<String> values = new ArrayList<String>(1);
+        collectValues(element, 0, values);
+
+        return values.toArray(new String[values.size()]);
+    }
+
+    /**
+     *
+     * @param node The node reached so far along the path.
+     * @param depth The number of path names matched to reach it.
+     * @param values Receives the distinct string values of the children at the end of the path.
+     */
+    private void collectValues(Node node, int depth, List<String> values)
+    {
+        if (depth == mPath.length)
+        {
+            String value = node.getTextContent();
+
+            if (!values.contains(value))
+            {
+                values.add(value);
+            }
+
+            return;
+        }
+
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if ((child.getNodeType() == Node.ELEMENT_NODE) && mPath[depth].equals(child.getNodeName()))
+            {
+                collectValues(child, depth + 1, values);
+            }
+        }
+    }
+}
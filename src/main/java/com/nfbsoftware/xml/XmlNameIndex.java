@@ -0,0 +1,86 @@
+package com.nfbsoftware.xml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * The elements of a document grouped by name, each group in document order.
+ * An index is built in one walk of the document and describes the document
+ * as it was then; it is replaced rather than updated when the document's
+ * structure changes.
+ */
+final class XmlNameIndex
+{
+    /** */
+    private static final Node[] NO_NODES = new Node[0];
+
+    /**
+     * The elements with each name, in document order.
+     */
+    private final Map<String, Node[]> mElements;
+
+    /**
+     *
+     * @param document The document to index.
+     */
+    XmlNameIndex(Document document)
+    {
+        Map<String, List<Node>> elements = new HashMap<String, List<Node>>();
+
+        Node node = document.getDocumentElement();
+
+        while (node != null)
+        {
+            if (node.getNodeType() == Node.ELEMENT_NODE)
+            {
+                List<Node> named = elements.get(node.getNodeName());
+
+                if (named == null)
+                {
+                    named = new ArrayList<Node>();
+                    elements.put(node.getNodeName(), named);
+                }
+
+                named.add(node);
+            }
+
+            Node next = node.getFirstChild();
+
+            while ((next == null) && (node != null))
+            {
+                next = node.getNextSibling();
+
+                if (next == null)
+                {
+                    node = node.getParentNode();
+                }
+            }
+
+            node = next;
+        }
+
+        mElements = new HashMap<String, Node[]>(elements.size() * 4 / 3 + 1);
+
+        for (Map.Entry<String, List<Node>> entry : elements.entrySet())
+        {
+            mElements.put(entry.getKey(), entry.getValue().toArray(new Node[entry.getValue().size()]));
+        }
+    }
+
+    /**
+     *
+     * @param name The qualified name of the elements.
+     * @return The elements with the name, in document order; not to be changed.
+     */
+    Node[] get(String name)
+    {
+        Node[] elements = mElements.get(name);
+
+        return (elements == null) ? NO_NODES : elements;
+    }
+}
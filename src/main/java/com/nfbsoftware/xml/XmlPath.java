@@ -0,0 +1,181 @@
+package com.nfbsoftware.xml;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.nfbsoftware.util.LruCache;
+
+/**
+ * A child path such as <code>REQUEST/HEADER/INFO</code>, split into its
+ * element names once so that it can be used for any number of lookups.
+ * Paths are immutable and may be shared between threads.
+ * <p>
+ * The methods that take a path as a String look it up in a process wide
+ * cache of at most <code>getMaximumCacheSize()</code> paths, so they only
+ * split each path the first time it is used; compiling a path and keeping it
+ * avoids even the lookup.
+ *
+ * <pre>
+ * private static final XmlPath INFO = XmlPath.compile("REQUEST/HEADER/INFO");
+ * ...
+ * String info = element.getChildValue(INFO);
+ * </pre>
+ */
+public final class XmlPath
+{
+    /**
+     * The default maximum number of cached paths.
+     */
+    public static final int DEFAULT_MAXIMUM_CACHE_SIZE = 1000;
+
+    /** */
+    private static final LruCache<String, XmlPath> sCache = new LruCache<String, XmlPath>(DEFAULT_MAXIMUM_CACHE_SIZE);
+
+    /**
+     * The path as it was given.
+     */
+    private final String mPath;
+
+    /**
+     * The element names in the path, from the outermost down.
+     */
+    private final String[] mNames;
+
+    /**
+     *
+     * @param path The path, with names separated by '/'.
+     * @param names The element names in the path.
+     */
+    private XmlPath(String path, String[] names)
+    {
+        mPath = path;
+        mNames = names;
+    }
+
+    /**
+     * Splits a path into its element names. Empty names, as between a leading
+     * or doubled '/', are ignored.
+     *
+     * @param path The path, with names separated by '/'.
+     * @return The compiled path.
+     */
+    public static XmlPath compile(String path)
+    {
+        if (path == null)
+        {
+            throw new IllegalArgumentException("The path is null");
+        }
+
+        if (path.indexOf(XmlDocument.SEPARATOR.charAt(0)) < 0)
+        {
+            return new XmlPath(path, path.isEmpty() ? new String[0] : new String[] { path });
+        }
+
+        return new XmlPath(path, StringUtils.split(path, XmlDocument.SEPARATOR));
+    }
+
+    /**
+     * Returns the compiled form of the path, compiling and caching it on first use.
+     *
+     * @param path The path, with names separated by '/'.
+     * @return The compiled path.
+     */
+    static XmlPath get(String path)
+    {
+        // A single name costs less to wrap than to look up.
+        if ((path == null) || (path.indexOf(XmlDocument.SEPARATOR.charAt(0)) < 0))
+        {
+            return compile(path);
+        }
+
+        XmlPath compiled = sCache.get(path);
+
+        if (compiled == null)
+        {
+            compiled = sCache.put(path, compile(path));
+        }
+
+        return compiled;
+    }
+
+    /**
+     *
+     * @return The element names in the path; not to be changed.
+     */
+    String[] getNames()
+    {
+        return mNames;
+    }
+
+    /**
+     *
+     * @return The number of element names in the path.
+     */
+    public int getLength()
+    {
+        return mNames.length;
+    }
+
+    /**
+     *
+     * @param index The index of the name, from 0 for the outermost.
+     * @return The element name.
+     */
+    public String getName(int index)
+    {
+        return mNames[index];
+    }
+
+    /**
+     *
+     * @return The number of paths in the cache.
+     */
+    public static int getCacheSize()
+    {
+        return sCache.size();
+    }
+
+    /**
+     *
+     * @return The maximum number of paths in the cache.
+     */
+    public static int getMaximumCacheSize()
+    {
+        return sCache.getMaximumSize();
+    }
+
+    /**
+     *
+     * @param maximumSize The maximum number of paths in the cache; must be at least 1.
+     */
+    public static void setMaximumCacheSize(int maximumSize)
+    {
+        sCache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object other)
+    {
+        return (other instanceof XmlPath) && mPath.equals(((XmlPath) other).mPath);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return mPath.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return mPath;
+    }
+}
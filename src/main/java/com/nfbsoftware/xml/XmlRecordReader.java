@@ -0,0 +1,651 @@
+package com.nfbsoftware.xml;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+import com.nfbsoftware.xml.exception.XmlDocumentRuntimeException;
+
+/**
+ * Reads an XML document as a sequence of records without building the whole
+ * document in memory.
+ * <p>
+ * A record is every element whose path from the document element matches the
+ * record path given to the reader, for example <code>ROOT/one/Elements/Element</code>.
+ * The input is read with a streaming (StAX) parser and only the record being
+ * returned is built as a DOM, so memory use is bounded by the largest record
+ * rather than by the size of the input. Each record is returned as its own
+ * <code>IXmlElement</code> and supports the usual accessors such as
+ * <code>getChildValue</code> and <code>selectChildren</code>. Namespaces declared
+ * above a record are copied onto the record's element so that its prefixes
+ * still resolve.
+ * <p>
+ * Readers are not thread safe. Closing the reader closes the underlying input.
+ *
+ * <pre>
+ * XmlRecordReader reader = new XmlRecordReader(file, "ROOT/one/Elements/Element");
+ * try
+ * {
+ *     while (reader.hasNext())
+ *     {
+ *         IXmlElement record = reader.next();
+ *         ...
+ *     }
+ * }
+ * finally
+ * {
+ *     reader.close();
+ * }
+ * </pre>
+ */
+public class XmlRecordReader implements Iterator<IXmlElement>, Closeable
+{
+    /**
+     * The factory used to create the streaming readers; configured once.
+     */
+    private static final XMLInputFactory sInputFactory = createInputFactory();
+
+    /**
+     * The element names, from the document element down, that identify a record.
+     */
+    private final String[] mRecordPath;
+
+    /**
+     * The provider used to create the document each record is built in.
+     */
+    private final DocumentBuilderProvider mDocumentBuilderProvider;
+
+    /**
+     * The streaming reader over the input.
+     */
+    private final XMLStreamReader mStreamReader;
+
+    /**
+     * The input opened or supplied for this reader, closed along with it.
+     */
+    private final Closeable mInput;
+
+    /**
+     * The number of leading record path names matched by the currently open elements.
+     */
+    private int mMatchedDepth;
+
+    /**
+     * The depth of the currently open element; the document element is at depth 1.
+     */
+    private int mDepth;
+
+    /**
+     * The namespace declarations (prefix, URI pairs) of each open element above the current record.
+     */
+    private final List<String[]> mNamespaceScopes = new ArrayList<String[]>();
+
+    /**
+     * The record read ahead by <code>hasNext()</code>, or null.
+     */
+    private IXmlElement mNextRecord;
+
+    /**
+     * Whether the end of the input has been reached.
+     */
+    private boolean mFinished;
+
+    /**
+     * Whether the reader has been closed.
+     */
+    private boolean mClosed;
+
+    /**
+     *
+     * @param file The XML file.
+     * @param recordPath The path of the record elements, starting with the document element.
+     * @throws XmlDocumentCheckedException If the file cannot be opened.
+     */
+    public XmlRecordReader(File file, String recordPath) throws XmlDocumentCheckedException
+    {
+        this(openFile(file), null, recordPath, null);
+    }
+
+    /**
+     *
+     * @param in The input stream with the xml document.
+     * @param recordPath The path of the record elements, starting with the document element.
+     * @throws XmlDocumentCheckedException If the input cannot be read.
+     */
+    public XmlRecordReader(InputStream in, String recordPath) throws XmlDocumentCheckedException
+    {
+        this(in, null, recordPath, null);
+    }
+
+    /**
+     *
+     * @param in The input stream with the xml document.
+     * @param enc The encoding
+     * @param recordPath The path of the record elements, starting with the document element.
+     * @throws XmlDocumentCheckedException If the input cannot be read.
+     */
+    public XmlRecordReader(InputStream in, String enc, String recordPath) throws XmlDocumentCheckedException
+    {
+        this(in, enc, recordPath, null);
+    }
+
+    /**
+     *
+     * @param in The input stream with the xml document.
+     * @param enc The encoding, or null to detect it from the document.
+     * @param recordPath The path of the record elements, starting with the document element.
+     * @param provider The provider used to create the record documents, or null for the default.
+     * @throws XmlDocumentCheckedException If the input cannot be read.
+     */
+    public XmlRecordReader(InputStream in, String enc, String recordPath, DocumentBuilderProvider provider) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + "<init>(InputStream, String, String, DocumentBuilderProvider)";
+
+        mRecordPath = parseRecordPath(recordPath);
+        mDocumentBuilderProvider = provider == null ? DocumentBuilderProvider.getDefault() : provider;
+        mInput = in;
+
+        try
+        {
+            if (enc == null)
+            {
+                mStreamReader = sInputFactory.createXMLStreamReader(in);
+            }
+            else
+            {
+                mStreamReader = sInputFactory.createXMLStreamReader(in, enc);
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            closeQuietly(in);
+
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, e, debugString, e);
+        }
+    }
+
+    /**
+     *
+     * @param reader The reader with the xml document.
+     * @param recordPath The path of the record elements, starting with the document element.
+     * @throws XmlDocumentCheckedException If the input cannot be read.
+     */
+    public XmlRecordReader(Reader reader, String recordPath) throws XmlDocumentCheckedException
+    {
+        this(reader, recordPath, null);
+    }
+
+    /**
+     *
+     * @param reader The reader with the xml document.
+     * @param recordPath The path of the record elements, starting with the document element.
+     * @param provider The provider used to create the record documents, or null for the default.
+     * @throws XmlDocumentCheckedException If the input cannot be read.
+     */
+    public XmlRecordReader(Reader reader, String recordPath, DocumentBuilderProvider provider) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + "<init>(Reader, String, DocumentBuilderProvider)";
+
+        mRecordPath = parseRecordPath(recordPath);
+        mDocumentBuilderProvider = provider == null ? DocumentBuilderProvider.getDefault() : provider;
+        mInput = reader;
+
+        try
+        {
+            mStreamReader = sInputFactory.createXMLStreamReader(reader);
+        }
+        catch (XMLStreamException e)
+        {
+            closeQuietly(reader);
+
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, e, debugString, e);
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return The next record, or null once the input is exhausted.
+     * @throws XmlDocumentCheckedException If the input is not well formed or cannot be read.
+     */
+    public IXmlElement nextRecord() throws XmlDocumentCheckedException
+    {
+        if (mNextRecord != null)
+        {
+            IXmlElement record = mNextRecord;
+            mNextRecord = null;
+
+            return record;
+        }
+
+        return readRecord();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext()
+    {
+        final String debugString = getClass().getName() + ".hasNext()";
+
+        if (mNextRecord == null)
+        {
+            try
+            {
+                mNextRecord = readRecord();
+            }
+            catch (XmlDocumentCheckedException e)
+            {
+                throw new XmlDocumentRuntimeException(XmlDocumentRuntimeException.Codes.GENERAL_FATAL_ERROR, e, debugString, e);
+            }
+        }
+
+        return mNextRecord != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IXmlElement next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+
+        IXmlElement record = mNextRecord;
+        mNextRecord = null;
+
+        return record;
+    }
+
+    /**
+     * Returns the remaining records as a sequential stream. Closing the stream
+     * closes this reader.
+     *
+     * @return The remaining records.
+     */
+    public Stream<IXmlElement> stream()
+    {
+        Spliterator<IXmlElement> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    close();
+                }
+                catch (IOException e)
+                {
+                    throw new XmlDocumentRuntimeException(XmlDocumentRuntimeException.Codes.GENERAL_FATAL_ERROR, e, XmlRecordReader.class.getName() + ".stream()", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (mClosed)
+        {
+            return;
+        }
+
+        mClosed = true;
+        mFinished = true;
+        mNextRecord = null;
+
+        try
+        {
+            mStreamReader.close();
+        }
+        catch (XMLStreamException e)
+        {
+            // The underlying input is closed below regardless.
+        }
+
+        mInput.close();
+    }
+
+    /**
+     * Advances to the start of the next record and builds it.
+     *
+     * @return The record, or null once the input is exhausted.
+     * @throws XmlDocumentCheckedException If the input is not well formed or cannot be read.
+     */
+    private IXmlElement readRecord() throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".readRecord()";
+
+        if (mFinished)
+        {
+            return null;
+        }
+
+        try
+        {
+            while (mStreamReader.hasNext())
+            {
+                int event = mStreamReader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT)
+                {
+                    mDepth++;
+
+                    if ((mMatchedDepth == mDepth - 1) && (mMatchedDepth < mRecordPath.length) && mRecordPath[mMatchedDepth].equals(getQualifiedName()))
+                    {
+                        mMatchedDepth++;
+
+                        if (mMatchedDepth == mRecordPath.length)
+                        {
+                            IXmlElement record = buildRecord();
+
+                            // The record's end tag has been consumed.
+                            mMatchedDepth--;
+                            mDepth--;
+
+                            return record;
+                        }
+                    }
+
+                    mNamespaceScopes.add(getNamespaceDeclarations());
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT)
+                {
+                    if (mMatchedDepth == mDepth)
+                    {
+                        mMatchedDepth--;
+                    }
+
+                    mNamespaceScopes.remove(mNamespaceScopes.size() - 1);
+                    mDepth--;
+                }
+            }
+
+            mFinished = true;
+
+            return null;
+        }
+        catch (XMLStreamException e)
+        {
+            mFinished = true;
+
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, e, debugString, e);
+        }
+    }
+
+    /**
+     * Builds the record that starts at the current element, consuming the input
+     * up to and including its end tag.
+     *
+     * @return The record.
+     * @throws XMLStreamException If the input is not well formed or cannot be read.
+     * @throws XmlDocumentCheckedException If the record document cannot be created.
+     */
+    private IXmlElement buildRecord() throws XMLStreamException, XmlDocumentCheckedException
+    {
+        Document document = mDocumentBuilderProvider.newDocument();
+        Element recordElement = createElement(document);
+
+        // Carry down the namespaces declared above the record, innermost first.
+        for (int i = mNamespaceScopes.size() - 1; i >= 0; i--)
+        {
+            String[] declarations = mNamespaceScopes.get(i);
+
+            for (int j = 0; j < declarations.length; j += 2)
+            {
+                String prefix = declarations[j];
+                String localName = prefix.length() == 0 ? XMLConstants.XMLNS_ATTRIBUTE : prefix;
+
+                // Declarations further down shadow those above them.
+                if (!recordElement.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, localName))
+                {
+                    String attributeName = prefix.length() == 0 ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+                    recordElement.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attributeName, declarations[j + 1]);
+                }
+            }
+        }
+
+        document.appendChild(recordElement);
+
+        Node current = recordElement;
+
+        while (current != document)
+        {
+            switch (mStreamReader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    current = current.appendChild(createElement(document));
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    current = current.getParentNode();
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(document.createTextNode(mStreamReader.getText()));
+                    break;
+
+                case XMLStreamConstants.CDATA:
+                    current.appendChild(document.createCDATASection(mStreamReader.getText()));
+                    break;
+
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    current.appendChild(document.createTextNode(mStreamReader.getText()));
+                    break;
+
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(document.createComment(mStreamReader.getText()));
+                    break;
+
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    current.appendChild(document.createProcessingInstruction(mStreamReader.getPITarget(), mStreamReader.getPIData()));
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        return new XmlDocument(recordElement, document);
+    }
+
+    /**
+     * Creates an element, with its namespace declarations and attributes, for the
+     * current start tag.
+     *
+     * @param document The document to create the element in.
+     * @return The element.
+     */
+    private Element createElement(Document document)
+    {
+        Element element = document.createElementNS(emptyToNull(mStreamReader.getNamespaceURI()), getQualifiedName());
+
+        int namespaceCount = mStreamReader.getNamespaceCount();
+
+        for (int i = 0; i < namespaceCount; i++)
+        {
+            String prefix = mStreamReader.getNamespacePrefix(i);
+            String uri = mStreamReader.getNamespaceURI(i);
+
+            if ((prefix == null) || (prefix.length() == 0))
+            {
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE, uri == null ? "" : uri);
+            }
+            else
+            {
+                element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, uri == null ? "" : uri);
+            }
+        }
+
+        int attributeCount = mStreamReader.getAttributeCount();
+
+        for (int i = 0; i < attributeCount; i++)
+        {
+            String prefix = mStreamReader.getAttributePrefix(i);
+            String localName = mStreamReader.getAttributeLocalName(i);
+            String name = (prefix == null) || (prefix.length() == 0) ? localName : prefix + ":" + localName;
+
+            element.setAttributeNS(emptyToNull(mStreamReader.getAttributeNamespace(i)), name, mStreamReader.getAttributeValue(i));
+        }
+
+        return element;
+    }
+
+    /**
+     *
+     * @return The qualified name of the current element.
+     */
+    private String getQualifiedName()
+    {
+        String prefix = mStreamReader.getPrefix();
+
+        if ((prefix == null) || (prefix.length() == 0))
+        {
+            return mStreamReader.getLocalName();
+        }
+
+        return prefix + ":" + mStreamReader.getLocalName();
+    }
+
+    /**
+     *
+     * @return The namespace declarations of the current element as prefix, URI pairs.
+     */
+    private String[] getNamespaceDeclarations()
+    {
+        int namespaceCount = mStreamReader.getNamespaceCount();
+        String[] declarations = new String[namespaceCount * 2];
+
+        for (int i = 0; i < namespaceCount; i++)
+        {
+            String prefix = mStreamReader.getNamespacePrefix(i);
+            String uri = mStreamReader.getNamespaceURI(i);
+
+            declarations[i * 2] = prefix == null ? "" : prefix;
+            declarations[i * 2 + 1] = uri == null ? "" : uri;
+        }
+
+        return declarations;
+    }
+
+    /**
+     *
+     * @param recordPath The record path, for example <code>ROOT/one/Elements/Element</code>.
+     * @return The element names in the path.
+     */
+    static String[] parseRecordPath(String recordPath)
+    {
+        List<String> names = new ArrayList<String>();
+
+        for (String name : recordPath.split(XmlDocument.SEPARATOR))
+        {
+            if (name.length() > 0)
+            {
+                names.add(name);
+            }
+        }
+
+        if (names.isEmpty())
+        {
+            throw new IllegalArgumentException("The record path is empty: " + recordPath);
+        }
+
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     *
+     * @param file The XML file.
+     * @return An input stream over the file.
+     * @throws XmlDocumentCheckedException If the file cannot be opened.
+     */
+    private static InputStream openFile(File file) throws XmlDocumentCheckedException
+    {
+        final String debugString = XmlRecordReader.class.getName() + ".openFile(File)";
+
+        try
+        {
+            return new FileInputStream(file);
+        }
+        catch (IOException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+    }
+
+    /**
+     *
+     * @param closeable The input to close.
+     */
+    private static void closeQuietly(Closeable closeable)
+    {
+        try
+        {
+            closeable.close();
+        }
+        catch (IOException e)
+        {
+            // Already reporting the failure to open the input.
+        }
+    }
+
+    /**
+     *
+     * @param value The value.
+     * @return The value, or null if it is empty.
+     */
+    private static String emptyToNull(String value)
+    {
+        if ((value == null) || (value.length() == 0))
+        {
+            return null;
+        }
+
+        return value;
+    }
+
+    /**
+     *
+     * @return The configured factory.
+     */
+    private static XMLInputFactory createInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+
+        return factory;
+    }
+}
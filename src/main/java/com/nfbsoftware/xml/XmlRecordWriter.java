@@ -0,0 +1,241 @@
+package com.nfbsoftware.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+
+/**
+ * Writes an XML document as a sequence of records without holding the whole
+ * document in memory; the counterpart of <code>XmlRecordReader</code>.
+ * <p>
+ * The envelope, the elements on the record path above the records, is written
+ * once. Each record is then built as its own small <code>IXmlElement</code>
+ * with the usual methods such as <code>createChild</code> and
+ * <code>setAttribute</code>, and is written and released as soon as the next
+ * record is started or the writer is closed, so memory use is bounded by the
+ * largest record rather than by the size of the output.
+ * <p>
+ * Writers are not thread safe. Closing the writer writes the last record,
+ * ends the envelope and closes the underlying output.
+ *
+ * <pre>
+ * XmlRecordWriter writer = new XmlRecordWriter(output, "ROOT/Orders");
+ * try
+ * {
+ *     for (Order order : orders)
+ *     {
+ *         IXmlElement record = writer.newRecord("Order");
+ *         record.setAttribute("id", order.getId());
+ *         ...
+ *     }
+ * }
+ * finally
+ * {
+ *     writer.close();
+ * }
+ * </pre>
+ */
+public class XmlRecordWriter implements Closeable
+{
+    /**
+     * The writer the envelope and records are written to.
+     */
+    private final XmlWriter mWriter;
+
+    /**
+     * The provider used to create the document each record is built in.
+     */
+    private final DocumentBuilderProvider mDocumentBuilderProvider;
+
+    /**
+     * The record being built, written when the next one is started, or null.
+     */
+    private IXmlElement mRecord;
+
+    /**
+     * The number of records written.
+     */
+    private long mRecordCount;
+
+    /** */
+    private boolean mClosed;
+
+    /**
+     *
+     * @param output The stream the document is written to as UTF-8.
+     * @param envelopePath The path of the element the records are written in, starting with the document element.
+     * @throws XmlDocumentCheckedException If the envelope cannot be written.
+     */
+    public XmlRecordWriter(OutputStream output, String envelopePath) throws XmlDocumentCheckedException
+    {
+        this(new XmlWriter(output), envelopePath, null);
+    }
+
+    /**
+     *
+     * @param output The stream the document is written to as UTF-8.
+     * @param envelopePath The path of the element the records are written in, starting with the document element.
+     * @param indenter How markup is indented, or null to write it as it is.
+     * @throws XmlDocumentCheckedException If the envelope cannot be written.
+     */
+    public XmlRecordWriter(OutputStream output, String envelopePath, IXmlIndenter indenter) throws XmlDocumentCheckedException
+    {
+        this(new XmlWriter(output, indenter), envelopePath, null);
+    }
+
+    /**
+     *
+     * @param writer The Writer the document is written to.
+     * @param envelopePath The path of the element the records are written in, starting with the document element.
+     * @throws XmlDocumentCheckedException If the envelope cannot be written.
+     */
+    public XmlRecordWriter(Writer writer, String envelopePath) throws XmlDocumentCheckedException
+    {
+        this(new XmlWriter(writer), envelopePath, null);
+    }
+
+    /**
+     * Writes the records into the current element of a writer, so the
+     * envelope can be given attributes or other content before the records.
+     *
+     * @param writer The writer, positioned in the element the records are written in.
+     * @param provider The provider used to create the record documents, or null for the default.
+     */
+    public XmlRecordWriter(XmlWriter writer, DocumentBuilderProvider provider)
+    {
+        mWriter = writer;
+        mDocumentBuilderProvider = provider;
+    }
+
+    /**
+     *
+     * @param writer The writer the document is written to.
+     * @param envelopePath The path of the element the records are written in, starting with the document element.
+     * @param provider The provider used to create the record documents, or null for the default.
+     * @throws XmlDocumentCheckedException If the envelope cannot be written.
+     */
+    private XmlRecordWriter(XmlWriter writer, String envelopePath, DocumentBuilderProvider provider) throws XmlDocumentCheckedException
+    {
+        this(writer, provider);
+
+        for (String name : XmlRecordReader.parseRecordPath(envelopePath))
+        {
+            mWriter.child(name);
+        }
+    }
+
+    /**
+     * Writes the record being built, if any, and starts a new one.
+     *
+     * @param name The name of the record's element.
+     * @return The new record, to be filled in before the next call.
+     * @throws XmlDocumentCheckedException If the previous record cannot be written.
+     */
+    public IXmlElement newRecord(String name) throws XmlDocumentCheckedException
+    {
+        if (mClosed)
+        {
+            throw new IllegalStateException("The writer is closed");
+        }
+
+        writeRecord();
+
+        mRecord = new XmlDocument(mDocumentBuilderProvider).createChild(name);
+
+        return mRecord;
+    }
+
+    /**
+     * Writes the record being built, if any, and then the given record.
+     * The record may come from any document, and is left unchanged.
+     *
+     * @param record The record to write.
+     * @throws XmlDocumentCheckedException If either record cannot be written.
+     */
+    public void write(IXmlElement record) throws XmlDocumentCheckedException
+    {
+        writeRecord();
+
+        mWriter.embed(record);
+        mRecordCount++;
+    }
+
+    /**
+     *
+     * @return The number of records written so far, not counting the one being built.
+     */
+    public long getRecordCount()
+    {
+        return mRecordCount;
+    }
+
+    /**
+     * Writes the record being built, if any, and everything buffered to the
+     * output, and flushes it.
+     *
+     * @throws IOException If the output cannot be written to.
+     */
+    public void flush() throws IOException
+    {
+        try
+        {
+            writeRecord();
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        mWriter.flush();
+    }
+
+    /**
+     * Writes the record being built, if any, ends the envelope and closes the output.
+     *
+     * @throws IOException If the output cannot be written to.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (mClosed)
+        {
+            return;
+        }
+
+        mClosed = true;
+
+        try
+        {
+            writeRecord();
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            throw new IOException(e.getMessage(), e);
+        }
+        finally
+        {
+            mWriter.close();
+        }
+    }
+
+    /**
+     * Writes the record being built, if any, and releases it.
+     *
+     * @throws XmlDocumentCheckedException If the record cannot be written.
+     */
+    private void writeRecord() throws XmlDocumentCheckedException
+    {
+        IXmlElement record = mRecord;
+
+        if (record != null)
+        {
+            mRecord = null;
+
+            mWriter.embed(record);
+            mRecordCount++;
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package com.nfbsoftware.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.apache.xerces.jaxp.validation.XSGrammarPoolContainer;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.apache.xerces.xni.grammars.XSGrammar;
+import org.apache.xerces.xs.XSComplexTypeDefinition;
+import org.apache.xerces.xs.XSConstants;
+import org.apache.xerces.xs.XSElementDeclaration;
+import org.apache.xerces.xs.XSModel;
+import org.apache.xerces.xs.XSModelGroup;
+import org.apache.xerces.xs.XSObjectList;
+import org.apache.xerces.xs.XSParticle;
+import org.apache.xerces.xs.XSTerm;
+import org.apache.xerces.xs.XSTypeDefinition;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+
+/**
+ * A compiled schema together with a pool of Validators for it.
+ * <p>
+ * A compiled Schema is thread safe, but the Validators created from it are not
+ * and are relatively expensive to create, so each validation borrows an idle
+ * Validator and returns it, reset, afterwards. Documents are validated in
+ * place, through a DOMSource, without being serialized first.
+ * <p>
+ * Instances are obtained from <code>XmlSchemaCache</code> and are safe to share
+ * between threads.
+ */
+public class XmlSchema
+{
+    /**
+     * The maximum number of idle Validators kept for reuse.
+     */
+    private static final int MAXIMUM_IDLE_VALIDATORS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Fails validation on the first error; it holds no state, so it is shared.
+     */
+    private static final XmlDocument.ErrorHandler sErrorHandler = new XmlDocument.ErrorHandler();
+
+    /**
+     * The key the schema is cached under.
+     */
+    private final String mKey;
+
+    /**
+     * The compiled schema.
+     */
+    private final Schema mSchema;
+
+    /**
+     * The Validators that are waiting to be reused.
+     */
+    private final ConcurrentLinkedQueue<Validator> mIdleValidators = new ConcurrentLinkedQueue<Validator>();
+
+    /**
+     * The number of Validators in mIdleValidators; tracked separately since counting the queue is not constant time.
+     */
+    private final AtomicInteger mIdleCount = new AtomicInteger();
+
+    /**
+     * The provider whose parsers validate against this schema; created on first use.
+     */
+    private volatile DocumentBuilderProvider mDocumentBuilderProvider;
+
+    /**
+     * The components of the schema, or null if they are not available; read on
+     * first use. Guarded by this schema.
+     */
+    private XSModel mModel;
+
+    /**
+     * Whether mModel has been read. Guarded by this schema.
+     */
+    private boolean mModelLoaded;
+
+    /**
+     *
+     * @param key The key the schema is cached under.
+     * @param schema The compiled schema.
+     */
+    XmlSchema(String key, Schema schema)
+    {
+        mKey = key;
+        mSchema = schema;
+    }
+
+    /**
+     *
+     * @return The key the schema is cached under: its location, or a hash of its content.
+     */
+    public String getKey()
+    {
+        return mKey;
+    }
+
+    /**
+     *
+     * @return The compiled schema.
+     */
+    public Schema getSchema()
+    {
+        return mSchema;
+    }
+
+    /**
+     * Returns a provider whose parsers validate each document against this
+     * schema while parsing it.
+     *
+     * @return The validating provider.
+     * @throws XmlDocumentCheckedException If the parser cannot be configured.
+     */
+    public DocumentBuilderProvider getDocumentBuilderProvider() throws XmlDocumentCheckedException
+    {
+        DocumentBuilderProvider provider = mDocumentBuilderProvider;
+
+        if (provider == null)
+        {
+            synchronized (this)
+            {
+                provider = mDocumentBuilderProvider;
+
+                if (provider == null)
+                {
+                    provider = new DocumentBuilderProvider(this);
+                    mDocumentBuilderProvider = provider;
+                }
+            }
+        }
+
+        return provider;
+    }
+
+    /**
+     * Validates the element and its descendants.
+     *
+     * @param element The element, or document, to validate.
+     * @throws XmlDocumentCheckedException If the element is not valid.
+     */
+    public void validate(IXmlElement element) throws XmlDocumentCheckedException
+    {
+        validate(element.getRootNode());
+    }
+
+    /**
+     * Validates the node, which may be a document or an element, in place.
+     *
+     * @param node The node to validate.
+     * @throws XmlDocumentCheckedException If the node is not valid.
+     */
+    public void validate(Node node) throws XmlDocumentCheckedException
+    {
+        Document document = node.getNodeType() == Node.DOCUMENT_NODE ? (Document) node : node.getOwnerDocument();
+
+        // Validation only reads the tree, so it may run alongside other readers.
+        XmlDocumentContext.get(document).ensureExpanded();
+
+        validate(new DOMSource(node));
+    }
+
+    /**
+     * Validates the source.
+     *
+     * @param source The source of the XML to validate.
+     * @throws XmlDocumentCheckedException If the source is not valid.
+     */
+    public void validate(Source source) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".validate(Source)";
+
+        Validator validator = borrowValidator();
+
+        try
+        {
+            validator.validate(source);
+        }
+        catch (SAXException e)
+        {
+            throw createValidationException(e, debugString);
+        }
+        catch (IOException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+        finally
+        {
+            releaseValidator(validator);
+        }
+    }
+
+    /**
+     * Finds the nearest of the element and its ancestors whose declaration in
+     * the document is the schema's global declaration of its name. Validating
+     * that element on its own checks its subtree against the same declarations
+     * validating the whole document does; an element declared locally, inside
+     * its parent's type, would instead be checked against a global declaration
+     * of the same name, if there is one.
+     *
+     * @param element An element in a document.
+     * @return The element or ancestor, or null if the declarations cannot be
+     *         resolved, as for a schema not compiled by Xerces.
+     */
+    Element getGloballyDeclared(Element element)
+    {
+        XSModel model = getModel();
+
+        if (model == null)
+        {
+            return null;
+        }
+
+        List<Element> path = new ArrayList<Element>();
+
+        for (Node node = element; (node != null) && (node.getNodeType() == Node.ELEMENT_NODE); node = node.getParentNode())
+        {
+            path.add(0, (Element) node);
+        }
+
+        Element root = path.get(0);
+
+        if ((root.getParentNode() == null) || (root.getParentNode().getNodeType() != Node.DOCUMENT_NODE))
+        {
+            return null;
+        }
+
+        XSElementDeclaration declaration = model.getElementDeclaration(getLocalName(root), root.getNamespaceURI());
+
+        if (declaration == null)
+        {
+            return null;
+        }
+
+        Element globallyDeclared = root;
+
+        for (int i = 1; i < path.size(); i++)
+        {
+            Element parent = path.get(i - 1);
+            Element child = path.get(i);
+
+            // A type given in the instance replaces the declared one.
+            if (parent.hasAttributeNS(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type"))
+            {
+                break;
+            }
+
+            declaration = getChildDeclaration(model, declaration.getTypeDefinition(), child);
+
+            if (declaration == null)
+            {
+                break;
+            }
+
+            if (declaration.getScope() == XSConstants.SCOPE_GLOBAL)
+            {
+                globallyDeclared = child;
+            }
+        }
+
+        return globallyDeclared;
+    }
+
+    /**
+     *
+     * @return The number of Validators waiting to be reused.
+     */
+    public int getIdleValidatorCount()
+    {
+        return mIdleCount.get();
+    }
+
+    /**
+     *
+     * @return An idle Validator, or a new one if none is idle.
+     */
+    private Validator borrowValidator()
+    {
+        Validator validator = mIdleValidators.poll();
+
+        if (validator == null)
+        {
+            validator = mSchema.newValidator();
+        }
+        else
+        {
+            mIdleCount.decrementAndGet();
+        }
+
+        validator.setErrorHandler(sErrorHandler);
+
+        return validator;
+    }
+
+    /**
+     *
+     * @param validator A Validator obtained from <code>borrowValidator()</code>.
+     */
+    private void releaseValidator(Validator validator)
+    {
+        validator.reset();
+
+        if (mIdleCount.incrementAndGet() <= MAXIMUM_IDLE_VALIDATORS)
+        {
+            mIdleValidators.offer(validator);
+        }
+        else
+        {
+            mIdleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     *
+     * @return The components of the schema, or null if it was not compiled by Xerces.
+     */
+    private synchronized XSModel getModel()
+    {
+        if (!mModelLoaded)
+        {
+            mModelLoaded = true;
+
+            if (mSchema instanceof XSGrammarPoolContainer)
+            {
+                XMLGrammarPool pool = ((XSGrammarPoolContainer) mSchema).getGrammarPool();
+                Grammar[] grammars = pool.retrieveInitialGrammarSet(XMLGrammarDescription.XML_SCHEMA);
+
+                if (grammars.length > 0)
+                {
+                    XSGrammar[] schemaGrammars = new XSGrammar[grammars.length];
+                    System.arraycopy(grammars, 0, schemaGrammars, 0, grammars.length);
+
+                    mModel = schemaGrammars[0].toXSModel(schemaGrammars);
+                }
+            }
+        }
+
+        return mModel;
+    }
+
+    /**
+     * Finds the declaration the parent's type gives a child element. A name
+     * declared more than once in the type counts as declared locally unless
+     * every declaration is the global one.
+     *
+     * @param model The components of the schema.
+     * @param type The parent's type.
+     * @param child The child element.
+     * @return The child's declaration, or null if it is not declared by name.
+     */
+    private static XSElementDeclaration getChildDeclaration(XSModel model, XSTypeDefinition type, Element child)
+    {
+        if ((type == null) || (type.getTypeCategory() != XSTypeDefinition.COMPLEX_TYPE))
+        {
+            return null;
+        }
+
+        XSParticle particle = ((XSComplexTypeDefinition) type).getParticle();
+
+        if (particle == null)
+        {
+            return null;
+        }
+
+        String name = getLocalName(child);
+        String namespace = child.getNamespaceURI();
+        XSElementDeclaration global = model.getElementDeclaration(name, namespace);
+
+        List<XSElementDeclaration> declarations = new ArrayList<XSElementDeclaration>();
+        collectDeclarations(particle.getTerm(), name, namespace, global, declarations);
+
+        if (declarations.isEmpty())
+        {
+            return null;
+        }
+
+        for (XSElementDeclaration declaration : declarations)
+        {
+            if (declaration != global)
+            {
+                return declaration;
+            }
+        }
+
+        return global;
+    }
+
+    /**
+     *
+     * @param term A term of a content model.
+     * @param name The child's local name.
+     * @param namespace The child's namespace, or null.
+     * @param global The global declaration of the child's name, or null.
+     * @param declarations Receives the declarations in the term that match the
+     *        child, directly or through the global declaration's substitution group.
+     */
+    private static void collectDeclarations(XSTerm term, String name, String namespace, XSElementDeclaration global, List<XSElementDeclaration> declarations)
+    {
+        if (term instanceof XSElementDeclaration)
+        {
+            XSElementDeclaration declaration = (XSElementDeclaration) term;
+
+            if (name.equals(declaration.getName()) && isSameNamespace(namespace, declaration.getNamespace()))
+            {
+                declarations.add(declaration);
+            }
+            else if (global != null)
+            {
+                for (XSElementDeclaration head = global.getSubstitutionGroupAffiliation(); head != null; head = head.getSubstitutionGroupAffiliation())
+                {
+                    if (head == declaration)
+                    {
+                        declarations.add(global);
+                        break;
+                    }
+                }
+            }
+        }
+        else if (term instanceof XSModelGroup)
+        {
+            XSObjectList particles = ((XSModelGroup) term).getParticles();
+
+            for (int i = 0; i < particles.getLength(); i++)
+            {
+                collectDeclarations(((XSParticle) particles.item(i)).getTerm(), name, namespace, global, declarations);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param element An element.
+     * @return The element's local name, or its whole name if it was created without namespace support.
+     */
+    private static String getLocalName(Element element)
+    {
+        return (element.getLocalName() != null) ? element.getLocalName() : element.getNodeName();
+    }
+
+    /**
+     *
+     * @param namespace A namespace, or null.
+     * @param other Another namespace, or null.
+     * @return Whether they are the same namespace; an empty namespace is no namespace.
+     */
+    private static boolean isSameNamespace(String namespace, String other)
+    {
+        return ((namespace == null) || namespace.isEmpty()) ? ((other == null) || other.isEmpty()) : namespace.equals(other);
+    }
+
+    /**
+     * Creates the exception reported for an invalid document, naming the first
+     * error and where it was found.
+     *
+     * @param e The exception raised by the parser or validator.
+     * @param debugString The debug information.
+     * @return The exception.
+     */
+    static XmlDocumentCheckedException createValidationException(SAXException e, String debugString)
+    {
+        Throwable cause = getErrorCause(e);
+
+        return new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.VALIDATION_FAILED, describeError(cause), debugString, cause);
+    }
+
+    /**
+     *
+     * @param e The exception raised by the parser or validator.
+     * @return The parse exception the error handler wrapped, or the exception itself.
+     */
+    static Throwable getErrorCause(Exception e)
+    {
+        if ((e instanceof SAXException) && (((SAXException) e).getException() instanceof SAXParseException))
+        {
+            return ((SAXException) e).getException();
+        }
+
+        return e;
+    }
+
+    /**
+     *
+     * @param cause The error.
+     * @return The error's message, prefixed with where it was found when known.
+     */
+    static String describeError(Throwable cause)
+    {
+        String message = cause.getMessage();
+
+        if (cause instanceof SAXParseException)
+        {
+            SAXParseException parseException = (SAXParseException) cause;
+
+            if (parseException.getLineNumber() > 0)
+            {
+                message = "line " + parseException.getLineNumber() + ", column " + parseException.getColumnNumber() + ": " + message;
+            }
+        }
+
+        return message;
+    }
+}
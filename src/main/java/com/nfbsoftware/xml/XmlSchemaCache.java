@@ -0,0 +1,297 @@
+package com.nfbsoftware.xml;
+
+import java.io.File;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.xml.sax.SAXException;
+
+import com.nfbsoftware.util.LruCache;
+import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+
+/**
+ * The process wide cache of compiled W3C XML Schemas.
+ * <p>
+ * Compiling a schema is far more expensive than validating a typical document
+ * against it, so schemas are compiled once and kept, keyed by their location or,
+ * for schemas given as text, by a hash of their content. The cache holds at most
+ * <code>getMaximumSize()</code> schemas and evicts the least recently used one
+ * when full.
+ */
+public final class XmlSchemaCache
+{
+    /**
+     * The default maximum number of cached schemas.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 100;
+
+    /**
+     * The key of the schema that follows each document's schema location hints.
+     */
+    private static final String HINTED_SCHEMA_KEY = "hints:";
+
+    /** */
+    private static final LruCache<String, XmlSchema> sCache = new LruCache<String, XmlSchema>(DEFAULT_MAXIMUM_SIZE);
+
+    /**
+     * The factory used to compile schemas. Access is synchronized since factories are not thread safe.
+     */
+    private static SchemaFactory sSchemaFactory;
+
+    /**
+     * Static access only.
+     */
+    private XmlSchemaCache()
+    {
+    }
+
+    /**
+     * Returns the compiled schema at the location, compiling it on first use.
+     *
+     * @param location The location of the schema.
+     * @return The compiled schema.
+     * @throws XmlDocumentCheckedException If the schema cannot be read or is invalid.
+     */
+    public static XmlSchema getSchema(URL location) throws XmlDocumentCheckedException
+    {
+        final String debugString = XmlSchemaCache.class.getName() + ".getSchema(URL)";
+
+        String key = location.toExternalForm();
+
+        XmlSchema schema = sCache.get(key);
+
+        if (schema == null)
+        {
+            try
+            {
+                schema = sCache.put(key, new XmlSchema(key, compile(new StreamSource(key))));
+            }
+            catch (SAXException e)
+            {
+                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+            }
+        }
+
+        return schema;
+    }
+
+    /**
+     * Returns the compiled schema in the file, compiling it on first use.
+     *
+     * @param file The schema file.
+     * @return The compiled schema.
+     * @throws XmlDocumentCheckedException If the schema cannot be read or is invalid.
+     */
+    public static XmlSchema getSchema(File file) throws XmlDocumentCheckedException
+    {
+        final String debugString = XmlSchemaCache.class.getName() + ".getSchema(File)";
+
+        try
+        {
+            return getSchema(file.toURI().toURL());
+        }
+        catch (MalformedURLException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+    }
+
+    /**
+     * Returns the compiled form of the schema text, compiling it on first use.
+     * Schemas are keyed by a hash of their content, so the same text always
+     * returns the same compiled schema.
+     *
+     * @param content The text of the schema.
+     * @return The compiled schema.
+     * @throws XmlDocumentCheckedException If the schema is invalid.
+     */
+    public static XmlSchema getSchemaFromContent(String content) throws XmlDocumentCheckedException
+    {
+        final String debugString = XmlSchemaCache.class.getName() + ".getSchemaFromContent(String)";
+
+        String key = "sha-256:" + hash(content);
+
+        XmlSchema schema = sCache.get(key);
+
+        if (schema == null)
+        {
+            try
+            {
+                schema = sCache.put(key, new XmlSchema(key, compile(new StreamSource(new StringReader(content)))));
+            }
+            catch (SAXException e)
+            {
+                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+            }
+        }
+
+        return schema;
+    }
+
+    /**
+     * Returns the schema that validates each document against the schemas named
+     * by its <code>xsi:schemaLocation</code> and <code>xsi:noNamespaceSchemaLocation</code>
+     * hints. The schemas the hints name are loaded and cached by the parser.
+     *
+     * @return The hint based schema.
+     * @throws XmlDocumentCheckedException If the schema cannot be created.
+     */
+    public static XmlSchema getHintedSchema() throws XmlDocumentCheckedException
+    {
+        final String debugString = XmlSchemaCache.class.getName() + ".getHintedSchema()";
+
+        XmlSchema schema = sCache.get(HINTED_SCHEMA_KEY);
+
+        if (schema == null)
+        {
+            try
+            {
+                Schema hinted;
+
+                synchronized (XmlSchemaCache.class)
+                {
+                    hinted = getSchemaFactory().newSchema();
+                }
+
+                schema = sCache.put(HINTED_SCHEMA_KEY, new XmlSchema(HINTED_SCHEMA_KEY, hinted));
+            }
+            catch (SAXException e)
+            {
+                throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+            }
+        }
+
+        return schema;
+    }
+
+    /**
+     *
+     * @return The number of lookups that found a compiled schema.
+     */
+    public static long getHitCount()
+    {
+        return sCache.getHitCount();
+    }
+
+    /**
+     *
+     * @return The number of lookups that had to compile the schema.
+     */
+    public static long getMissCount()
+    {
+        return sCache.getMissCount();
+    }
+
+    /**
+     *
+     * @return The number of schemas evicted to respect the maximum size.
+     */
+    public static long getEvictionCount()
+    {
+        return sCache.getEvictionCount();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counts to zero.
+     */
+    public static void resetStatistics()
+    {
+        sCache.resetStatistics();
+    }
+
+    /**
+     *
+     * @return The number of cached schemas.
+     */
+    public static int size()
+    {
+        return sCache.size();
+    }
+
+    /**
+     *
+     * @return The maximum number of cached schemas.
+     */
+    public static int getMaximumSize()
+    {
+        return sCache.getMaximumSize();
+    }
+
+    /**
+     *
+     * @param maximumSize The maximum number of cached schemas; must be at least 1.
+     */
+    public static void setMaximumSize(int maximumSize)
+    {
+        sCache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Removes all cached schemas.
+     */
+    public static void clear()
+    {
+        sCache.clear();
+    }
+
+    /**
+     *
+     * @param source The schema source.
+     * @return The compiled schema.
+     * @throws SAXException If the schema cannot be read or is invalid.
+     */
+    private static synchronized Schema compile(StreamSource source) throws SAXException
+    {
+        return getSchemaFactory().newSchema(source);
+    }
+
+    /**
+     *
+     * @return The schema factory; callers must hold the class lock.
+     */
+    private static SchemaFactory getSchemaFactory()
+    {
+        if (sSchemaFactory == null)
+        {
+            sSchemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        }
+
+        return sSchemaFactory;
+    }
+
+    /**
+     *
+     * @param content The text to hash.
+     * @return The hex encoded SHA-256 hash of the text.
+     */
+    private static String hash(String content)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest)
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
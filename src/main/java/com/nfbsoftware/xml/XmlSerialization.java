@@ -0,0 +1,165 @@
+package com.nfbsoftware.xml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A serialization of a document or element to UTF-8 that is written a buffer
+ * at a time, for NIO targets. Each call writes as much as the ByteBuffer or
+ * channel accepts and returns whether the serialization is complete; when it
+ * is not, the call is repeated, with a drained buffer or a writable channel,
+ * and carries on where the last one stopped.
+ * <p>
+ * The XML is produced a few kilobytes at a time, so neither the serialized
+ * document nor any large part of it is ever held in memory. The node must not
+ * be changed until the serialization is complete. A serialization is used by
+ * one thread at a time.
+ */
+public class XmlSerialization
+{
+    /**
+     * The number of bytes produced at a time.
+     */
+    private static final int BATCH_SIZE = Utf8XmlSink.BUFFER_SIZE / 2;
+
+    /**
+     * Walks the node, producing the XML.
+     */
+    private final XmlSerializer.Cursor mCursor;
+
+    /**
+     * Holds the bytes produced but not yet written.
+     */
+    private final Utf8XmlSink mPending = new Utf8XmlSink();
+
+    /**
+     * The number of pending bytes already written.
+     */
+    private int mPendingOffset;
+
+    /**
+     * Whether the cursor has produced the whole of the XML.
+     */
+    private boolean mProduced;
+
+    /** */
+    private long mBytesWritten;
+
+    /**
+     *
+     * @param cursor Walks the node, producing the XML.
+     */
+    XmlSerialization(XmlSerializer.Cursor cursor)
+    {
+        mCursor = cursor;
+    }
+
+    /**
+     * Writes as much of the XML as fits in the buffer's remaining space.
+     * Heap, direct and mapped buffers may be used.
+     *
+     * @param buffer The buffer to write to.
+     * @return Whether the serialization is complete.
+     * @throws IOException If the node cannot be serialized.
+     */
+    public boolean writeTo(ByteBuffer buffer) throws IOException
+    {
+        while (true)
+        {
+            int pending = mPending.size() - mPendingOffset;
+
+            if (pending > 0)
+            {
+                int count = Math.min(pending, buffer.remaining());
+
+                buffer.put(mPending.getBuffer(), mPendingOffset, count);
+                mPendingOffset += count;
+                mBytesWritten += count;
+
+                if (count < pending)
+                {
+                    return false;
+                }
+            }
+
+            if (!produce())
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Writes as much of the XML as the channel accepts. A blocking channel,
+     * such as a FileChannel, accepts everything; a non-blocking channel may
+     * accept only part, in which case the call is repeated once the channel is
+     * writable again.
+     *
+     * @param channel The channel to write to.
+     * @return Whether the serialization is complete.
+     * @throws IOException If the channel cannot be written to.
+     */
+    public boolean writeTo(WritableByteChannel channel) throws IOException
+    {
+        while (true)
+        {
+            int pending = mPending.size() - mPendingOffset;
+
+            if (pending > 0)
+            {
+                int count = channel.write(ByteBuffer.wrap(mPending.getBuffer(), mPendingOffset, pending));
+
+                mPendingOffset += count;
+                mBytesWritten += count;
+
+                if (count < pending)
+                {
+                    return false;
+                }
+            }
+
+            if (!produce())
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     *
+     * @return Whether the whole of the XML has been written.
+     */
+    public boolean isComplete()
+    {
+        return mProduced && (mPendingOffset == mPending.size());
+    }
+
+    /**
+     *
+     * @return The number of bytes written so far.
+     */
+    public long getBytesWritten()
+    {
+        return mBytesWritten;
+    }
+
+    /**
+     * Produces the next batch of bytes, once the pending ones have all been written.
+     *
+     * @return Whether any bytes were produced.
+     * @throws IOException If the node cannot be serialized.
+     */
+    private boolean produce() throws IOException
+    {
+        mPending.reset();
+        mPendingOffset = 0;
+
+        while (!mProduced && (mPending.size() < BATCH_SIZE))
+        {
+            mProduced = !mCursor.advance(mPending);
+        }
+
+        return mPending.size() > 0;
+    }
+}
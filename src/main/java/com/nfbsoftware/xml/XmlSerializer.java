@@ -0,0 +1,1100 @@
+package com.nfbsoftware.xml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writes a DOM document or element as XML, encoded as UTF-8.
+ * <p>
+ * The tree is walked iteratively, so deeply nested documents cannot overflow
+ * the stack, and text is escaped by copying the runs between the characters
+ * that need escaping rather than character by character. Byte output is
+ * encoded straight into a buffer that is written to the stream when full.
+ * <p>
+ * A serializer holds only its settings, so one instance may be shared by any
+ * number of threads.
+ */
+public class XmlSerializer
+{
+    /**
+     * The replacement for each character up to '&gt;' that must be escaped in text.
+     */
+    private static final String[] TEXT_ESCAPES = new String['>' + 1];
+
+    /**
+     * The replacement for each character up to '&gt;' that must be escaped in an attribute value.
+     */
+    private static final String[] ATTRIBUTE_ESCAPES = new String['>' + 1];
+
+    /**
+     * The number of ranges the children are split into for each thread of a
+     * parallel serialization, so that uneven ranges still balance out.
+     */
+    private static final int RANGES_PER_THREAD = 8;
+
+    static
+    {
+        for (char c = 0; c < 0x20; c++)
+        {
+            String reference = "&#x" + Integer.toHexString(c) + ";";
+
+            ATTRIBUTE_ESCAPES[c] = reference;
+
+            if ((c != '\t') && (c != '\n'))
+            {
+                TEXT_ESCAPES[c] = reference;
+            }
+        }
+
+        TEXT_ESCAPES['&'] = "&amp;";
+        TEXT_ESCAPES['<'] = "&lt;";
+        TEXT_ESCAPES['>'] = "&gt;";
+
+        ATTRIBUTE_ESCAPES['&'] = "&amp;";
+        ATTRIBUTE_ESCAPES['<'] = "&lt;";
+        ATTRIBUTE_ESCAPES['"'] = "&quot;";
+    }
+
+    /**
+     * How markup is indented, or null to write it as it is.
+     */
+    private volatile IXmlIndenter mIndenter;
+
+    /**
+     * Whether the XML declaration is left out.
+     */
+    private volatile boolean mOmitXmlDeclaration;
+
+    /**
+     * Creates a serializer that writes markup without adding indentation.
+     */
+    public XmlSerializer()
+    {
+    }
+
+    /**
+     *
+     * @param indenter How markup is indented, or null to write it as it is.
+     */
+    public XmlSerializer(IXmlIndenter indenter)
+    {
+        mIndenter = indenter;
+    }
+
+    /**
+     *
+     * @return How markup is indented, or null if it is written as it is.
+     */
+    public IXmlIndenter getIndenter()
+    {
+        return mIndenter;
+    }
+
+    /**
+     *
+     * @param indenter How markup is indented, or null to write it as it is.
+     */
+    public void setIndenter(IXmlIndenter indenter)
+    {
+        mIndenter = indenter;
+    }
+
+    /**
+     *
+     * @return Whether the XML declaration is left out.
+     */
+    public boolean isOmitXmlDeclaration()
+    {
+        return mOmitXmlDeclaration;
+    }
+
+    /**
+     *
+     * @param omitXmlDeclaration Whether the XML declaration is left out.
+     */
+    public void setOmitXmlDeclaration(boolean omitXmlDeclaration)
+    {
+        mOmitXmlDeclaration = omitXmlDeclaration;
+    }
+
+    /**
+     * Writes the node as UTF-8. The stream is flushed but not closed.
+     *
+     * @param node The document or element to write.
+     * @param output The stream to write to; it needs no buffering of its own.
+     * @throws IOException If the stream cannot be written to.
+     */
+    public void serialize(Node node, OutputStream output) throws IOException
+    {
+        XmlSink sink = new Utf8XmlSink(output);
+
+        serialize(node, sink);
+
+        sink.flush();
+    }
+
+    /**
+     * Writes the node. The Writer is flushed but not closed.
+     *
+     * @param node The document or element to write.
+     * @param writer The Writer to write to; it needs no buffering of its own.
+     * @throws IOException If the Writer cannot be written to.
+     */
+    public void serialize(Node node, Writer writer) throws IOException
+    {
+        XmlSink sink = new CharXmlSink(writer);
+
+        serialize(node, sink);
+
+        sink.flush();
+    }
+
+    /**
+     *
+     * @param node The document or element to write.
+     * @param sizeHint The expected length of the XML, used to size the buffer.
+     * @return The XML.
+     */
+    public String serializeToString(Node node, int sizeHint)
+    {
+        CharXmlSink sink = new CharXmlSink(Math.max(16, sizeHint));
+
+        try
+        {
+            serialize(node, sink);
+        }
+        catch (IOException e)
+        {
+            // Only thrown by the targets of other sinks.
+            throw new IllegalStateException(e);
+        }
+
+        return sink.toString();
+    }
+
+    /**
+     * Writes the node as UTF-8, serializing the children of the document
+     * element, or of the element, in parallel on the pool. The children are
+     * split into ranges, each serialized into its own buffer by a task, and
+     * the buffers are written to the stream in order, so the bytes written are
+     * the same as those of <code>serialize(Node, OutputStream)</code>. Only a
+     * few ranges per thread are held in memory at once. The stream is flushed
+     * but not closed.
+     *
+     * @param node The document or element to write.
+     * @param output The stream to write to; it needs no buffering of its own.
+     * @param pool The pool the ranges are serialized on.
+     * @throws IOException If the stream cannot be written to.
+     */
+    public void serialize(Node node, OutputStream output, ForkJoinPool pool) throws IOException
+    {
+        Document document = (node.getNodeType() == Node.DOCUMENT_NODE) ? (Document) node : node.getOwnerDocument();
+        Node parent = (node.getNodeType() == Node.DOCUMENT_NODE) ? document.getDocumentElement() : node;
+
+        if ((parent == null) || (parent.getNodeType() != Node.ELEMENT_NODE) || (parent.getFirstChild() == null) || (pool.getParallelism() < 2))
+        {
+            serialize(node, output);
+            return;
+        }
+
+        // The subtrees are read from several threads at once.
+        XmlDocumentContext.get(document).ensureExpanded();
+
+        final IXmlIndenter indenter = mIndenter;
+        Utf8XmlSink sink = new Utf8XmlSink(output);
+
+        // Everything up to the element's children.
+        Cursor cursor = new Cursor(node, indenter, !mOmitXmlDeclaration);
+
+        Node firstChild = parent.getFirstChild();
+
+        while (cursor.getNode() != firstChild)
+        {
+            if (!cursor.advance(sink))
+            {
+                // The element was unchanged, and copied from the source as a whole.
+                sink.flush();
+                return;
+            }
+        }
+
+        final int depth = cursor.getChildDepth();
+        final boolean indented = cursor.isIndentingChildren();
+
+        // The first child of each range.
+        List<Node> starts = new ArrayList<Node>();
+
+        int childCount = parent.getChildNodes().getLength();
+        int rangeSize = Math.max(1, childCount / (pool.getParallelism() * RANGES_PER_THREAD));
+        int index = 0;
+
+        for (Node child = firstChild; child != null; child = child.getNextSibling())
+        {
+            if (index++ % rangeSize == 0)
+            {
+                starts.add(child);
+            }
+        }
+
+        ArrayDeque<ForkJoinTask<Utf8XmlSink>> tasks = new ArrayDeque<ForkJoinTask<Utf8XmlSink>>();
+        int window = pool.getParallelism() * 2;
+        int submitted = 0;
+
+        try
+        {
+            for (int i = 0; i < starts.size(); i++)
+            {
+                while ((submitted < starts.size()) && (submitted < i + window))
+                {
+                    final Node first = starts.get(submitted);
+                    final Node end = (submitted + 1 < starts.size()) ? starts.get(submitted + 1) : null;
+
+                    tasks.add(pool.submit(new Callable<Utf8XmlSink>()
+                    {
+                        @Override
+                        public Utf8XmlSink call() throws IOException
+                        {
+                            Utf8XmlSink part = new Utf8XmlSink();
+                            Cursor range = new Cursor(first, end, indenter, depth, indented);
+
+                            while (range.advance(part))
+                            {
+                            }
+
+                            return part;
+                        }
+                    }));
+
+                    submitted++;
+                }
+
+                Utf8XmlSink part = tasks.poll().get();
+
+                sink.write(part.getBuffer(), 0, part.size());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException e)
+        {
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        finally
+        {
+            for (ForkJoinTask<Utf8XmlSink> task : tasks)
+            {
+                task.cancel(false);
+            }
+        }
+
+        // The element's end tag and everything after it.
+        cursor.skipChildren();
+
+        while (cursor.advance(sink))
+        {
+        }
+
+        sink.flush();
+    }
+
+    /**
+     * Starts a serialization of the node that is written a buffer at a time,
+     * for targets such as ByteBuffers and non-blocking channels. The node
+     * must not be changed until the serialization is complete.
+     *
+     * @param node The document or element to write.
+     * @return The serialization.
+     */
+    public XmlSerialization createSerialization(Node node)
+    {
+        return new XmlSerialization(new Cursor(node, mIndenter, !mOmitXmlDeclaration));
+    }
+
+    /**
+     * Writes the node to the sink, without flushing it.
+     *
+     * @param node The document or element to write.
+     * @param sink The sink to write to.
+     * @throws IOException If the sink cannot be written to.
+     */
+    void serialize(Node node, XmlSink sink) throws IOException
+    {
+        Cursor cursor = new Cursor(node, mIndenter, !mOmitXmlDeclaration);
+
+        while (cursor.advance(sink))
+        {
+        }
+    }
+
+    /**
+     * Walks a node's subtree, writing it a piece at a time: the start or end
+     * tag of an element, or one node, or a chunk of a long text node. The walk
+     * can stop between any two pieces and carry on later.
+     */
+    static final class Cursor
+    {
+        /**
+         * The most characters of a text node written as one piece.
+         */
+        private static final int TEXT_CHUNK = 4096;
+
+        /**
+         * The node whose subtree is written.
+         */
+        private final Node mRoot;
+
+        /**
+         * How markup is indented, or null to write it as it is.
+         */
+        private final IXmlIndenter mIndenter;
+
+        /**
+         * The nesting depth of mRoot; -1 for a document, so that its document element is at depth 0.
+         */
+        private final int mDepth;
+
+        /**
+         * Whether namespace declarations made above mRoot are repeated on it.
+         */
+        private boolean mInheritNamespaces;
+
+        /**
+         * The XML declaration, until it is written.
+         */
+        private String mDeclaration;
+
+        /**
+         * The next node to write, or null when the walk is complete.
+         */
+        private Node mNode;
+
+        /**
+         * Whether the children of each open node are indented.
+         */
+        private boolean[] mIndented = new boolean[16];
+
+        /**
+         * The number of open nodes.
+         */
+        private int mLevel;
+
+        /**
+         * How much of the current text node has been written, when it is written in chunks.
+         */
+        private int mTextOffset;
+
+        /**
+         * Whether the cursor writes a range of siblings rather than a subtree.
+         */
+        private boolean mRange;
+
+        /**
+         * The sibling after the last one in the range, or null for all that follow.
+         */
+        private Node mRangeEnd;
+
+        /**
+         * Whether mNode has been written elsewhere and is to be passed over.
+         */
+        private boolean mSkip;
+
+        /**
+         * The text the document was loaded from, when unchanged elements are
+         * copied from it rather than serialized; null otherwise.
+         */
+        private final XmlSource mSource;
+
+        /**
+         * How much of the current element's source has been copied, when it is copied in chunks.
+         */
+        private int mSourceOffset;
+
+        /**
+         * The end of the current element's source, or 0 when none is being copied.
+         */
+        private int mSourceEnd;
+
+        /**
+         *
+         * @param root The document or element to write.
+         * @param indenter How markup is indented, or null to write it as it is.
+         * @param declaration Whether the XML declaration is written first.
+         */
+        Cursor(Node root, IXmlIndenter indenter, boolean declaration)
+        {
+            this(root, indenter, (root.getNodeType() == Node.DOCUMENT_NODE) ? -1 : 0);
+
+            mInheritNamespaces = true;
+
+            if (declaration)
+            {
+                Document document = (root.getNodeType() == Node.DOCUMENT_NODE) ? (Document) root : root.getOwnerDocument();
+                String version = (document != null) ? document.getXmlVersion() : null;
+
+                mDeclaration = "<?xml version=\"" + ((version != null) ? version : "1.0") + "\" encoding=\"UTF-8\"?>\n";
+            }
+        }
+
+        /**
+         * Creates a cursor for a subtree within a larger serialization.
+         *
+         * @param root The node to write.
+         * @param indenter How markup is indented, or null to write it as it is.
+         * @param depth The nesting depth of the node.
+         */
+        Cursor(Node root, IXmlIndenter indenter, int depth)
+        {
+            mRoot = root;
+            mIndenter = indenter;
+            mDepth = depth;
+            mNode = root;
+
+            // The source's own layout would not match the indentation.
+            mSource = (indenter == null) ? getSource(root) : null;
+        }
+
+        /**
+         * Creates a cursor for a range of siblings, written as they would be
+         * within their parent's content.
+         *
+         * @param first The first sibling in the range.
+         * @param end The sibling after the last one in the range, or null for all that follow.
+         * @param indenter How markup is indented, or null to write it as it is.
+         * @param depth The nesting depth of the siblings.
+         * @param indented Whether the parent's children are indented.
+         */
+        Cursor(Node first, Node end, IXmlIndenter indenter, int depth, boolean indented)
+        {
+            this(first, indenter, depth - 1);
+
+            mRange = true;
+            mRangeEnd = end;
+            mIndented[0] = indented;
+            mLevel = 1;
+        }
+
+        /**
+         *
+         * @return The next node to write, or null when the walk is complete.
+         */
+        Node getNode()
+        {
+            return mNode;
+        }
+
+        /**
+         *
+         * @return The nesting depth of the children of the element the cursor is in.
+         */
+        int getChildDepth()
+        {
+            return mDepth + mLevel;
+        }
+
+        /**
+         *
+         * @return Whether the children of the element the cursor is in are indented.
+         */
+        boolean isIndentingChildren()
+        {
+            return mIndented[mLevel - 1];
+        }
+
+        /**
+         * Passes over the remaining children of the element the cursor is in,
+         * which are written elsewhere; the next piece is the element's end tag.
+         */
+        void skipChildren()
+        {
+            mNode = mNode.getParentNode().getLastChild();
+            mTextOffset = 0;
+            mSourceEnd = 0;
+            mSkip = true;
+        }
+
+        /**
+         * Writes the next piece.
+         *
+         * @param sink The sink to write to.
+         * @return Whether anything remains to be written.
+         * @throws IOException If the sink cannot be written to.
+         */
+        boolean advance(XmlSink sink) throws IOException
+        {
+            Node node = mNode;
+
+            if (node == null)
+            {
+                return false;
+            }
+
+            if (mDeclaration != null)
+            {
+                sink.write(mDeclaration);
+                mDeclaration = null;
+            }
+
+            Node firstChild = null;
+            boolean indentChildren = false;
+
+            if (mSkip)
+            {
+                mSkip = false;
+            }
+            else if (mTextOffset > 0)
+            {
+                if (writeText(node, sink))
+                {
+                    return true;
+                }
+            }
+            else if (mSourceEnd > 0)
+            {
+                if (copySource(sink))
+                {
+                    return true;
+                }
+            }
+            else if (writeIndent(node, sink))
+            {
+                switch (node.getNodeType())
+                {
+                    case Node.ELEMENT_NODE:
+                        XmlSource.Range range = ((mSource != null) && !(mInheritNamespaces && (node == mRoot))) ? mSource.getRange(node) : null;
+
+                        if (range != null)
+                        {
+                            // Unchanged since it was loaded, so copied as it is.
+                            mSourceOffset = range.getStart();
+                            mSourceEnd = range.getEnd();
+
+                            if (copySource(sink))
+                            {
+                                return true;
+                            }
+                            break;
+                        }
+
+                        writeStartTag((Element) node, sink, mInheritNamespaces && (node == mRoot));
+
+                        firstChild = node.getFirstChild();
+
+                        if (firstChild == null)
+                        {
+                            sink.write("/>");
+                        }
+                        else
+                        {
+                            sink.write('>');
+                            indentChildren = (mIndenter != null) && isElementContent(node);
+                        }
+                        break;
+
+                    case Node.TEXT_NODE:
+                        if (writeText(node, sink))
+                        {
+                            return true;
+                        }
+                        break;
+
+                    case Node.CDATA_SECTION_NODE:
+                        writeCDataSection(node.getNodeValue(), sink);
+                        break;
+
+                    case Node.COMMENT_NODE:
+                        sink.write("<!--");
+                        sink.write(node.getNodeValue());
+                        sink.write("-->");
+                        break;
+
+                    case Node.PROCESSING_INSTRUCTION_NODE:
+                        sink.write("<?");
+                        sink.write(node.getNodeName());
+
+                        String data = node.getNodeValue();
+
+                        if ((data != null) && (data.length() > 0))
+                        {
+                            sink.write(' ');
+                            sink.write(data);
+                        }
+
+                        sink.write("?>");
+                        break;
+
+                    case Node.DOCUMENT_TYPE_NODE:
+                        writeDocumentType((DocumentType) node, sink);
+                        break;
+
+                    case Node.DOCUMENT_NODE:
+                    case Node.ENTITY_REFERENCE_NODE:
+                    case Node.DOCUMENT_FRAGMENT_NODE:
+                        // Written as their content.
+                        firstChild = node.getFirstChild();
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+
+            if (firstChild != null)
+            {
+                if (mLevel == mIndented.length)
+                {
+                    mIndented = Arrays.copyOf(mIndented, mLevel * 2);
+                }
+
+                mIndented[mLevel++] = indentChildren;
+                mNode = firstChild;
+
+                return true;
+            }
+
+            // Move to the next node, closing the nodes that have been finished.
+            while (mLevel > 0)
+            {
+                Node next = node.getNextSibling();
+
+                if (mRange && (mLevel == 1))
+                {
+                    if (next == mRangeEnd)
+                    {
+                        break;
+                    }
+
+                    mNode = next;
+
+                    return true;
+                }
+
+                if (next != null)
+                {
+                    mNode = next;
+
+                    return true;
+                }
+
+                node = node.getParentNode();
+                mLevel--;
+
+                if (node.getNodeType() == Node.ELEMENT_NODE)
+                {
+                    if (mIndented[mLevel])
+                    {
+                        sink.write('\n');
+                        sink.write(mIndenter.getIndent(mDepth + mLevel));
+                    }
+
+                    sink.write("</");
+                    sink.write(node.getNodeName());
+                    sink.write('>');
+                }
+                else if ((node.getNodeType() == Node.DOCUMENT_NODE) && (mIndenter != null))
+                {
+                    sink.write('\n');
+                }
+            }
+
+            mNode = null;
+
+            return false;
+        }
+
+        /**
+         * Writes what separates the node from the markup before it.
+         *
+         * @param node The node about to be written.
+         * @param sink The sink to write to.
+         * @return Whether the node is to be written; whitespace replaced by indentation is not.
+         * @throws IOException If the sink cannot be written to.
+         */
+        private boolean writeIndent(Node node, XmlSink sink) throws IOException
+        {
+            if (mLevel == 0)
+            {
+                return true;
+            }
+
+            if ((mLevel == 1) && (mRoot.getNodeType() == Node.DOCUMENT_NODE))
+            {
+                // The document's children are written one to a line.
+                if (node.getPreviousSibling() != null)
+                {
+                    sink.write('\n');
+                }
+
+                return true;
+            }
+
+            if (mIndented[mLevel - 1])
+            {
+                if ((node.getNodeType() == Node.TEXT_NODE) && isWhitespace(node.getNodeValue()))
+                {
+                    return false;
+                }
+
+                sink.write('\n');
+                sink.write(mIndenter.getIndent(mDepth + mLevel));
+            }
+
+            return true;
+        }
+
+        /**
+         * Writes the text node, or its next chunk.
+         *
+         * @param node The text node.
+         * @param sink The sink to write to.
+         * @return Whether more of the text remains to be written.
+         * @throws IOException If the sink cannot be written to.
+         */
+        private boolean writeText(Node node, XmlSink sink) throws IOException
+        {
+            String text = node.getNodeValue();
+            int end = Math.min(text.length(), mTextOffset + TEXT_CHUNK);
+
+            // Keep surrogate pairs together.
+            if ((end < text.length()) && Character.isHighSurrogate(text.charAt(end - 1)))
+            {
+                end--;
+            }
+
+            writeEscaped(text, mTextOffset, end, TEXT_ESCAPES, sink);
+
+            mTextOffset = (end < text.length()) ? end : 0;
+
+            return mTextOffset > 0;
+        }
+
+        /**
+         * Copies the current element's source, or its next chunk.
+         *
+         * @param sink The sink to write to.
+         * @return Whether more of the source remains to be copied.
+         * @throws IOException If the sink cannot be written to.
+         */
+        private boolean copySource(XmlSink sink) throws IOException
+        {
+            String text = mSource.getText();
+            int end = Math.min(mSourceEnd, mSourceOffset + TEXT_CHUNK);
+
+            // Keep surrogate pairs together.
+            if ((end < mSourceEnd) && Character.isHighSurrogate(text.charAt(end - 1)))
+            {
+                end--;
+            }
+
+            sink.write(text, mSourceOffset, end);
+
+            mSourceOffset = end;
+
+            if (end < mSourceEnd)
+            {
+                return true;
+            }
+
+            mSourceEnd = 0;
+
+            return false;
+        }
+
+        /**
+         *
+         * @param node A node in a document.
+         * @return The text the node's document was loaded from, or null if it was not kept.
+         */
+        private static XmlSource getSource(Node node)
+        {
+            Document document = (node.getNodeType() == Node.DOCUMENT_NODE) ? (Document) node : node.getOwnerDocument();
+            XmlDocumentContext context = (document != null) ? XmlDocumentContext.find(document) : null;
+
+            return (context != null) ? context.getSource() : null;
+        }
+    }
+
+    /**
+     *
+     * @param element The element.
+     * @param sink The sink to write to.
+     * @param inheritNamespaces Whether namespace declarations made by the element's ancestors are repeated on it.
+     * @throws IOException If the sink cannot be written to.
+     */
+    private static void writeStartTag(Element element, XmlSink sink, boolean inheritNamespaces) throws IOException
+    {
+        sink.write('<');
+        sink.write(element.getNodeName());
+
+        NamedNodeMap attributes = element.getAttributes();
+
+        for (int i = 0, count = attributes.getLength(); i < count; i++)
+        {
+            Attr attribute = (Attr) attributes.item(i);
+
+            // Attributes defaulted from the DTD are supplied again when the XML is parsed.
+            if (attribute.getSpecified())
+            {
+                writeAttribute(attribute.getNodeName(), attribute.getNodeValue(), sink);
+            }
+        }
+
+        if (inheritNamespaces)
+        {
+            List<String> declared = null;
+
+            for (Node parent = element.getParentNode(); (parent != null) && (parent.getNodeType() == Node.ELEMENT_NODE); parent = parent.getParentNode())
+            {
+                NamedNodeMap parentAttributes = parent.getAttributes();
+
+                for (int i = 0, count = parentAttributes.getLength(); i < count; i++)
+                {
+                    Node attribute = parentAttributes.item(i);
+                    String name = attribute.getNodeName();
+
+                    if ((name.equals("xmlns") || name.startsWith("xmlns:")) && (element.getAttributeNode(name) == null))
+                    {
+                        if (declared == null)
+                        {
+                            declared = new ArrayList<String>();
+                        }
+
+                        // The nearest declaration of a prefix is the one in scope.
+                        if (!declared.contains(name))
+                        {
+                            declared.add(name);
+                            writeAttribute(name, attribute.getNodeValue(), sink);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @param name The attribute's name.
+     * @param value The attribute's value.
+     * @param sink The sink to write to.
+     * @throws IOException If the sink cannot be written to.
+     */
+    static void writeAttribute(String name, String value, XmlSink sink) throws IOException
+    {
+        sink.write(' ');
+        sink.write(name);
+        sink.write("=\"");
+        writeEscaped(value, ATTRIBUTE_ESCAPES, sink);
+        sink.write('"');
+    }
+
+    /**
+     *
+     * @param documentType The document type.
+     * @param sink The sink to write to.
+     * @throws IOException If the sink cannot be written to.
+     */
+    private static void writeDocumentType(DocumentType documentType, XmlSink sink) throws IOException
+    {
+        sink.write("<!DOCTYPE ");
+        sink.write(documentType.getName());
+
+        if (documentType.getPublicId() != null)
+        {
+            sink.write(" PUBLIC \"");
+            sink.write(documentType.getPublicId());
+            sink.write("\" \"");
+            sink.write(documentType.getSystemId());
+            sink.write('"');
+        }
+        else if (documentType.getSystemId() != null)
+        {
+            sink.write(" SYSTEM \"");
+            sink.write(documentType.getSystemId());
+            sink.write('"');
+        }
+
+        String internalSubset = documentType.getInternalSubset();
+
+        if ((internalSubset != null) && (internalSubset.length() > 0))
+        {
+            sink.write(" [");
+            sink.write(internalSubset);
+            sink.write(']');
+        }
+
+        sink.write('>');
+    }
+
+    /**
+     * Writes the text as character data.
+     *
+     * @param text The text to write.
+     * @param sink The sink to write to.
+     * @throws IOException If the sink cannot be written to.
+     */
+    static void writeText(String text, XmlSink sink) throws IOException
+    {
+        writeEscaped(text, TEXT_ESCAPES, sink);
+    }
+
+    /**
+     * Writes the node and its descendants within a larger document. An element
+     * repeats the namespace declarations made by its ancestors.
+     *
+     * @param node The node to write.
+     * @param sink The sink to write to.
+     * @param indenter How markup is indented, or null to write it as it is.
+     * @param depth The nesting depth the node is written at.
+     * @throws IOException If the sink cannot be written to.
+     */
+    static void writeNode(Node node, XmlSink sink, IXmlIndenter indenter, int depth) throws IOException
+    {
+        Cursor cursor = new Cursor(node, indenter, depth);
+        cursor.mInheritNamespaces = true;
+
+        while (cursor.advance(sink))
+        {
+        }
+    }
+
+    /**
+     * Writes the text, replacing the characters that have an escape.
+     *
+     * @param text The text to write.
+     * @param escapes The replacement for each character up to '&gt;' that must be escaped.
+     * @param sink The sink to write to.
+     * @throws IOException If the sink cannot be written to.
+     */
+    private static void writeEscaped(String text, String[] escapes, XmlSink sink) throws IOException
+    {
+        writeEscaped(text, 0, text.length(), escapes, sink);
+    }
+
+    /**
+     * Writes part of the text, replacing the characters that have an escape.
+     *
+     * @param text The text holding the characters to write.
+     * @param start The index of the first character to write.
+     * @param end The index after the last character to write.
+     * @param escapes The replacement for each character up to '&gt;' that must be escaped.
+     * @param sink The sink to write to.
+     * @throws IOException If the sink cannot be written to.
+     */
+    private static void writeEscaped(String text, int start, int end, String[] escapes, XmlSink sink) throws IOException
+    {
+        int run = start;
+
+        for (int i = start; i < end; i++)
+        {
+            char c = text.charAt(i);
+
+            if ((c <= '>') && (escapes[c] != null))
+            {
+                sink.write(text, run, i);
+                sink.write(escapes[c]);
+                run = i + 1;
+            }
+        }
+
+        sink.write(text, run, end);
+    }
+
+    /**
+     * Writes the text as a CDATA section, splitting it wherever the text holds the section terminator.
+     *
+     * @param text The text to write.
+     * @param sink The sink to write to.
+     * @throws IOException If the sink cannot be written to.
+     */
+    static void writeCDataSection(String text, XmlSink sink) throws IOException
+    {
+        sink.write("<![CDATA[");
+
+        int start = 0;
+        int end;
+
+        while ((end = text.indexOf("]]>", start)) >= 0)
+        {
+            sink.write(text, start, end + 2);
+            sink.write("]]><![CDATA[");
+            start = end + 2;
+        }
+
+        sink.write(text, start, text.length());
+        sink.write("]]>");
+    }
+
+    /**
+     *
+     * @param element An element with children.
+     * @return Whether the element's content is markup, apart from whitespace, so its children may be indented.
+     */
+    private static boolean isElementContent(Node element)
+    {
+        boolean markup = false;
+
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            switch (child.getNodeType())
+            {
+                case Node.ELEMENT_NODE:
+                case Node.COMMENT_NODE:
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    markup = true;
+                    break;
+
+                case Node.TEXT_NODE:
+                    if (!isWhitespace(child.getNodeValue()))
+                    {
+                        return false;
+                    }
+                    break;
+
+                default:
+                    return false;
+            }
+        }
+
+        return markup;
+    }
+
+    /**
+     *
+     * @param text The text.
+     * @return Whether the text is only XML whitespace.
+     */
+    private static boolean isWhitespace(String text)
+    {
+        for (int i = 0, length = text.length(); i < length; i++)
+        {
+            char c = text.charAt(i);
+
+            if ((c != ' ') && (c != '\n') && (c != '\t') && (c != '\r'))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,43 @@
+package com.nfbsoftware.xml;
+
+import java.io.IOException;
+
+/**
+ * The destination XmlSerializer writes markup to. Implementations buffer what
+ * is written and encode it for their target.
+ */
+abstract class XmlSink
+{
+    /**
+     *
+     * @param c The character to write.
+     * @throws IOException If the target cannot be written to.
+     */
+    abstract void write(char c) throws IOException;
+
+    /**
+     *
+     * @param text The text holding the characters to write.
+     * @param start The index of the first character to write.
+     * @param end The index after the last character to write.
+     * @throws IOException If the target cannot be written to.
+     */
+    abstract void write(String text, int start, int end) throws IOException;
+
+    /**
+     * Writes everything buffered to the target and flushes it.
+     *
+     * @throws IOException If the target cannot be written to.
+     */
+    abstract void flush() throws IOException;
+
+    /**
+     *
+     * @param text The text to write.
+     * @throws IOException If the target cannot be written to.
+     */
+    void write(String text) throws IOException
+    {
+        write(text, 0, text.length());
+    }
+}
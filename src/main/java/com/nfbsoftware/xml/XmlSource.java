@@ -0,0 +1,390 @@
+package com.nfbsoftware.xml;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * The source text a document was loaded from, with the range of the text
+ * each element was parsed from. Until an element or anything in it is
+ * changed, the serializer copies its range as it is instead of serializing
+ * the element, which keeps the element's original formatting and makes
+ * writing a lightly edited document little more than a copy.
+ * <p>
+ * Changes are only seen when they are made through XmlDocument methods;
+ * changes made directly to the DOM are not.
+ */
+final class XmlSource
+{
+    /**
+     * The text the document was parsed from.
+     */
+    private final String mText;
+
+    /**
+     * The range of each element that is unchanged since it was parsed.
+     * Guarded by this source.
+     */
+    private final Map<Node, Range> mRanges;
+
+    /**
+     *
+     * @param text The text the document was parsed from.
+     * @param ranges The range of each element.
+     */
+    private XmlSource(String text, Map<Node, Range> ranges)
+    {
+        mText = text;
+        mRanges = ranges;
+    }
+
+    /**
+     * Finds the range of each of the document's elements in the text it was
+     * parsed from.
+     *
+     * @param text The text the document was parsed from, which must be well formed.
+     * @param document The document parsed from the text.
+     * @return The document's source, or null if its elements cannot all be
+     *         matched with the text, as when entities declared in a DTD add elements.
+     */
+    static XmlSource create(String text, Document document)
+    {
+        int[] starts = new int[64];
+        int[] ends = new int[64];
+        int[] open = new int[16];
+        int openCount = 0;
+        int count = 0;
+
+        int i = text.indexOf('<');
+
+        while (i >= 0)
+        {
+            int end;
+
+            if (text.startsWith("<!--", i))
+            {
+                end = indexAfter(text, "-->", i + 4);
+            }
+            else if (text.startsWith("<![CDATA[", i))
+            {
+                end = indexAfter(text, "]]>", i + 9);
+            }
+            else if (text.startsWith("<?", i))
+            {
+                end = indexAfter(text, "?>", i + 2);
+            }
+            else if (text.startsWith("<!", i))
+            {
+                end = skipDocumentType(text, i + 2);
+            }
+            else if (text.startsWith("</", i))
+            {
+                end = indexAfter(text, ">", i + 2);
+
+                if (openCount == 0)
+                {
+                    return null;
+                }
+
+                ends[open[--openCount]] = end;
+            }
+            else
+            {
+                end = skipStartTag(text, i + 1);
+
+                if (end < 0)
+                {
+                    return null;
+                }
+
+                if (count == starts.length)
+                {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+
+                starts[count] = i;
+
+                if (text.charAt(end - 2) == '/')
+                {
+                    ends[count] = end;
+                }
+                else
+                {
+                    if (openCount == open.length)
+                    {
+                        open = Arrays.copyOf(open, openCount * 2);
+                    }
+
+                    open[openCount++] = count;
+                }
+
+                count++;
+            }
+
+            if (end < 0)
+            {
+                return null;
+            }
+
+            i = text.indexOf('<', end);
+        }
+
+        if (openCount > 0)
+        {
+            return null;
+        }
+
+        // The elements were found in document order, the order they are visited in here.
+        Map<Node, Range> ranges = new IdentityHashMap<Node, Range>(count * 4 / 3 + 1);
+        int index = 0;
+        Node node = document.getDocumentElement();
+
+        while (node != null)
+        {
+            if (node.getNodeType() == Node.ELEMENT_NODE)
+            {
+                if ((index == count) || !isTagName(text, starts[index] + 1, node.getNodeName()))
+                {
+                    return null;
+                }
+
+                ranges.put(node, new Range(starts[index], ends[index], node.getParentNode()));
+                index++;
+            }
+
+            Node next = node.getFirstChild();
+
+            while ((next == null) && (node != null))
+            {
+                next = node.getNextSibling();
+
+                if (next == null)
+                {
+                    node = node.getParentNode();
+                }
+            }
+
+            node = next;
+        }
+
+        if (index != count)
+        {
+            return null;
+        }
+
+        return new XmlSource(text, ranges);
+    }
+
+    /**
+     *
+     * @return The text the document was parsed from.
+     */
+    String getText()
+    {
+        return mText;
+    }
+
+    /**
+     * Returns the range an element was parsed from, if it can still be copied:
+     * neither it nor anything in it has changed, and it has not been moved.
+     *
+     * @param element The element.
+     * @return The range, or null if the element must be serialized.
+     */
+    synchronized Range getRange(Node element)
+    {
+        Range range = mRanges.get(element);
+
+        if ((range == null) || (range.mParent != element.getParentNode()))
+        {
+            return null;
+        }
+
+        return range;
+    }
+
+    /**
+     * Records a change to a node, after which it and its ancestors are no
+     * longer copied from the source.
+     *
+     * @param node The node whose value, attributes or children changed.
+     */
+    synchronized void modified(Node node)
+    {
+        if (node.getNodeType() == Node.ATTRIBUTE_NODE)
+        {
+            node = ((Attr) node).getOwnerElement();
+        }
+
+        // An element's ancestors are removed along with it, so the walk stops at the first one already gone.
+        while ((node != null) && ((mRanges.remove(node) != null) || (node.getNodeType() != Node.ELEMENT_NODE)))
+        {
+            node = node.getParentNode();
+        }
+    }
+
+    /**
+     * Skips a start tag, whose attribute values may contain '&gt;'.
+     *
+     * @param text The text.
+     * @param index The index of the tag's name.
+     * @return The index after the tag, or -1 if it does not end.
+     */
+    private static int skipStartTag(String text, int index)
+    {
+        for (int i = index, length = text.length(); i < length; i++)
+        {
+            char c = text.charAt(i);
+
+            if ((c == '"') || (c == '\''))
+            {
+                i = text.indexOf(c, i + 1);
+
+                if (i < 0)
+                {
+                    return -1;
+                }
+            }
+            else if (c == '>')
+            {
+                return i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Skips a document type declaration, including its internal subset.
+     *
+     * @param text The text.
+     * @param index The index after the declaration's "&lt;!".
+     * @return The index after the declaration, or -1 if it does not end.
+     */
+    private static int skipDocumentType(String text, int index)
+    {
+        boolean internalSubset = false;
+
+        for (int i = index, length = text.length(); (i >= 0) && (i < length); i++)
+        {
+            char c = text.charAt(i);
+
+            if ((c == '"') || (c == '\''))
+            {
+                i = text.indexOf(c, i + 1);
+            }
+            else if (internalSubset && text.startsWith("<!--", i))
+            {
+                i = indexAfter(text, "-->", i + 4) - 1;
+            }
+            else if (internalSubset && text.startsWith("<?", i))
+            {
+                i = indexAfter(text, "?>", i + 2) - 1;
+            }
+            else if (c == '[')
+            {
+                internalSubset = true;
+            }
+            else if (c == ']')
+            {
+                internalSubset = false;
+            }
+            else if ((c == '>') && !internalSubset)
+            {
+                return i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     *
+     * @param text The text.
+     * @param delimiter The delimiter to find.
+     * @param index The index to search from.
+     * @return The index after the delimiter, or -1 if it is not found.
+     */
+    private static int indexAfter(String text, String delimiter, int index)
+    {
+        int found = text.indexOf(delimiter, index);
+
+        return (found < 0) ? -1 : found + delimiter.length();
+    }
+
+    /**
+     *
+     * @param text The text.
+     * @param index The index of the tag's name.
+     * @param name The element's name.
+     * @return Whether the tag at the index has the name.
+     */
+    private static boolean isTagName(String text, int index, String name)
+    {
+        if (!text.startsWith(name, index))
+        {
+            return false;
+        }
+
+        char next = text.charAt(index + name.length());
+
+        return (next == '>') || (next == '/') || Character.isWhitespace(next);
+    }
+
+    /**
+     * The range of the text an element was parsed from.
+     */
+    static final class Range
+    {
+        /**
+         * The index of the element's start tag.
+         */
+        private final int mStart;
+
+        /**
+         * The index after the element's end tag.
+         */
+        private final int mEnd;
+
+        /**
+         * The element's parent when it was parsed.
+         */
+        private final Node mParent;
+
+        /**
+         *
+         * @param start The index of the element's start tag.
+         * @param end The index after the element's end tag.
+         * @param parent The element's parent when it was parsed.
+         */
+        Range(int start, int end, Node parent)
+        {
+            mStart = start;
+            mEnd = end;
+            mParent = parent;
+        }
+
+        /**
+         *
+         * @return The index of the element's start tag.
+         */
+        int getStart()
+        {
+            return mStart;
+        }
+
+        /**
+         *
+         * @return The index after the element's end tag.
+         */
+        int getEnd()
+        {
+            return mEnd;
+        }
+    }
+}
@@ -0,0 +1,563 @@
+package com.nfbsoftware.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+
+/**
+ * Writes an XML document as it is described, without building a DOM.
+ * <p>
+ * Elements are opened with <code>child(...)</code>, given attributes and
+ * content, and closed with <code>end()</code>; each call returns the writer so
+ * calls can be chained. Markup is written through a small buffer straight to
+ * the stream or Writer, so memory use does not grow with the document. An
+ * existing element can be written mid-stream with <code>embed(...)</code>.
+ * <p>
+ * Writers are not thread safe. Closing the writer ends any open elements and
+ * closes the underlying output.
+ *
+ * <pre>
+ * XmlWriter writer = new XmlWriter(output);
+ * writer.child("ROOT").attribute("version", "1")
+ *           .child("Name").value("Widget").end()
+ *           .embed(existingElement)
+ *       .end();
+ * writer.close();
+ * </pre>
+ */
+public class XmlWriter implements Closeable
+{
+    /**
+     * The sink the markup is written to.
+     */
+    private final XmlSink mSink;
+
+    /**
+     * The output the sink writes to; closed with the writer.
+     */
+    private final Closeable mOutput;
+
+    /**
+     * How markup is indented, or null to write it as it is.
+     */
+    private final IXmlIndenter mIndenter;
+
+    /**
+     * The XML declaration; it names the encoding only when the writer chooses it.
+     */
+    private final String mXmlDeclaration;
+
+    /**
+     * Whether the XML declaration is left out.
+     */
+    private boolean mOmitXmlDeclaration;
+
+    /**
+     * Whether anything has been written yet.
+     */
+    private boolean mStarted;
+
+    /**
+     * The number of nodes written at the top level, outside the document element.
+     */
+    private int mTopLevelCount;
+
+    /**
+     * Whether the document element has been opened.
+     */
+    private boolean mHasDocumentElement;
+
+    /**
+     * The names of the open elements, outermost first.
+     */
+    private String[] mNames = new String[16];
+
+    /**
+     * Whether each open element has been given markup content, such as child elements.
+     */
+    private boolean[] mHasMarkup = new boolean[16];
+
+    /**
+     * Whether each open element has been given text content.
+     */
+    private boolean[] mHasText = new boolean[16];
+
+    /**
+     * The number of open elements.
+     */
+    private int mDepth;
+
+    /**
+     * Whether the innermost element's start tag is still open for attributes.
+     */
+    private boolean mStartTagOpen;
+
+    /** */
+    private boolean mClosed;
+
+    /**
+     * Writes the document to the stream as UTF-8.
+     *
+     * @param output The stream to write to; it needs no buffering of its own.
+     */
+    public XmlWriter(OutputStream output)
+    {
+        this(output, null);
+    }
+
+    /**
+     * Writes the document to the stream as UTF-8.
+     *
+     * @param output The stream to write to; it needs no buffering of its own.
+     * @param indenter How markup is indented, or null to write it as it is.
+     */
+    public XmlWriter(OutputStream output, IXmlIndenter indenter)
+    {
+        mSink = new Utf8XmlSink(output);
+        mOutput = output;
+        mIndenter = indenter;
+        mXmlDeclaration = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+    }
+
+    /**
+     * Writes the document to the Writer, whose encoding is its own; the XML
+     * declaration does not name one.
+     *
+     * @param writer The Writer to write to; it needs no buffering of its own.
+     */
+    public XmlWriter(Writer writer)
+    {
+        this(writer, null);
+    }
+
+    /**
+     * Writes the document to the Writer, whose encoding is its own; the XML
+     * declaration does not name one.
+     *
+     * @param writer The Writer to write to; it needs no buffering of its own.
+     * @param indenter How markup is indented, or null to write it as it is.
+     */
+    public XmlWriter(Writer writer, IXmlIndenter indenter)
+    {
+        mSink = new CharXmlSink(writer);
+        mOutput = writer;
+        mIndenter = indenter;
+        mXmlDeclaration = "<?xml version=\"1.0\"?>\n";
+    }
+
+    /**
+     * Leaves out the XML declaration, for writing fragments. Must be called
+     * before anything is written.
+     *
+     * @param omitXmlDeclaration Whether the XML declaration is left out.
+     * @return This writer.
+     */
+    public XmlWriter setOmitXmlDeclaration(boolean omitXmlDeclaration)
+    {
+        if (mStarted)
+        {
+            throw new IllegalStateException("The XML declaration has already been written");
+        }
+
+        mOmitXmlDeclaration = omitXmlDeclaration;
+
+        return this;
+    }
+
+    /**
+     * Opens a child element of the current element, or the document element.
+     *
+     * @param name The element's name.
+     * @return This writer.
+     * @throws XmlDocumentCheckedException If the output cannot be written to.
+     * @throws IllegalStateException If the document element has already been closed.
+     */
+    public XmlWriter child(String name) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".child(String)";
+
+        startElement();
+
+        try
+        {
+            startMarkup();
+
+            mSink.write('<');
+            mSink.write(name);
+
+            if (mDepth == mNames.length)
+            {
+                mNames = Arrays.copyOf(mNames, mDepth * 2);
+                mHasMarkup = Arrays.copyOf(mHasMarkup, mDepth * 2);
+                mHasText = Arrays.copyOf(mHasText, mDepth * 2);
+            }
+
+            mNames[mDepth] = name;
+            mHasMarkup[mDepth] = false;
+            mHasText[mDepth] = false;
+            mDepth++;
+
+            mStartTagOpen = true;
+        }
+        catch (IOException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds an attribute to the element just opened. Must be called before the
+     * element is given any content.
+     *
+     * @param name The attribute's name.
+     * @param value The attribute's value.
+     * @return This writer.
+     * @throws XmlDocumentCheckedException If the output cannot be written to.
+     */
+    public XmlWriter attribute(String name, String value) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".attribute(String, String)";
+
+        if (!mStartTagOpen)
+        {
+            throw new IllegalStateException("Attributes must be added before an element's content: " + name);
+        }
+
+        try
+        {
+            XmlSerializer.writeAttribute(name, value, mSink);
+        }
+        catch (IOException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds text to the current element.
+     *
+     * @param value The text, which is escaped as needed.
+     * @return This writer.
+     * @throws XmlDocumentCheckedException If the output cannot be written to.
+     */
+    public XmlWriter value(String value) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".value(String)";
+
+        try
+        {
+            startText();
+
+            XmlSerializer.writeText(value, mSink);
+        }
+        catch (IOException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds a CDATA section to the current element.
+     *
+     * @param value The text of the section.
+     * @return This writer.
+     * @throws XmlDocumentCheckedException If the output cannot be written to.
+     */
+    public XmlWriter cdata(String value) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".cdata(String)";
+
+        try
+        {
+            startText();
+
+            XmlSerializer.writeCDataSection(value, mSink);
+        }
+        catch (IOException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds a comment to the current element, or to the document.
+     *
+     * @param comment The text of the comment.
+     * @return This writer.
+     * @throws XmlDocumentCheckedException If the output cannot be written to.
+     * @throws IllegalArgumentException If the text contains "--" or ends with "-", which a comment cannot hold.
+     */
+    public XmlWriter comment(String comment) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".comment(String)";
+
+        if (comment.contains("--") || comment.endsWith("-"))
+        {
+            throw new IllegalArgumentException("A comment cannot contain \"--\" or end with \"-\": " + comment);
+        }
+
+        try
+        {
+            startMarkup();
+
+            mSink.write("<!--");
+            mSink.write(comment);
+            mSink.write("-->");
+        }
+        catch (IOException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes the element and its descendants as a child of the current
+     * element, leaving the current element open. Namespaces declared above the
+     * element in its own document are declared on it.
+     *
+     * @param element The element to write.
+     * @return This writer.
+     * @throws XmlDocumentCheckedException If the output cannot be written to.
+     * @throws IllegalStateException If the document element has already been closed.
+     */
+    public XmlWriter embed(IXmlElement element) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".embed(IXmlElement)";
+
+        startElement();
+
+        try
+        {
+            Node node = element.getRootNode();
+
+            if (node.getNodeType() == Node.DOCUMENT_NODE)
+            {
+                node = ((Document) node).getDocumentElement();
+            }
+
+            startMarkup();
+
+            XmlSerializer.writeNode(node, mSink, mIndenter, mDepth);
+        }
+        catch (IOException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+
+        return this;
+    }
+
+    /**
+     * Closes the current element.
+     *
+     * @return This writer.
+     * @throws XmlDocumentCheckedException If the output cannot be written to.
+     */
+    public XmlWriter end() throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".end()";
+
+        if (mDepth == 0)
+        {
+            throw new IllegalStateException("There is no open element to end");
+        }
+
+        try
+        {
+            mDepth--;
+
+            if (mStartTagOpen)
+            {
+                mSink.write("/>");
+                mStartTagOpen = false;
+            }
+            else
+            {
+                if ((mIndenter != null) && mHasMarkup[mDepth] && !mHasText[mDepth])
+                {
+                    mSink.write('\n');
+                    mSink.write(mIndenter.getIndent(mDepth));
+                }
+
+                mSink.write("</");
+                mSink.write(mNames[mDepth]);
+                mSink.write('>');
+            }
+
+            mNames[mDepth] = null;
+        }
+        catch (IOException e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+
+        return this;
+    }
+
+    /**
+     *
+     * @return The number of open elements.
+     */
+    public int getDepth()
+    {
+        return mDepth;
+    }
+
+    /**
+     * Writes everything buffered to the output and flushes it.
+     *
+     * @throws IOException If the output cannot be written to.
+     */
+    public void flush() throws IOException
+    {
+        mSink.flush();
+    }
+
+    /**
+     * Ends any open elements, writes everything buffered and closes the output.
+     *
+     * @throws IOException If the output cannot be written to.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (mClosed)
+        {
+            return;
+        }
+
+        mClosed = true;
+
+        try
+        {
+            while (mDepth > 0)
+            {
+                end();
+            }
+
+            if ((mIndenter != null) && (mTopLevelCount > 0))
+            {
+                mSink.write('\n');
+            }
+
+            mSink.flush();
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            throw new IOException(e.getRootCause());
+        }
+        finally
+        {
+            mOutput.close();
+        }
+    }
+
+    /**
+     * Checks that an element may be written at the current depth; a document
+     * has only one document element.
+     */
+    private void startElement()
+    {
+        if (mDepth == 0)
+        {
+            if (mHasDocumentElement)
+            {
+                throw new IllegalStateException("The document element has already been written");
+            }
+
+            mHasDocumentElement = true;
+        }
+    }
+
+    /**
+     * Prepares to write markup, such as a child element, in the current element.
+     *
+     * @throws IOException If the output cannot be written to.
+     */
+    private void startMarkup() throws IOException
+    {
+        startContent();
+
+        if (mDepth == 0)
+        {
+            // Nodes outside the document element are written one to a line.
+            if (mTopLevelCount++ > 0)
+            {
+                mSink.write('\n');
+            }
+        }
+        else
+        {
+            mHasMarkup[mDepth - 1] = true;
+
+            if ((mIndenter != null) && !mHasText[mDepth - 1])
+            {
+                mSink.write('\n');
+                mSink.write(mIndenter.getIndent(mDepth));
+            }
+        }
+    }
+
+    /**
+     * Prepares to write text in the current element.
+     *
+     * @throws IOException If the output cannot be written to.
+     */
+    private void startText() throws IOException
+    {
+        if (mDepth == 0)
+        {
+            throw new IllegalStateException("Text must be written within an element");
+        }
+
+        startContent();
+
+        mHasText[mDepth - 1] = true;
+    }
+
+    /**
+     * Writes the XML declaration if nothing has been written yet, and ends the open start tag.
+     *
+     * @throws IOException If the output cannot be written to.
+     */
+    private void startContent() throws IOException
+    {
+        if (mClosed)
+        {
+            throw new IllegalStateException("The writer is closed");
+        }
+
+        if (!mStarted)
+        {
+            mStarted = true;
+
+            if (!mOmitXmlDeclaration)
+            {
+                mSink.write(mXmlDeclaration);
+            }
+        }
+
+        if (mStartTagOpen)
+        {
+            mSink.write('>');
+            mStartTagOpen = false;
+        }
+    }
+}
@@ -1,22 +1,36 @@
 package com.nfbsoftware.xml;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.io.Reader;
 import java.io.StringReader;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
 import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
 
@@ -34,12 +48,7 @@ public class XslDocument implements IXslDocument
 	 */
 	private static final long serialVersionUID = 1L;
 
-	/**
-     *
-     */
-    private transient DocumentBuilder mDocumentBuilder;
-
-    /** */
+	/** */
     private IXmlDocument mXslDocument;
 
     /** */
@@ -50,6 +59,89 @@ public class XslDocument implements IXslDocument
      */
     private transient TransformerFactory mTransformerFactory;
 
+    /**
+     * The Transformers for the compiled stylesheet; created on first use and
+     * discarded when a new stylesheet is loaded or the pool is reconfigured.
+     * Only set while holding this document's monitor, which loading a
+     * stylesheet also holds, so a pool compiled from a replaced stylesheet is
+     * never published.
+     */
+    private transient volatile TransformerPool mTransformerPool;
+
+    /**
+     * The maximum number of Transformers in the pool.
+     */
+    private int mTransformerPoolSize = TransformerPool.DEFAULT_MAXIMUM_SIZE;
+
+    /**
+     * The time in milliseconds a transform waits for a pooled Transformer.
+     */
+    private long mTransformerPoolWaitMillis = TransformerPool.DEFAULT_MAXIMUM_WAIT_MILLIS;
+
+    /**
+     * The size in bytes of the buffer between a piped transform and its reader.
+     */
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    /**
+     * Runs piped transforms that were not given an executor; created on first use.
+     */
+    private static ExecutorService sPipeExecutor;
+
+    /**
+     * The reading end of a piped transform. Reports a failed transform to the
+     * reader once the output produced before the failure has been read.
+     */
+    private static class TransformPipe extends PipedInputStream
+    {
+        /** */
+        private volatile Throwable mFailure;
+
+        /**
+         *
+         * @param pipeSize The size of the pipe's buffer.
+         */
+        TransformPipe(int pipeSize)
+        {
+            super(pipeSize);
+        }
+
+        /**
+         *
+         * @param failure Why the transform failed.
+         */
+        void fail(Throwable failure)
+        {
+            mFailure = failure;
+        }
+
+        @Override
+        public synchronized int read() throws IOException
+        {
+            int b = super.read();
+
+            if ((b < 0) && (mFailure != null))
+            {
+                throw new IOException(mFailure);
+            }
+
+            return b;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException
+        {
+            int count = super.read(b, off, len);
+
+            if ((count < 0) && (mFailure != null))
+            {
+                throw new IOException(mFailure);
+            }
+
+            return count;
+        }
+    }
+
     /**
      *
      * @throws XmlDocumentCheckedException If the XML is invalid.
@@ -114,6 +206,26 @@ public class XslDocument implements IXslDocument
         }
     }
 
+    /**
+     *
+     * @param path File of xsl, which is read through a channel, whole if it is small.
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    public XslDocument(Path path) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + "<init>(Path)";
+
+        try
+        {
+            mXslDocument = new XmlDocument(path);
+            mXslElement = mXslDocument.getRootElement();
+        }
+        catch (XmlDocumentCheckedException ex)
+        {
+            throw new XmlDocumentCheckedException(debugString, ex);
+        }
+    }
+
     /**
      *
      *
@@ -207,8 +319,10 @@ public class XslDocument implements IXslDocument
      * {@inheritDoc}
      */
     @Override
-    public void load(File file) throws XmlDocumentCheckedException
+    public synchronized void load(File file) throws XmlDocumentCheckedException
     {
+        // Dropped first, so a load that fails leaves nothing compiled from the old stylesheet.
+        mTransformerPool = null;
         mXslDocument.load(file);
     }
 
@@ -216,8 +330,10 @@ public class XslDocument implements IXslDocument
      * {@inheritDoc}
      */
     @Override
-    public void load(File file, String enc) throws XmlDocumentCheckedException
+    public synchronized void load(File file, String enc) throws XmlDocumentCheckedException
     {
+        // Dropped first, so a load that fails leaves nothing compiled from the old stylesheet.
+        mTransformerPool = null;
         mXslDocument.load(file, enc);
     }
 
@@ -225,8 +341,21 @@ public class XslDocument implements IXslDocument
      * {@inheritDoc}
      */
     @Override
-    public void load(InputStream in) throws XmlDocumentCheckedException
+    public synchronized void load(Path path) throws XmlDocumentCheckedException
+    {
+        // Dropped first, so a load that fails leaves nothing compiled from the old stylesheet.
+        mTransformerPool = null;
+        mXslDocument.load(path);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void load(InputStream in) throws XmlDocumentCheckedException
     {
+        // Dropped first, so a load that fails leaves nothing compiled from the old stylesheet.
+        mTransformerPool = null;
         mXslDocument.load(in);
     }
 
@@ -234,8 +363,10 @@ public class XslDocument implements IXslDocument
      * {@inheritDoc}
      */
     @Override
-    public void load(InputStream in, String enc) throws XmlDocumentCheckedException
+    public synchronized void load(InputStream in, String enc) throws XmlDocumentCheckedException
     {
+        // Dropped first, so a load that fails leaves nothing compiled from the old stylesheet.
+        mTransformerPool = null;
         mXslDocument.load(in, enc);
     }
 
@@ -243,8 +374,10 @@ public class XslDocument implements IXslDocument
      * {@inheritDoc}
      */
     @Override
-    public void load(Reader reader) throws XmlDocumentCheckedException
+    public synchronized void load(Reader reader) throws XmlDocumentCheckedException
     {
+        // Dropped first, so a load that fails leaves nothing compiled from the old stylesheet.
+        mTransformerPool = null;
         mXslDocument.load(reader);
     }
 
@@ -252,8 +385,10 @@ public class XslDocument implements IXslDocument
      * {@inheritDoc}
      */
     @Override
-    public void load(String xml) throws XmlDocumentCheckedException
+    public synchronized void load(String xml) throws XmlDocumentCheckedException
     {
+        // Dropped first, so a load that fails leaves nothing compiled from the old stylesheet.
+        mTransformerPool = null;
         mXslDocument.load(xml);
     }
 
@@ -269,8 +404,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(xmlFile);
-            results = transformNodeFromXmlData(doc);
+            results = transformSourceToString(new StreamSource(xmlFile));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -292,8 +426,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(xmlFile, enc);
-            results = transformNodeFromXmlData(doc);
+            results = transformSourceToString(createSource(xmlFile, enc));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -315,8 +448,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(stream);
-            results = transformNodeFromXmlData(doc);
+            results = transformSourceToString(new StreamSource(stream));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -338,8 +470,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(stream, enc);
-            results = transformNodeFromXmlData(doc);
+            results = transformSourceToString(createSource(stream, enc));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -384,8 +515,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(reader);
-            results = transformNodeFromXmlData(doc);
+            results = transformSourceToString(new StreamSource(reader));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -407,7 +537,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            results = transformNodeFromString(xml);
+            results = transformSourceToString(new StreamSource(new StringReader(xml)));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -417,6 +547,153 @@ public class XslDocument implements IXslDocument
         return results;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transform(IXmlElement xmlElement, OutputStream out) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".transform(IXmlElement, OutputStream)";
+
+        try
+        {
+            transform(xmlElement, new StreamResult(out));
+            out.flush();
+        }
+        catch (IOException ex)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, ex, debugString, ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transform(IXmlElement xmlElement, Writer writer) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".transform(IXmlElement, Writer)";
+
+        try
+        {
+            transform(xmlElement, new StreamResult(writer));
+            writer.flush();
+        }
+        catch (IOException ex)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, ex, debugString, ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transform(IXmlElement xmlElement, WritableByteChannel channel) throws XmlDocumentCheckedException
+    {
+        // The serializer buffers its output, so each write to the channel is a full buffer.
+        transform(xmlElement, new StreamResult(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transform(IXmlElement xmlElement, Result result) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".transform(IXmlElement, Result)";
+
+        try
+        {
+            transformNode(new XmlDocument(xmlElement.getRootNode(), xmlElement.getDocument()), result);
+        }
+        catch (XmlDocumentCheckedException ex)
+        {
+            throw new XmlDocumentCheckedException(debugString, ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transform(Source source, Result result) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".transform(Source, Result)";
+
+        try
+        {
+            transformSource(source, result);
+        }
+        catch (XmlDocumentCheckedException ex)
+        {
+            throw new XmlDocumentCheckedException(debugString, ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream transformToInputStream(IXmlElement xmlElement) throws XmlDocumentCheckedException
+    {
+        return transformToInputStream(xmlElement, getPipeExecutor());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream transformToInputStream(IXmlElement xmlElement, Executor executor) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".transformToInputStream(IXmlElement, Executor)";
+
+        final IXmlDocument doc = new XmlDocument(xmlElement.getRootNode(), xmlElement.getDocument());
+        final TransformPipe pipe = new TransformPipe(PIPE_SIZE);
+        final PipedOutputStream out;
+
+        try
+        {
+            out = new PipedOutputStream(pipe);
+        }
+        catch (IOException ex)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, ex, debugString, ex);
+        }
+
+        // Report an invalid style sheet to the caller rather than through the stream.
+        getTransformerPool();
+
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    transformNode(doc, new StreamResult(out));
+                }
+                catch (Throwable e)
+                {
+                    pipe.fail(e);
+                }
+                finally
+                {
+                    try
+                    {
+                        out.close();
+                    }
+                    catch (IOException e)
+                    {
+                        // The reader has already closed its end.
+                    }
+                }
+            }
+        });
+
+        return pipe;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -429,8 +706,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(xmlFile);
-            results = transformNodeFromXmlDataToXmlData(doc);
+            results = transformSourceToXmlDocument(new StreamSource(xmlFile));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -452,8 +728,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(xmlFile, enc);
-            results = transformNodeFromXmlDataToXmlData(doc);
+            results = transformSourceToXmlDocument(createSource(xmlFile, enc));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -475,8 +750,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(stream);
-            results = transformNodeFromXmlDataToXmlData(doc);
+            results = transformSourceToXmlDocument(new StreamSource(stream));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -498,8 +772,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(stream, enc);
-            results = transformNodeFromXmlDataToXmlData(doc);
+            results = transformSourceToXmlDocument(createSource(stream, enc));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -544,8 +817,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(reader);
-            results = transformNodeFromXmlDataToXmlData(doc);
+            results = transformSourceToXmlDocument(new StreamSource(reader));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -567,8 +839,7 @@ public class XslDocument implements IXslDocument
 
         try
         {
-            IXmlDocument doc = new XmlDocument(xml);
-            results = transformNodeFromXmlDataToXmlData(doc);
+            results = transformSourceToXmlDocument(new StreamSource(new StringReader(xml)));
         }
         catch (XmlDocumentCheckedException ex)
         {
@@ -595,67 +866,115 @@ public class XslDocument implements IXslDocument
     }
 
     /**
+     * Returns the pool of Transformers for this stylesheet, compiling the
+     * stylesheet straight from its DOM on first use. The pool's counters show
+     * how many Transformers are in use and how long transforms wait for one.
      *
-     * @return
-     * @throws XmlDocumentCheckedException If the XML is invalid.
+     * @return The Transformer pool.
+     * @throws XmlDocumentCheckedException If the stylesheet cannot be compiled.
      */
-    private DocumentBuilder createDocumentBuilder() throws XmlDocumentCheckedException
+    public TransformerPool getTransformerPool() throws XmlDocumentCheckedException
     {
-        final String debugString = getClass().getName() + ".createDocumentBuilder()";
-        try
+        final String debugString = getClass().getName() + ".getTransformerPool()";
+
+        TransformerPool pool = mTransformerPool;
+
+        if (pool == null)
         {
-            DocumentBuilderFactory docBuidlerFactory = DocumentBuilderFactory.newInstance();
-            docBuidlerFactory.setNamespaceAware(true);
+            synchronized (this)
+            {
+                pool = mTransformerPool;
 
-            return docBuidlerFactory.newDocumentBuilder();
+                if (pool == null)
+                {
+                    try
+                    {
+                        if (mTransformerFactory == null)
+                        {
+                            mTransformerFactory = TransformerFactory.newInstance();
+                        }
+
+                        pool = new TransformerPool(mTransformerFactory.newTemplates(new DOMSource(mXslDocument.getDocument())), mTransformerPoolSize, mTransformerPoolWaitMillis);
+                        mTransformerPool = pool;
+                    }
+                    catch (Exception e)
+                    {
+                        throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+                    }
+                }
+            }
         }
-        catch (Exception e)
+
+        return pool;
+    }
+
+    /**
+     * Sets the maximum number of transforms that may run at once with this
+     * stylesheet. Further transforms wait for one to finish.
+     *
+     * @param size The maximum number of pooled Transformers; must be at least 1.
+     */
+    public synchronized void setTransformerPoolSize(int size)
+    {
+        if (size < 1)
         {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+            throw new IllegalArgumentException("The pool size must be at least 1: " + size);
         }
+
+        mTransformerPoolSize = size;
+        mTransformerPool = null;
     }
 
     /**
+     * Sets how long a transform waits for a pooled Transformer before failing
+     * with <code>TRANSFORMER_POOL_EXHAUSTED</code>.
      *
-     * @param xslStr
-     * @return
-     * @throws XmlDocumentCheckedException If the XML is invalid.
+     * @param waitMillis The maximum wait in milliseconds.
      */
-    private String transformNodeFromString(String xslStr) throws XmlDocumentCheckedException
+    public synchronized void setTransformerPoolWait(long waitMillis)
     {
-        final String debugString = getClass().getName() + ".transformNodeFromString(String)";
-        // parser input XSL file
-        ByteArrayInputStream input = new ByteArrayInputStream(xslStr.getBytes());
-        ByteArrayOutputStream out;
+        mTransformerPoolWaitMillis = waitMillis;
+        mTransformerPool = null;
+    }
 
-        try
+    /**
+     *
+     * @return The executor for piped transforms that were not given one.
+     */
+    private static synchronized Executor getPipeExecutor()
+    {
+        if (sPipeExecutor == null)
         {
-            out = new ByteArrayOutputStream();
+            final AtomicInteger threadCount = new AtomicInteger();
 
-            if (mTransformerFactory == null)
+            sPipeExecutor = Executors.newCachedThreadPool(new ThreadFactory()
             {
-                synchronized (this)
+                @Override
+                public Thread newThread(Runnable runnable)
                 {
-                    mTransformerFactory = TransformerFactory.newInstance();
+                    Thread thread = new Thread(runnable, "XslDocument-transform-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+
+                    return thread;
                 }
-            }
+            });
+        }
 
-            // Use the TransformerFactory to instantiate a Transformer that will work with
-            // the stylesheet you specify. This method call also processes the stylesheet
-            // into a compiled Templates object.
-            StringReader xslStream = new StringReader(mXslDocument.toString());
-            Transformer transformer = mTransformerFactory.newTransformer(new StreamSource(xslStream));
+        return sPipeExecutor;
+    }
 
-            // Use the Transformer to apply the associated Templates object to an XML document
-            // (foo.xml) and write the output to a file (foo.out).
-            transformer.transform(new StreamSource(input), new StreamResult(out));
+    /**
+     *
+     * @param xslNode
+     * @return
+     * @throws XmlDocumentCheckedException If the XML is invalid.
+     */
+    private String transformNodeFromXmlData(IXmlDocument xmlNode) throws XmlDocumentCheckedException
+    {
+        StringWriter out = new StringWriter();
+        transformNode(xmlNode, new StreamResult(out));
 
-            return out.toString("UTF-8");
-        }
-        catch (Exception e)
-        {
-            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
-        }
+        return out.toString();
     }
 
     /**
@@ -664,90 +983,116 @@ public class XslDocument implements IXslDocument
      * @return
      * @throws XmlDocumentCheckedException If the XML is invalid.
      */
-    private String transformNodeFromXmlData(IXmlDocument xmlNode) throws XmlDocumentCheckedException
+    private XmlDocument transformNodeFromXmlDataToXmlData(IXmlDocument xmlNode) throws XmlDocumentCheckedException
     {
-        synchronized (xmlNode)
-        {
-            ByteArrayOutputStream out;
+        Document doc = DocumentBuilderProvider.getDefault().newDocument();
+        transformNode(xmlNode, new DOMResult(doc));
 
-            try
-            {
-                out = new ByteArrayOutputStream();
+        return new XmlDocument(doc, doc);
+    }
 
-                if (mTransformerFactory == null)
-                {
-                    synchronized (this)
-                    {
-                        mTransformerFactory = TransformerFactory.newInstance();
-                    }
-                }
+    /**
+     * Transforms the source without first building an XmlDocument from it;
+     * the only tree built is the transformer's own.
+     *
+     * @param source The source of the XML document.
+     * @return The result.
+     * @throws XmlDocumentCheckedException If the transform fails.
+     */
+    private String transformSourceToString(Source source) throws XmlDocumentCheckedException
+    {
+        // Writing characters avoids encoding the result only to decode it again.
+        StringWriter out = new StringWriter();
+        transformSource(source, new StreamResult(out));
 
-                // Use the TransformerFactory to instantiate a Transformer that will work with
-                // the stylesheet you specify. This method call also processes the stylesheet
-                // into a compiled Templates object.
-                StringReader xslStream = new StringReader(mXslDocument.toString());
-                Transformer transformer = mTransformerFactory.newTransformer(new StreamSource(xslStream));
+        return out.toString();
+    }
 
-                // Use the Transformer to apply the associated Templates object to an XML document
-                // (foo.xml) and write the output to a file (foo.out).
-                transformer.transform(new DOMSource(xmlNode.getDocument()), new StreamResult(out));
+    /**
+     * Transforms the source without first building an XmlDocument from it;
+     * the only tree built is the transformer's own.
+     *
+     * @param source The source of the XML document.
+     * @return The result.
+     * @throws XmlDocumentCheckedException If the transform fails.
+     */
+    private XmlDocument transformSourceToXmlDocument(Source source) throws XmlDocumentCheckedException
+    {
+        Document doc = DocumentBuilderProvider.getDefault().newDocument();
+        transformSource(source, new DOMResult(doc));
 
-                return out.toString("UTF-8");
-            }
-            catch (Exception e)
-            {
-                throw new XmlDocumentCheckedException("XmlDocument.transfromNodeFromString", e);
-            }
-        }
+        return new XmlDocument(doc, doc);
     }
 
     /**
      *
-     * @param xslNode
-     * @return
-     * @throws XmlDocumentCheckedException If the XML is invalid.
+     * @param file The XML file.
+     * @param enc The encoding of the file.
+     * @return A source that has the parser decode the file with the encoding.
      */
-    private XmlDocument transformNodeFromXmlDataToXmlData(IXmlDocument xmlNode) throws XmlDocumentCheckedException
+    private static Source createSource(File file, String enc)
     {
-        synchronized (xmlNode)
-        {
-            try
-            {
-                if (mTransformerFactory == null)
-                {
-                    synchronized (this)
-                    {
-                        mTransformerFactory = TransformerFactory.newInstance();
-                    }
-                }
+        InputSource input = new InputSource(file.toURI().toString());
+        input.setEncoding(enc);
 
-                // Use the TransformerFactory to instantiate a Transformer that will work with
-                // the stylesheet you specify. This method call also processes the stylesheet
-                // into a compiled Templates object.
-                StringReader xslStream = new StringReader(mXslDocument.toString());
-                Transformer transformer = mTransformerFactory.newTransformer(new StreamSource(xslStream));
+        return new SAXSource(input);
+    }
 
-                // Use the Transformer to apply the associated Templates object to an XML document
-                // (foo.xml) and write the output to a file (foo.out).
+    /**
+     *
+     * @param stream The stream containing the XML document.
+     * @param enc The encoding of the stream.
+     * @return A source that has the parser decode the stream with the encoding.
+     */
+    private static Source createSource(InputStream stream, String enc)
+    {
+        InputSource input = new InputSource(stream);
+        input.setEncoding(enc);
 
-                synchronized (this)
-                {
-                    if (mDocumentBuilder == null)
-                    {
-                        mDocumentBuilder = createDocumentBuilder();
-                    }
-                }
+        return new SAXSource(input);
+    }
 
-                Document doc = mDocumentBuilder.newDocument();
-                transformer.transform(new DOMSource(xmlNode.getDocument()), new DOMResult(doc));
+    /**
+     * Transforms the document of the node. The document is only read, so any
+     * number of transforms of it may run at once.
+     *
+     * @param xmlNode The node whose document is transformed.
+     * @param result The result the output is written to.
+     * @throws XmlDocumentCheckedException If the transform fails.
+     */
+    private void transformNode(IXmlDocument xmlNode, Result result) throws XmlDocumentCheckedException
+    {
+        // Concurrent transforms of the same document only read it.
+        XmlDocumentContext.get(xmlNode.getDocument()).ensureExpanded();
 
-                return new XmlDocument(doc, doc);
-            }
-            catch (Exception e)
-            {
-                throw new XmlDocumentCheckedException("XmlDocument.transfromNodeFromXmlDocumentToXmlDocument", e);
-            }
+        transformSource(new DOMSource(xmlNode.getDocument()), result);
+    }
+
+    /**
+     * Transforms the source with a Transformer borrowed from the pool.
+     *
+     * @param source The source of the XML document.
+     * @param result The result the output is written to.
+     * @throws XmlDocumentCheckedException If the transform fails.
+     */
+    private void transformSource(Source source, Result result) throws XmlDocumentCheckedException
+    {
+        final String debugString = getClass().getName() + ".transformSource(Source, Result)";
+
+        TransformerPool pool = getTransformerPool();
+        Transformer transformer = pool.borrow();
+
+        try
+        {
+            transformer.transform(source, result);
+        }
+        catch (Exception e)
+        {
+            throw new XmlDocumentCheckedException(XmlDocumentCheckedException.Codes.GENERAL_ERROR, e, debugString, e);
+        }
+        finally
+        {
+            pool.release(transformer);
         }
     }
 }
-
@@ -72,6 +72,14 @@ public class XmlDocumentCheckedException extends NfbCheckedException
         /** WARNING message with a code of XmlDocument:InvalidIndex: Invalid index. */
         public static final Code INVALID_INDEX = new Code("XmlDocument:InvalidIndex",
                                                           "Invalid index.", Severity.WARNING);
+
+        /** WARNING message with a code of XmlDocument:TransformerPoolExhausted: No transformer became available within {0} milliseconds. */
+        public static final Code TRANSFORMER_POOL_EXHAUSTED = new Code("XmlDocument:TransformerPoolExhausted",
+                                                                       "No transformer became available within {0} milliseconds.", Severity.WARNING);
+
+        /** WARNING message with a code of XmlDocument:ValidationFailed: The document is not valid: {0} */
+        public static final Code VALIDATION_FAILED = new Code("XmlDocument:ValidationFailed",
+                                                              "The document is not valid: {0}", Severity.WARNING);
     }
 
     /**
@@ -130,6 +138,8 @@ public class XmlDocumentCheckedException extends NfbCheckedException
         registerCode(Codes.ERROR_ON_CHILD_REMOVE);
         registerCode(Codes.PARENT_NOT_FOUND);
         registerCode(Codes.INVALID_INDEX);
+        registerCode(Codes.TRANSFORMER_POOL_EXHAUSTED);
+        registerCode(Codes.VALIDATION_FAILED);
     }
 
     /**
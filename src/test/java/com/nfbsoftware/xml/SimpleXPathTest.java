@@ -0,0 +1,289 @@
+package com.nfbsoftware.xml;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.xpath.CachedXPathAPI;
+import org.apache.xpath.XPathContext;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * Checks the direct DOM evaluator for simple XPath expressions against Xalan.
+ */
+public class SimpleXPathTest extends TestCase
+{
+    /**
+     * A document with nested elements of the same name, mixed content and
+     * names in and out of namespaces.
+     */
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<ROOT xmlns:n=\"urn:n\">"
+            + "<one id=\"1\"><a id=\"a1\"><b>b1</b><a id=\"a2\"><b>b2</b><c>x<!-- note --><b>b3</b></c></a><b>b4</b></a></one>"
+            + "<one id=\"2\" n:id=\"3\"><name>first</name><name>se<![CDATA[cond]]></name><a id=\"a3\" n:id=\"a4\"><b>b5</b></a></one>"
+            + "<n:one id=\"4\"><a id=\"a5\"><b>b6</b></a></n:one>"
+            + "<one xmlns=\"urn:d\" id=\"5\"><a id=\"a6\"><b>b7</b></a></one>"
+            + "<?pi a?>text<two><one id=\"6\"><name>first</name></one></two>"
+            + "</ROOT>";
+
+    /**
+     * Expressions in the simple subset.
+     */
+    private static final String[] SIMPLE = {
+        "one", "one/a", "one/a/b", "ROOT", "ROOT/one", "/ROOT", "/ROOT/one/a", "/ROOT/*", "*", "*/*", "*/*/*",
+        "//one", "//a", "//b", "//*", "//a//b", "//a/b", "//a/a/b", "//a//a//b", "//c/b", "one//b", "ROOT//b",
+        "//one[@id='1']", "//one[@id=\"2\"]", "//one[@id='4']", "//one[@id='5']", "//one[@id='3']",
+        "//a[@id='a4']", "//*[@id='a2']", "//*[@id='a3']/b", "//one[name='first']", "//one[name='second']",
+        "//a[b='b2']", "//a[b='b4']", "//a[c='xb3']", "//one[name='first']/a", "/ROOT/one[@id='2']/name",
+        "//name", "//two//one", "//two/one/name", "//missing", "missing/b", "//one[@missing='1']", "//n",
+        "a", "a/b", "//a[b='b1']//b"
+    };
+
+    /**
+     * Expressions outside the simple subset, left to Xalan.
+     */
+    private static final String[] NOT_SIMPLE = {
+        ".", "..", "/", "//", "one/", "one//", "@id", "one/@id", "text()", "//b/text()", "//n:one", "child::one",
+        "one[1]", "one[@id]", "one[@id!='1']", "one[@id='1'][name='first']", "one | two", "one [@id='1']",
+        "//one[@id='1]", "count(//one)", "//one[@n:id='3']", "//one[@xmlns='urn:d']", "1one", "//-a"
+    };
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimpleXPathTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimpleXPathTest.class );
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testParse() throws Exception
+    {
+        System.out.println("====> Starting SimpleXPathTest.testParse");
+
+        for (String expression : SIMPLE)
+        {
+            Assert.assertNotNull(expression, SimpleXPath.parse(expression));
+        }
+
+        for (String expression : NOT_SIMPLE)
+        {
+            Assert.assertNull(expression, SimpleXPath.parse(expression));
+        }
+
+        System.out.println("====> Finished SimpleXPathTest.testParse");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testSameAsXalan() throws Exception
+    {
+        System.out.println("====> Starting SimpleXPathTest.testSameAsXalan");
+
+        compare(parse(XML, true), true);
+
+        // Prefixed names without namespace support are left to Xalan
+        compare(parse(XML, false), false);
+
+        // Elements created without namespace support
+        IXmlDocument doc = new XmlDocument();
+        IXmlElement root = doc.createChild("ROOT");
+        IXmlElement one = root.createChild("one");
+        one.setAttribute("id", "1");
+        one.createChild("name", "first");
+        one.createChild("a").createChild("b", "b1");
+        root.createChild("one").createChild("a").createChild("a").createChild("b", "b2");
+
+        compare(doc.getDocument(), true);
+
+        System.out.println("====> Finished SimpleXPathTest.testSameAsXalan");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testSelectChildren() throws Exception
+    {
+        System.out.println("====> Starting SimpleXPathTest.testSelectChildren");
+
+        IXmlDocument doc = new XmlDocument(XML);
+        IXmlElement root = doc.getRootElement();
+
+        // The b in the default namespace is not selected
+        Assert.assertEquals(6, root.selectChildren("//b").size());
+        Assert.assertEquals("b2", root.selectChild("//a[@id='a2']/b").getValue());
+        Assert.assertEquals(2, root.selectChildren("//one[name='first']").size());
+
+        // Relative paths from an element removed from the document
+        IXmlElement removed = root.removeChildWithXpath("one[@id='1']");
+        Assert.assertEquals(4, removed.selectChildren("a//b").size());
+        Assert.assertEquals(2, root.selectChildren("//b").size());
+
+        System.out.println("====> Finished SimpleXPathTest.testSelectChildren");
+    }
+
+    /**
+     * Compares the time Xalan and the direct evaluator take; a benchmark, so it
+     * only runs when the <code>benchmark</code> system property is true, as
+     * with <code>mvn test -Dbenchmark=true</code>.
+     *
+     * @throws Exception
+     */
+    public void testSpeed() throws Exception
+    {
+        if (!Boolean.getBoolean("benchmark"))
+        {
+            return;
+        }
+
+        System.out.println("====> Starting SimpleXPathTest.testSpeed");
+
+        StringBuilder xml = new StringBuilder("<ROOT><Elements>");
+
+        for (int i = 0; i < 2000; i++)
+        {
+            xml.append("<Element id=\"").append(i).append("\"><name>Name ").append(i).append("</name></Element>");
+        }
+
+        xml.append("</Elements></ROOT>");
+
+        Document document = parse(xml.toString(), true);
+        String[] expressions = { "Elements/Element/name", "//Element[@id='1000']", "//Element[name='Name 1000']", "//name" };
+
+        for (String expression : expressions)
+        {
+            CompiledXPath xpath = new CompiledXPath(expression, document);
+            SimpleXPath simple = SimpleXPath.parse(expression);
+            int count = 100;
+
+            // Xalan reuses its context, and the DTM in it, as documents do between changes.
+            XPathContext context = new CachedXPathAPI().getXPathContext();
+            int expected = xpath.selectNodeList(context, document.getDocumentElement()).getLength();
+            Assert.assertEquals(expression, expected, simple.select(document.getDocumentElement()).getLength());
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < count; i++)
+            {
+                xpath.selectNodeList(context, document.getDocumentElement()).getLength();
+            }
+
+            long xalan = System.nanoTime() - start;
+            start = System.nanoTime();
+
+            for (int i = 0; i < count; i++)
+            {
+                simple.select(document.getDocumentElement()).getLength();
+            }
+
+            long direct = System.nanoTime() - start;
+
+            System.out.println(expression + ": Xalan " + (xalan / count / 1000) + " us, direct " + (direct / count / 1000) + " us");
+        }
+
+        System.out.println("====> Finished SimpleXPathTest.testSpeed");
+    }
+
+    /**
+     * Checks that every simple expression selects the same nodes as Xalan from
+     * every element and the document.
+     *
+     * @param document The document.
+     * @param allSimple Whether every expression must be evaluated without Xalan.
+     * @throws Exception
+     */
+    private static void compare(Document document, boolean allSimple) throws Exception
+    {
+        List<Node> contexts = new ArrayList<Node>();
+        contexts.add(document);
+
+        NodeList elements = document.getElementsByTagName("*");
+
+        for (int i = 0; i < elements.getLength(); i++)
+        {
+            contexts.add(elements.item(i));
+        }
+
+        for (String expression : SIMPLE)
+        {
+            SimpleXPath simple = SimpleXPath.parse(expression);
+
+            if (simple == null)
+            {
+                continue;
+            }
+
+            for (Node context : contexts)
+            {
+                List<Node> expected = nodes(new CompiledXPath(expression, context).selectNodeList(new CachedXPathAPI().getXPathContext(), context));
+                NodeList actual = simple.select(context);
+
+                if (actual == null)
+                {
+                    Assert.assertFalse(expression, allSimple);
+                    continue;
+                }
+
+                Assert.assertEquals(expression + " from " + context.getNodeName(), expected, nodes(actual));
+            }
+        }
+    }
+
+    /**
+     *
+     * @param xml The XML.
+     * @param namespaceAware Whether to parse with namespace support.
+     * @return The document.
+     * @throws Exception
+     */
+    private static Document parse(String xml, boolean namespaceAware) throws Exception
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(namespaceAware);
+
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+
+    /**
+     *
+     * @param nodes The nodes.
+     * @return The same nodes in a List, which compares them by identity.
+     */
+    private static List<Node> nodes(NodeList nodes)
+    {
+        List<Node> list = new ArrayList<Node>();
+
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            list.add(nodes.item(i));
+        }
+
+        return list;
+    }
+}
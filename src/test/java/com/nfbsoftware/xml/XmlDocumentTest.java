@@ -1,13 +1,28 @@
 package com.nfbsoftware.xml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import junit.framework.Assert;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+
 /**
  * Unit test for the XML Document
  */
@@ -441,4 +456,670 @@ public class XmlDocumentTest extends TestCase
             Assert.fail("testGetCDATASection Failure");
         }
     }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testXPathExpressionCache() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testXPathExpressionCache");
+        
+        StringBuffer xmlString = new StringBuffer();
+        xmlString.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xmlString.append("<ROOT xmlns:x=\"urn:x\" xmlns:y=\"urn:y\">");
+        xmlString.append("  <x:element id=\"1\">Element-100</x:element>");
+        xmlString.append("  <y:element id=\"1\">Element-200</y:element>");
+        xmlString.append("</ROOT>");
+        
+        IXmlDocument doc = new XmlDocument(xmlString.toString());
+        IXmlElement root = doc.getRootElement();
+        
+        XPathExpressionCache.clear();
+        XPathExpressionCache.resetStatistics();
+        
+        for (int i = 0; i < 5; i++)
+        {
+            Assert.assertEquals("Element-100", root.selectChild("//x:element[@id='1']").getValue());
+            Assert.assertEquals("Element-200", root.selectChild("//y:element[@id='1']").getValue());
+        }
+        
+        Assert.assertEquals(2, XPathExpressionCache.size());
+        Assert.assertEquals(2, XPathExpressionCache.getMissCount());
+        Assert.assertEquals(8, XPathExpressionCache.getHitCount());
+        
+        System.out.println("====> Finished XmlDocumentTest.testXPathExpressionCache");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testLiveViews() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testLiveViews");
+        
+        StringBuffer xmlString = new StringBuffer();
+        xmlString.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xmlString.append("<ROOT>");
+        xmlString.append("  <one>");
+        xmlString.append("      <name>My Name</name>");
+        xmlString.append("  </one>");
+        xmlString.append("</ROOT>");
+        
+        IXmlDocument doc = new XmlDocument(xmlString.toString());
+        IXmlElement root = doc.getRootElement();
+        
+        // By default children are copies
+        Assert.assertFalse(doc.isLiveViews());
+        root.getChild("one").getChild("name").setValue("Copied Name");
+        Assert.assertEquals("My Name", root.getChildValue("one/name"));
+        
+        doc.setLiveViews(true);
+        
+        IXmlElement one = root.getChild("one");
+        Assert.assertSame(root.getRootNode(), one.getRootNode().getParentNode());
+        Assert.assertSame(one.getRootNode(), root.getChild(0).getRootNode());
+        Assert.assertSame(one.getRootNode(), root.getChildren().iterator().next().getRootNode());
+        
+        one.getChild("name").setValue("Live Name");
+        Assert.assertEquals("Live Name", root.getChildValue("one/name"));
+        
+        // Explicit copies stay independent
+        IXmlDocument copy = one.clone(true);
+        copy.getChild("name").setValue("Cloned Name");
+        Assert.assertEquals("Live Name", root.getChildValue("one/name"));
+        
+        System.out.println("====> Finished XmlDocumentTest.testLiveViews");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testChildIteration() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testChildIteration");
+        
+        IXmlDocument doc = new XmlDocument();
+        IXmlElement records = doc.createChild("Records", "");
+        
+        for (int i = 0; i < 1000; i++)
+        {
+            records.createChild((i % 2 == 0) ? "Even" : "Odd", String.valueOf(i));
+        }
+        
+        int count = 0;
+        for (IXmlElement record : records.getChildElements())
+        {
+            Assert.assertEquals(String.valueOf(count), record.getValue());
+            count++;
+        }
+        Assert.assertEquals(1000, count);
+        
+        count = 0;
+        for (IXmlElement record : records.getChildElements("Odd"))
+        {
+            Assert.assertEquals(String.valueOf(count * 2 + 1), record.getValue());
+            count++;
+        }
+        Assert.assertEquals(500, count);
+        Assert.assertEquals(500, records.getChildrenByName("Even").size());
+        
+        // Indexed access follows mutations
+        Assert.assertEquals(1000, records.getChildCount());
+        Assert.assertEquals("999", records.getChild(999).getValue());
+        records.removeChild(0);
+        Assert.assertEquals(999, records.getChildCount());
+        Assert.assertEquals("1", records.getChild(0).getValue());
+        records.createChild("Odd", "1001");
+        Assert.assertEquals("1001", records.getChild(999).getValue());
+        
+        // and changes made directly to the DOM
+        Node node = records.getRootNode();
+        Element replacement = node.getOwnerDocument().createElement("Replaced");
+        replacement.setTextContent("replaced");
+        node.replaceChild(replacement, node.getFirstChild());
+        Assert.assertEquals(1000, records.getChildCount());
+        Assert.assertEquals("replaced", records.getChild(0).getValue());
+        
+        node.insertBefore(node.getLastChild(), node.getFirstChild());
+        Assert.assertEquals("1001", records.getChild(0).getValue());
+        Assert.assertEquals("replaced", records.getChild(1).getValue());
+        
+        Node text = node.insertBefore(node.getOwnerDocument().createTextNode("text"), node.getFirstChild());
+        Assert.assertEquals(1000, records.getChildCount());
+        Element added = node.getOwnerDocument().createElement("Added");
+        added.setTextContent("added");
+        node.replaceChild(added, text);
+        Assert.assertEquals(1001, records.getChildCount());
+        records.removeChild(0);
+        Assert.assertEquals("1001", records.getChild(0).getValue());
+        
+        System.out.println("====> Finished XmlDocumentTest.testChildIteration");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testByteLoading() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testByteLoading");
+        
+        String value = "caf\u00e9 \u20ac";
+        byte[] utf8 = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><ROOT><one>" + value + "</one></ROOT>").getBytes("UTF-8");
+        byte[] latin1 = ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><ROOT><one>caf\u00e9</one></ROOT>").getBytes("ISO-8859-1");
+        
+        // The parser, not the platform charset, decides how the bytes are decoded
+        Assert.assertEquals(value, new XmlDocument(new ByteArrayInputStream(utf8)).getRootElement().getChildValue("one"));
+        Assert.assertEquals("caf\u00e9", new XmlDocument(new ByteArrayInputStream(latin1)).getRootElement().getChildValue("one"));
+        Assert.assertEquals(value, new XmlDocument(utf8).getRootElement().getChildValue("one"));
+        
+        ByteBuffer heap = ByteBuffer.allocate(utf8.length + 4);
+        heap.put(new byte[] { 'x', 'x' }).put(utf8).flip().position(2);
+        Assert.assertEquals(value, new XmlDocument(heap).getRootElement().getChildValue("one"));
+        Assert.assertEquals(2, heap.position());
+        
+        ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length);
+        direct.put(utf8).flip();
+        Assert.assertEquals(value, new XmlDocument(direct).getRootElement().getChildValue("one"));
+        Assert.assertEquals(0, direct.position());
+        
+        Path path = Files.createTempFile("XmlDocumentTest", ".xml");
+        try
+        {
+            Files.write(path, latin1);
+            IXmlDocument doc = new XmlDocument(path);
+            Assert.assertEquals("caf\u00e9", doc.getRootElement().getChildValue("one"));
+            
+            doc.load(utf8);
+            Assert.assertEquals(value, doc.getRootElement().getChildValue("one"));
+        }
+        finally
+        {
+            Files.delete(path);
+        }
+        
+        System.out.println("====> Finished XmlDocumentTest.testByteLoading");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testFileLoading() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testFileLoading");
+        
+        // A file read whole, taking several channel reads, and one parsed as it is read
+        for (int count : new int[] { 5000, 50000 })
+        {
+            StringBuffer xmlString = new StringBuffer();
+            xmlString.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            xmlString.append("<ROOT>");
+            for (int i = 0; i < count; i++)
+            {
+                xmlString.append("<element id=\"" + i + "\">caf\u00e9-" + i + "</element>");
+            }
+            xmlString.append("</ROOT>");
+            
+            Path path = Files.createTempFile("XmlDocumentTest", ".xml");
+            try
+            {
+                Files.write(path, xmlString.toString().getBytes("UTF-8"));
+                Assert.assertEquals(count > 5000, Files.size(path) >= XmlDocument.STREAMING_THRESHOLD);
+                Assert.assertTrue(Files.size(path) > 64 * 1024);
+                
+                IXmlDocument doc = new XmlDocument(path);
+                Assert.assertEquals(count, doc.getRootElement().getChildCount());
+                Assert.assertEquals("caf\u00e9-" + (count - 1), doc.getRootElement().getChild(count - 1).getValue());
+                
+                doc = new XmlDocument(path.toFile());
+                Assert.assertEquals(count, doc.getRootElement().getChildCount());
+                
+                doc.load(path.toFile(), "UTF-8");
+                Assert.assertEquals("caf\u00e9-0", doc.getRootElement().getChild(0).getValue());
+                
+                // The file is not held open, so it can be written back and deleted at once
+                doc.setLiveViews(true);
+                doc.getRootElement().getChild(0).setValue("changed");
+                doc.write(path.toFile());
+                Assert.assertEquals("changed", new XmlDocument(path).getRootElement().getChild(0).getValue());
+            }
+            finally
+            {
+                Files.delete(path);
+            }
+        }
+        
+        System.out.println("====> Finished XmlDocumentTest.testFileLoading");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testSerialization() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testSerialization");
+        
+        String declaration = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+        
+        IXmlDocument doc = new XmlDocument("<ROOT a=\"&lt;&amp;&quot;\"><A>1 &lt; 2 &amp; caf\u00e9 \ud83d\ude00</A><B/><C>text<D/>tail</C></ROOT>");
+        
+        Assert.assertEquals(declaration
+                + "<ROOT a=\"&lt;&amp;&quot;\">\n"
+                + "    <A>1 &lt; 2 &amp; caf\u00e9 \ud83d\ude00</A>\n"
+                + "    <B/>\n"
+                + "    <C>text<D/>tail</C>\n"
+                + "</ROOT>\n", doc.toString());
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        doc.write(output);
+        
+        Assert.assertEquals(declaration + "<ROOT a=\"&lt;&amp;&quot;\"><A>1 &lt; 2 &amp; caf\u00e9 \ud83d\ude00</A><B/><C>text<D/>tail</C></ROOT>", new String(output.toByteArray(), "UTF-8"));
+        
+        // Both forms read back to the same content
+        Assert.assertEquals("1 < 2 & caf\u00e9 \ud83d\ude00", new XmlDocument(output.toByteArray()).getRootElement().getChildValue("A"));
+        Assert.assertEquals("<&\"", new XmlDocument(doc.toString()).getRootElement().getAttribute("a"));
+        
+        // An element written on its own keeps the namespaces declared above it
+        doc = new XmlDocument("<p:ROOT xmlns:p=\"urn:p\"><p:A>1</p:A></p:ROOT>");
+        Assert.assertEquals(declaration + "<p:A xmlns:p=\"urn:p\">1</p:A>", new XmlSerializer().serializeToString(doc.getDocument().getDocumentElement().getFirstChild(), 0));
+        
+        System.out.println("====> Finished XmlDocumentTest.testSerialization");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testBufferSerialization() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testBufferSerialization");
+        
+        // Long enough text to be written in several pieces
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; i < 3000; i++)
+        {
+            text.append("a&amp;b \ud83d\ude00 ");
+        }
+        
+        IXmlDocument doc = new XmlDocument("<ROOT><A id=\"1\">" + text + "</A><B/></ROOT>");
+        
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        doc.write(expected);
+        
+        // Resumed each time the small buffer fills
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(100);
+        XmlSerialization serialization = doc.createSerialization();
+        
+        boolean complete;
+        do
+        {
+            complete = serialization.writeTo(buffer);
+            
+            buffer.flip();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            actual.write(bytes);
+            buffer.clear();
+        }
+        while (!complete);
+        
+        Assert.assertTrue(serialization.isComplete());
+        Assert.assertEquals(expected.size(), serialization.getBytesWritten());
+        Assert.assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+        
+        Path path = Files.createTempFile("XmlDocumentTest", ".xml");
+        try
+        {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE))
+            {
+                doc.write(channel);
+            }
+            
+            Assert.assertTrue(Arrays.equals(expected.toByteArray(), Files.readAllBytes(path)));
+        }
+        finally
+        {
+            Files.delete(path);
+        }
+        
+        System.out.println("====> Finished XmlDocumentTest.testBufferSerialization");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testParallelSerialization() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testParallelSerialization");
+        
+        StringBuffer xmlString = new StringBuffer();
+        xmlString.append("<!-- before --><ROOT>\n");
+        for (int i = 0; i < 1000; i++)
+        {
+            xmlString.append("  <Record id=\"" + i + "\"><Name>caf\u00e9 &amp; " + i + "</Name><Items><Item/><Item>" + i + "</Item></Items></Record>\n");
+            if (i % 100 == 0)
+            {
+                xmlString.append("  <!-- " + i + " -->\n");
+            }
+        }
+        xmlString.append("</ROOT><?after?>");
+        
+        IXmlDocument doc = new XmlDocument(xmlString.toString());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+            doc.write(sequential);
+            
+            ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+            doc.write(parallel, pool);
+            
+            Assert.assertTrue(Arrays.equals(sequential.toByteArray(), parallel.toByteArray()));
+            
+            // Indentation is the same too
+            XmlSerializer serializer = new XmlSerializer(new XmlIndenter(2));
+            
+            sequential.reset();
+            serializer.serialize(doc.getDocument(), sequential);
+            
+            parallel.reset();
+            serializer.serialize(doc.getDocument(), parallel, pool);
+            
+            Assert.assertTrue(Arrays.equals(sequential.toByteArray(), parallel.toByteArray()));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        
+        System.out.println("====> Finished XmlDocumentTest.testParallelSerialization");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testPreserveSource() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testPreserveSource");
+        
+        String declaration = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+        String body = "<ROOT  a='1'>\n  <one x = \"caf&#233;\"><Name>first</Name></one>\n  <two><Name>second</Name><Empty></Empty></two>\n</ROOT>";
+        
+        XmlDocument doc = new XmlDocument();
+        doc.setPreserveSource(true);
+        doc.load((declaration + body).getBytes("UTF-8"));
+        doc.setLiveViews(true);
+        
+        // Unchanged, the document is written exactly as it was read
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        doc.write(output);
+        Assert.assertEquals(declaration + body, new String(output.toByteArray(), "UTF-8"));
+        
+        // Only the changed element and its ancestors are serialized again
+        doc.getRootElement().getChild("two").getChild("Name").setValue("changed");
+        
+        String expected = declaration + "<ROOT a=\"1\">\n  <one x = \"caf&#233;\"><Name>first</Name></one>\n  <two><Name>changed</Name><Empty></Empty></two>\n</ROOT>";
+        
+        output.reset();
+        doc.write(output);
+        Assert.assertEquals(expected, new String(output.toByteArray(), "UTF-8"));
+        
+        output.reset();
+        doc.write(output, new ForkJoinPool(4));
+        Assert.assertEquals(expected, new String(output.toByteArray(), "UTF-8"));
+        
+        ByteBuffer buffer = ByteBuffer.allocate(7);
+        output.reset();
+        
+        for (XmlSerialization serialization = doc.createSerialization(); !serialization.isComplete(); buffer.clear())
+        {
+            serialization.writeTo(buffer);
+            output.write(buffer.array(), 0, buffer.position());
+        }
+        
+        Assert.assertEquals(expected, new String(output.toByteArray(), "UTF-8"));
+        
+        // Indented output is always serialized
+        Assert.assertEquals("caf\u00e9", new XmlDocument(doc.toString()).getRootElement().getChild("one").getAttribute("x"));
+        Assert.assertTrue(doc.toString().contains("<one x=\"caf\u00e9\">"));
+        
+        // A document whose elements cannot be matched with its source is still written in full
+        doc = new XmlDocument();
+        doc.setPreserveSource(true);
+        doc.load("<!DOCTYPE ROOT [<!ENTITY e \"<A>1</A>\">]><ROOT>&e;</ROOT>");
+        
+        output.reset();
+        doc.write(output);
+        Assert.assertTrue(new String(output.toByteArray(), "UTF-8").endsWith("<ROOT><A>1</A></ROOT>"));
+        
+        System.out.println("====> Finished XmlDocumentTest.testPreserveSource");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testCompiledPaths() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testCompiledPaths");
+        
+        XmlPath path = XmlPath.compile("/A//B/");
+        Assert.assertEquals(2, path.getLength());
+        Assert.assertEquals("B", path.getName(1));
+        
+        IXmlDocument doc = new XmlDocument("<ROOT><A/><A><B id=\"2\">two</B></A></ROOT>");
+        IXmlElement root = doc.getRootElement();
+        
+        // The first A has no B, so the second one is used
+        Assert.assertEquals("two", root.getChildValue(path));
+        Assert.assertEquals("two", root.getChildValue("A/B"));
+        Assert.assertEquals("2", root.getChildAttribute(path, "id"));
+        Assert.assertEquals("two", root.getChild(path).getValue());
+        Assert.assertNull(root.getChild(XmlPath.compile("A/C")));
+        
+        // String paths are compiled once and cached
+        root.getChildValue("A/B/C/D");
+        int cached = XmlPath.getCacheSize();
+        root.getChildValue("A/B/C/D");
+        Assert.assertEquals(cached, XmlPath.getCacheSize());
+        
+        IXmlElement created = root.createChildren(XmlPath.compile("A/C/D"));
+        Assert.assertEquals("D", created.getName());
+        Assert.assertNotNull(root.getChild("A/C/D"));
+        
+        root.removeChild(path);
+        Assert.assertNull(root.getChild(path));
+        
+        System.out.println("====> Finished XmlDocumentTest.testCompiledPaths");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testNameIndex() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testNameIndex");
+        
+        String xml = "<ROOT><A><C>1</C></A><A><B>2</B><C><B>3</B></C></A><n:B xmlns:n=\"urn:n\">4</n:B><B xmlns=\"urn:d\">5</B></ROOT>";
+        
+        IXmlDocument plain = new XmlDocument(xml);
+        IXmlDocument indexed = new XmlDocument(xml);
+        indexed.setNameIndexed(true);
+        Assert.assertTrue(indexed.isNameIndexed());
+        
+        // The same answers with and without the index
+        Assert.assertEquals(values(plain.getDescendantsByName("B")), values(indexed.getDescendantsByName("B")));
+        Assert.assertEquals(Arrays.asList("2", "3", "5"), values(indexed.getDescendantsByName("B")));
+        Assert.assertEquals(Arrays.asList("3"), values(indexed.getRootElement().getChild(1).getDescendantsByName("C").get(0).getDescendantsByName("B")));
+        
+        Assert.assertEquals(plain.getRootElement().getChildValue("A/B"), indexed.getRootElement().getChildValue("A/B"));
+        Assert.assertEquals("3", indexed.getRootElement().getChildValue("A/C/B"));
+        Assert.assertEquals("", indexed.getRootElement().getChildValue("C/B"));
+        
+        Assert.assertEquals(values(plain.getRootElement().selectChildren("//B")), values(indexed.getRootElement().selectChildren("//B")));
+        Assert.assertEquals(Arrays.asList("2", "3"), values(indexed.getRootElement().selectChildren("//B")));
+        
+        // The index follows changes to the document's structure
+        indexed.setLiveViews(true);
+        indexed.getRootElement().getChild(0).createChild("B", "6");
+        Assert.assertEquals(Arrays.asList("6", "2", "3", "5"), values(indexed.getDescendantsByName("B")));
+        Assert.assertEquals("6", indexed.getRootElement().getChildValue("A/B"));
+        
+        indexed.getRootElement().removeChild("A");
+        Assert.assertEquals(Arrays.asList("2", "3", "5"), values(indexed.getDescendantsByName("B")));
+        
+        System.out.println("====> Finished XmlDocumentTest.testNameIndex");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testKeyIndex() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testKeyIndex");
+        
+        String xml = "<ROOT><Item id=\"1\"><Id>a</Id>one</Item><Item id=\"2\"><Id>b</Id><Id>c</Id>two</Item><Group><Item id=\"1\">three</Item></Group><Other id=\"1\">four</Other></ROOT>";
+        
+        IXmlDocument plain = new XmlDocument(xml);
+        IXmlDocument keyed = new XmlDocument(xml);
+        keyed.setLiveViews(true);
+        keyed.declareKey("Item", "@id");
+        keyed.declareKey("Item", "Id");
+        keyed.declareKey("Item", "@id");
+        
+        // Lookups by the first key declared for the elements, or by a given key
+        Assert.assertEquals(Arrays.asList("one", "three"), values(keyed.getByKey("Item", "1")));
+        Assert.assertEquals(Arrays.asList("two"), values(keyed.getByKey("Item", "Id", "c")));
+        Assert.assertTrue(keyed.getByKey("Item", "Id", "d").isEmpty());
+        
+        try
+        {
+            keyed.getByKey("Other", "1");
+            fail("Expected an exception for an undeclared key");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            // expected
+        }
+        
+        // XPath queries of the key's form give the same answers with and without it
+        Assert.assertEquals(values(plain.getRootElement().selectChildren("//Item[@id='1']")), values(keyed.getRootElement().selectChildren("//Item[@id='1']")));
+        Assert.assertEquals(values(plain.getRootElement().selectChildren("//Item[Id=\"b\"]")), values(keyed.getRootElement().selectChildren("//Item[Id=\"b\"]")));
+        Assert.assertEquals("two", keyed.getRootElement().selectChild("//Item[@id='2']").getValue());
+        Assert.assertEquals(values(plain.getRootElement().selectChildren("//Other[@id='1']")), values(keyed.getRootElement().selectChildren("//Other[@id='1']")));
+        
+        // Changed values are updated in place, keeping document order
+        keyed.getByKey("Item", "2").get(0).setAttribute("id", "1");
+        Assert.assertEquals(Arrays.asList("one", "two", "three"), values(keyed.getByKey("Item", "1")));
+        Assert.assertTrue(keyed.getByKey("Item", "2").isEmpty());
+        
+        keyed.getByKey("Item", "Id", "a").get(0).getChild("Id").setValue("z");
+        Assert.assertEquals(Arrays.asList("one"), values(keyed.getByKey("Item", "Id", "z")));
+        Assert.assertTrue(keyed.getByKey("Item", "Id", "a").isEmpty());
+        
+        // Added and removed elements are seen too
+        keyed.getRootElement().createChild("Item", "five").setAttribute("id", "1");
+        Assert.assertEquals(Arrays.asList("one", "two", "three", "five"), values(keyed.getByKey("Item", "1")));
+        
+        keyed.getRootElement().removeChild("Group");
+        Assert.assertEquals(Arrays.asList("one", "two", "five"), values(keyed.getRootElement().selectChildren("//Item[@id='1']")));
+        
+        System.out.println("====> Finished XmlDocumentTest.testKeyIndex");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testXPathAfterChanges() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testXPathAfterChanges");
+        
+        IXmlDocument doc = new XmlDocument("<ROOT><A id=\"1\">one</A><A id=\"2\">two</A></ROOT>");
+        doc.setLiveViews(true);
+        doc.setXPathContextReused(true);
+        IXmlElement root = doc.getRootElement();
+        
+        // Repeated queries reuse the document's XPath context
+        Assert.assertEquals(Arrays.asList("one", "two"), values(root.selectChildren("//A")));
+        Assert.assertEquals(Arrays.asList("two"), values(root.selectChildren("//A[@id='2']")));
+        
+        // and see every change made since the last one
+        root.createChild("A", "three").setAttribute("id", "2");
+        Assert.assertEquals(Arrays.asList("two", "three"), values(root.selectChildren("//A[@id='2']")));
+        
+        root.selectChild("//A[.='one']").setAttribute("id", "2");
+        Assert.assertEquals(Arrays.asList("one", "two", "three"), values(root.selectChildren("//A[@id='2']")));
+        
+        root.selectChild("//A[.='two']").setValue("four");
+        Assert.assertEquals(Arrays.asList("one", "four", "three"), values(root.selectChildren("//A")));
+        
+        root.removeChildWithXpath("//A[.='one']");
+        Assert.assertEquals(Arrays.asList("four", "three"), values(root.selectChildren("//A[@id='2']")));
+        
+        // Queries from an element removed from the document still work
+        IXmlElement removed = root.removeChild("A");
+        Assert.assertEquals("four", removed.selectChild(".").getValue());
+        Assert.assertEquals(Arrays.asList("three"), values(root.selectChildren("//A")));
+        
+        System.out.println("====> Finished XmlDocumentTest.testXPathAfterChanges");
+    }
+    
+    /**
+     * 
+     * @throws Exception
+     */
+    public void testXPathAfterDomChanges() throws Exception
+    {
+        System.out.println("====> Starting XmlDocumentTest.testXPathAfterDomChanges");
+        
+        IXmlDocument doc = new XmlDocument("<r><a>1</a><a>2</a><b/></r>");
+        IXmlElement root = doc.getRootElement();
+        Assert.assertFalse(doc.isXPathContextReused());
+        
+        // By default every query sees the DOM as it is
+        Assert.assertEquals(2, root.selectChildren("//a[. != 'zz']").size());
+        
+        Document dom = doc.getDocument();
+        dom.getDocumentElement().appendChild(dom.createElement("a")).setTextContent("3");
+        Assert.assertEquals(3, root.selectChildren("//a[. != 'zz']").size());
+        
+        // A reused context sees DOM changes once it is dropped by a change made through the document
+        doc.setXPathContextReused(true);
+        Assert.assertEquals(3, root.selectChildren("//a[. != 'zz']").size());
+        
+        dom.getDocumentElement().appendChild(dom.createElement("a")).setTextContent("4");
+        root.createChild("c");
+        Assert.assertEquals(4, root.selectChildren("//a[. != 'zz']").size());
+        
+        System.out.println("====> Finished XmlDocumentTest.testXPathAfterDomChanges");
+    }
+    
+    /**
+     * 
+     * @param elements The elements.
+     * @return The value of each element.
+     * @throws Exception
+     */
+    private static List<String> values(List<IXmlElement> elements) throws Exception
+    {
+        List<String> values = new ArrayList<String>();
+        
+        for (IXmlElement element : elements)
+        {
+            values.add(element.getValue());
+        }
+        
+        return values;
+    }
 }
@@ -0,0 +1,193 @@
+package com.nfbsoftware.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the streaming record reader
+ */
+public class XmlRecordReaderTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public XmlRecordReaderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( XmlRecordReaderTest.class );
+    }
+
+    /**
+     *
+     * @return A document with three records under ROOT/one/Elements and one decoy elsewhere.
+     */
+    private static String createInput()
+    {
+        StringBuffer xmlString = new StringBuffer();
+        xmlString.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xmlString.append("<ROOT xmlns:ns=\"urn:test\">");
+        xmlString.append("  <one>");
+        xmlString.append("    <Elements>");
+        xmlString.append("      <Element id=\"1\"><Name>first</Name><ns:Code>A</ns:Code></Element>");
+        xmlString.append("      <Element id=\"2\"><Name>second</Name><ns:Code>B</ns:Code></Element>");
+        xmlString.append("      <Element id=\"3\"><Name><![CDATA[third]]></Name><ns:Code>C</ns:Code></Element>");
+        xmlString.append("    </Elements>");
+        xmlString.append("  </one>");
+        xmlString.append("  <two>");
+        xmlString.append("    <Elements><Element id=\"4\"><Name>decoy</Name></Element></Elements>");
+        xmlString.append("  </two>");
+        xmlString.append("</ROOT>");
+
+        return xmlString.toString();
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testReadRecords() throws Exception
+    {
+        System.out.println("====> Starting XmlRecordReaderTest.testReadRecords");
+
+        XmlRecordReader reader = new XmlRecordReader(new StringReader(createInput()), "ROOT/one/Elements/Element");
+
+        try
+        {
+            int count = 0;
+
+            while (reader.hasNext())
+            {
+                IXmlElement record = reader.next();
+                count++;
+
+                Assert.assertEquals("Element", record.getName());
+                Assert.assertEquals(String.valueOf(count), record.getAttribute("id"));
+                Assert.assertEquals(2, record.getChildCount());
+
+                // Prefixes declared above the record still resolve
+                Assert.assertEquals(1, record.selectChildren("ns:Code").size());
+            }
+
+            Assert.assertEquals(3, count);
+            Assert.assertNull(reader.nextRecord());
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        System.out.println("====> Finished XmlRecordReaderTest.testReadRecords");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testStream() throws Exception
+    {
+        System.out.println("====> Starting XmlRecordReaderTest.testStream");
+
+        XmlRecordReader reader = new XmlRecordReader(new ByteArrayInputStream(createInput().getBytes("UTF-8")), "/ROOT/one/Elements/Element");
+
+        try (Stream<IXmlElement> records = reader.stream())
+        {
+            List<String> names = records.map(record -> {
+                try
+                {
+                    return record.getChildValue("Name");
+                }
+                catch (Exception e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }).collect(Collectors.toList());
+
+            Assert.assertEquals(3, names.size());
+            Assert.assertEquals("first", names.get(0));
+            Assert.assertEquals("second", names.get(1));
+            Assert.assertEquals("third", names.get(2));
+        }
+
+        System.out.println("====> Finished XmlRecordReaderTest.testStream");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testWriteRecords() throws Exception
+    {
+        System.out.println("====> Starting XmlRecordReaderTest.testWriteRecords");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        XmlRecordWriter writer = new XmlRecordWriter(output, "ROOT/one/Elements");
+
+        try
+        {
+            for (int i = 1; i <= 3; i++)
+            {
+                IXmlElement record = writer.newRecord("Element");
+                record.setAttribute("id", String.valueOf(i));
+                record.createChild("Name", "caf\u00e9 " + i);
+
+                Assert.assertEquals(i - 1, writer.getRecordCount());
+            }
+
+            writer.write(new XmlDocument("<Element id=\"4\"><Name>copied</Name></Element>").getRootElement());
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        Assert.assertEquals(4, writer.getRecordCount());
+        Assert.assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<ROOT><one><Elements><Element id=\"1\"><Name>caf\u00e9 1</Name></Element>"
+                + "<Element id=\"2\"><Name>caf\u00e9 2</Name></Element>"
+                + "<Element id=\"3\"><Name>caf\u00e9 3</Name></Element>"
+                + "<Element id=\"4\"><Name>copied</Name></Element></Elements></one></ROOT>",
+                new String(output.toByteArray(), "UTF-8"));
+
+        XmlRecordReader reader = new XmlRecordReader(new ByteArrayInputStream(output.toByteArray()), "ROOT/one/Elements/Element");
+
+        try
+        {
+            int count = 0;
+
+            while (reader.hasNext())
+            {
+                IXmlElement record = reader.next();
+                count++;
+
+                Assert.assertEquals(String.valueOf(count), record.getAttribute("id"));
+            }
+
+            Assert.assertEquals(4, count);
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        System.out.println("====> Finished XmlRecordReaderTest.testWriteRecords");
+    }
+}
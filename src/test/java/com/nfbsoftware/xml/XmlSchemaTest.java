@@ -0,0 +1,305 @@
+package com.nfbsoftware.xml;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.xml.sax.SAXParseException;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+
+/**
+ * Unit test for schema validation
+ */
+public class XmlSchemaTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public XmlSchemaTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( XmlSchemaTest.class );
+    }
+
+    /**
+     *
+     * @return A schema for a ROOT element holding any number of integer Value elements.
+     */
+    static String createSchema()
+    {
+        StringBuffer xsdString = new StringBuffer();
+        xsdString.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xsdString.append("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">");
+        xsdString.append("  <xs:element name=\"ROOT\">");
+        xsdString.append("    <xs:complexType>");
+        xsdString.append("      <xs:sequence>");
+        xsdString.append("        <xs:element name=\"Value\" type=\"xs:int\" minOccurs=\"0\" maxOccurs=\"unbounded\"/>");
+        xsdString.append("      </xs:sequence>");
+        xsdString.append("      <xs:attribute name=\"id\" type=\"xs:int\"/>");
+        xsdString.append("    </xs:complexType>");
+        xsdString.append("  </xs:element>");
+        xsdString.append("</xs:schema>");
+
+        return xsdString.toString();
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testValidate() throws Exception
+    {
+        System.out.println("====> Starting XmlSchemaTest.testValidate");
+
+        XmlSchema schema = XmlSchemaCache.getSchemaFromContent(createSchema());
+        Assert.assertSame(schema, XmlSchemaCache.getSchemaFromContent(createSchema()));
+
+        IXmlDocument doc = new XmlDocument("<ROOT id=\"1\"><Value>1</Value><Value>2</Value></ROOT>");
+        doc.isValid(schema);
+
+        // Validators are reused
+        doc.isValid(schema);
+        Assert.assertEquals(1, schema.getIdleValidatorCount());
+
+        doc.getRootElement().createChild("Value", "not a number");
+
+        try
+        {
+            doc.isValid(schema);
+            Assert.fail("Expected the document to be invalid");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            Assert.assertEquals(XmlDocumentCheckedException.Codes.VALIDATION_FAILED, e.getCode());
+        }
+
+        System.out.println("====> Finished XmlSchemaTest.testValidate");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testSchemaLocationHint() throws Exception
+    {
+        System.out.println("====> Starting XmlSchemaTest.testSchemaLocationHint");
+
+        Path path = Files.createTempFile("XmlSchemaTest", ".xsd");
+        try
+        {
+            Files.write(path, createSchema().getBytes("UTF-8"));
+
+            String hint = " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:noNamespaceSchemaLocation=\"" + path.toUri() + "\"";
+
+            new XmlDocument("<ROOT" + hint + "><Value>1</Value></ROOT>").isValid();
+
+            try
+            {
+                new XmlDocument("<ROOT" + hint + "><Other/></ROOT>").isValid();
+                Assert.fail("Expected the document to be invalid");
+            }
+            catch (XmlDocumentCheckedException e)
+            {
+                Assert.assertEquals(XmlDocumentCheckedException.Codes.VALIDATION_FAILED, e.getCode());
+            }
+
+            // Without a DTD or a hint there is nothing to validate against
+            try
+            {
+                new XmlDocument("<ROOT><Value>1</Value></ROOT>").isValid();
+                Assert.fail("Expected the document to be invalid");
+            }
+            catch (XmlDocumentCheckedException e)
+            {
+                // expected
+            }
+        }
+        finally
+        {
+            Files.delete(path);
+        }
+
+        System.out.println("====> Finished XmlSchemaTest.testSchemaLocationHint");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testValidateWhileParsing() throws Exception
+    {
+        System.out.println("====> Starting XmlSchemaTest.testValidateWhileParsing");
+
+        XmlSchema schema = XmlSchemaCache.getSchemaFromContent(createSchema());
+
+        IXmlDocument doc = new XmlDocument("<ROOT><Value>1</Value></ROOT>", schema);
+        Assert.assertEquals("1", doc.getRootElement().getChildValue("Value"));
+
+        try
+        {
+            new XmlDocument("<ROOT><Value>1</Value><Value>x</Value><Value>2</Value></ROOT>", schema);
+            Assert.fail("Expected the document to be rejected");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            Assert.assertEquals(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, e.getCode());
+            Assert.assertTrue(e.getRootCause() instanceof SAXParseException);
+        }
+
+        // Every load of a document created for a schema is validated
+        XmlDocument validating = new XmlDocument(schema);
+        validating.load("<ROOT id=\"7\"/>");
+
+        try
+        {
+            validating.load("<ROOT id=\"seven\"/>");
+            Assert.fail("Expected the document to be rejected");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            Assert.assertEquals(XmlDocumentCheckedException.Codes.DOCUMENT_LOAD_FAILED, e.getCode());
+        }
+
+        validating.setSchema(null);
+        validating.load("<ROOT id=\"seven\"/>");
+
+        System.out.println("====> Finished XmlSchemaTest.testValidateWhileParsing");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testValidateIncremental() throws Exception
+    {
+        System.out.println("====> Starting XmlSchemaTest.testValidateIncremental");
+
+        StringBuffer xsdString = new StringBuffer();
+        xsdString.append("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">");
+        xsdString.append("  <xs:element name=\"ROOT\">");
+        xsdString.append("    <xs:complexType><xs:sequence><xs:element ref=\"Section\" maxOccurs=\"unbounded\"/></xs:sequence></xs:complexType>");
+        xsdString.append("  </xs:element>");
+        xsdString.append("  <xs:element name=\"Section\">");
+        xsdString.append("    <xs:complexType><xs:sequence><xs:element name=\"Value\" type=\"xs:int\"/></xs:sequence></xs:complexType>");
+        xsdString.append("  </xs:element>");
+        xsdString.append("</xs:schema>");
+
+        XmlSchema schema = XmlSchemaCache.getSchemaFromContent(xsdString.toString());
+
+        IXmlDocument doc = new XmlDocument("<ROOT><Section><Value>1</Value></Section><Section><Value>2</Value></Section></ROOT>");
+        doc.isValidIncremental(schema);
+
+        // A change made behind the document's back is not seen by an incremental validation...
+        doc.getDocument().getElementsByTagName("Value").item(1).getFirstChild().setNodeValue("x");
+
+        // ...which only re-checks the section holding the changed value.
+        doc.getRootElement().selectChild("Section[1]/Value").setValue("3");
+        doc.isValidIncremental(schema);
+
+        try
+        {
+            doc.isValid(schema);
+            Assert.fail("Expected the document to be invalid");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            Assert.assertEquals(XmlDocumentCheckedException.Codes.VALIDATION_FAILED, e.getCode());
+        }
+
+        doc.getRootElement().selectChild("Section[2]/Value").setValue("4");
+        doc.isValid(schema);
+
+        doc.getRootElement().selectChild("Section[1]/Value").setValue("not a number");
+
+        try
+        {
+            doc.isValidIncremental(schema);
+            Assert.fail("Expected the document to be invalid");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            Assert.assertEquals(XmlDocumentCheckedException.Codes.VALIDATION_FAILED, e.getCode());
+        }
+
+        // The failed change is still re-checked until it is fixed.
+        try
+        {
+            doc.isValidIncremental(schema);
+            Assert.fail("Expected the document to be invalid");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            Assert.assertEquals(XmlDocumentCheckedException.Codes.VALIDATION_FAILED, e.getCode());
+        }
+
+        doc.getRootElement().selectChild("Section[1]/Value").setValue("5");
+        doc.isValidIncremental(schema);
+
+        System.out.println("====> Finished XmlSchemaTest.testValidateIncremental");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testValidateIncrementalLocalDeclaration() throws Exception
+    {
+        System.out.println("====> Starting XmlSchemaTest.testValidateIncrementalLocalDeclaration");
+
+        // Value is declared globally as text, and locally in Section as a number.
+        StringBuffer xsdString = new StringBuffer();
+        xsdString.append("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">");
+        xsdString.append("  <xs:element name=\"ROOT\">");
+        xsdString.append("    <xs:complexType><xs:sequence>");
+        xsdString.append("      <xs:element ref=\"Section\" maxOccurs=\"unbounded\"/>");
+        xsdString.append("      <xs:element name=\"Note\"><xs:complexType><xs:sequence><xs:element ref=\"Value\"/></xs:sequence></xs:complexType></xs:element>");
+        xsdString.append("    </xs:sequence></xs:complexType>");
+        xsdString.append("  </xs:element>");
+        xsdString.append("  <xs:element name=\"Section\">");
+        xsdString.append("    <xs:complexType><xs:sequence><xs:element name=\"Value\" type=\"xs:int\"/></xs:sequence></xs:complexType>");
+        xsdString.append("  </xs:element>");
+        xsdString.append("  <xs:element name=\"Value\" type=\"xs:string\"/>");
+        xsdString.append("</xs:schema>");
+
+        XmlSchema schema = XmlSchemaCache.getSchemaFromContent(xsdString.toString());
+
+        IXmlDocument doc = new XmlDocument("<ROOT><Section><Value>1</Value></Section><Section><Value>2</Value></Section><Note><Value>text</Value></Note></ROOT>");
+        doc.isValidIncremental(schema);
+
+        // The global Value, referenced by Note, takes any text.
+        doc.getRootElement().selectChild("Note/Value").setValue("other text");
+        doc.isValidIncremental(schema);
+
+        // The Value in a Section is its local declaration, which the global one would pass.
+        doc.getRootElement().selectChild("Section[2]/Value").setValue("not a number");
+
+        try
+        {
+            doc.isValidIncremental(schema);
+            Assert.fail("Expected the document to be invalid");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            Assert.assertEquals(XmlDocumentCheckedException.Codes.VALIDATION_FAILED, e.getCode());
+        }
+
+        doc.getRootElement().selectChild("Section[2]/Value").setValue("3");
+        doc.isValidIncremental(schema);
+
+        System.out.println("====> Finished XmlSchemaTest.testValidateIncrementalLocalDeclaration");
+    }
+}
@@ -0,0 +1,182 @@
+package com.nfbsoftware.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the streaming writer
+ */
+public class XmlWriterTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public XmlWriterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( XmlWriterTest.class );
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testWrite() throws Exception
+    {
+        System.out.println("====> Starting XmlWriterTest.testWrite");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        XmlWriter writer = new XmlWriter(output);
+        writer.child("ROOT").attribute("id", "1 & \"2\"")
+                  .child("Name").value("caf\u00e9 <3").end()
+                  .child("Empty").end()
+                  .child("Script").cdata("a < b").end();
+        writer.close();
+
+        Assert.assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<ROOT id=\"1 &amp; &quot;2&quot;\"><Name>caf\u00e9 &lt;3</Name><Empty/><Script><![CDATA[a < b]]></Script></ROOT>",
+                new String(output.toByteArray(), "UTF-8"));
+
+        IXmlDocument doc = new XmlDocument(output.toByteArray());
+        Assert.assertEquals("caf\u00e9 <3", doc.getRootElement().getChildValue("Name"));
+
+        try
+        {
+            new XmlWriter(new ByteArrayOutputStream()).child("ROOT").value("text").attribute("late", "1");
+            Assert.fail("Expected attributes after content to be rejected");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            XmlWriter twoRoots = new XmlWriter(new ByteArrayOutputStream());
+            twoRoots.child("ROOT").end().comment("after").child("SECOND");
+            Assert.fail("Expected a second document element to be rejected");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        for (String comment : new String[] { "a -- b", "ends with -" })
+        {
+            try
+            {
+                new XmlWriter(new ByteArrayOutputStream()).child("ROOT").comment(comment);
+                Assert.fail("Expected the comment to be rejected: " + comment);
+            }
+            catch (IllegalArgumentException e)
+            {
+                // expected
+            }
+        }
+
+        System.out.println("====> Finished XmlWriterTest.testWrite");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testCloseFailure() throws Exception
+    {
+        System.out.println("====> Starting XmlWriterTest.testCloseFailure");
+
+        final IOException failure = new IOException("disk full");
+
+        XmlWriter writer = new XmlWriter(new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                throw failure;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                throw failure;
+            }
+        });
+
+        // An end tag too long for the buffer fails while the open elements are ended.
+        char[] name = new char[5000];
+        Arrays.fill(name, 'a');
+        writer.child("ROOT").child(new String(name)).value("x");
+
+        try
+        {
+            writer.close();
+            Assert.fail("Expected the write failure to be reported");
+        }
+        catch (IOException e)
+        {
+            Assert.assertSame(failure, e.getCause());
+        }
+
+        System.out.println("====> Finished XmlWriterTest.testCloseFailure");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testEmbedAndIndent() throws Exception
+    {
+        System.out.println("====> Starting XmlWriterTest.testEmbedAndIndent");
+
+        IXmlDocument existing = new XmlDocument("<ns:Items xmlns:ns=\"urn:items\"><ns:Item>1</ns:Item><ns:Item>2</ns:Item></ns:Items>");
+        existing.setLiveViews(true);
+
+        StringWriter output = new StringWriter();
+
+        XmlWriter writer = new XmlWriter(output, new XmlIndenter(4));
+        writer.child("ROOT")
+                  .child("Name").value("Widget").end()
+                  .embed(existing.getRootElement().getChild(1))
+                  .embed(existing)
+                  .child("Empty").end();
+        writer.close();
+
+        String xml = output.toString();
+
+        // A Writer's encoding is its own, so the declaration does not name one.
+        Assert.assertEquals("<?xml version=\"1.0\"?>\n"
+                + "<ROOT>\n"
+                + "    <Name>Widget</Name>\n"
+                + "    <ns:Item xmlns:ns=\"urn:items\">2</ns:Item>\n"
+                + "    <ns:Items xmlns:ns=\"urn:items\">\n"
+                + "        <ns:Item>1</ns:Item>\n"
+                + "        <ns:Item>2</ns:Item>\n"
+                + "    </ns:Items>\n"
+                + "    <Empty/>\n"
+                + "</ROOT>\n", xml);
+
+        // The same layout as the indented serializer
+        String serialized = new XmlDocument(xml).toString();
+        Assert.assertEquals(xml.substring(xml.indexOf('\n')), serialized.substring(serialized.indexOf('\n')));
+
+        System.out.println("====> Finished XmlWriterTest.testEmbedAndIndent");
+    }
+}
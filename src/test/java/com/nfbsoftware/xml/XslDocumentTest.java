@@ -0,0 +1,419 @@
+package com.nfbsoftware.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.Transformer;
+
+import com.nfbsoftware.xml.exception.XmlDocumentCheckedException;
+
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the XSL Document
+ */
+public class XslDocumentTest extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public XslDocumentTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( XslDocumentTest.class );
+    }
+
+    /**
+     *
+     * @param element The element name the stylesheet outputs.
+     * @return A stylesheet that lists the values of every element child of ROOT.
+     */
+    private static String createStylesheet(String element)
+    {
+        StringBuffer xslString = new StringBuffer();
+        xslString.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xslString.append("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">");
+        xslString.append("  <xsl:output method=\"xml\" omit-xml-declaration=\"yes\"/>");
+        xslString.append("  <xsl:template match=\"/ROOT\">");
+        xslString.append("    <" + element + "><xsl:for-each select=\"*\"><xsl:value-of select=\".\"/>;</xsl:for-each></" + element + ">");
+        xslString.append("  </xsl:template>");
+        xslString.append("</xsl:stylesheet>");
+
+        return xslString.toString();
+    }
+
+    /**
+     *
+     * @return A small input document.
+     */
+    private static String createInput()
+    {
+        StringBuffer xmlString = new StringBuffer();
+        xmlString.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xmlString.append("<ROOT>");
+        xmlString.append("<one>test1</one>");
+        xmlString.append("<two>test2</two>");
+        xmlString.append("</ROOT>");
+
+        return xmlString.toString();
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testTransform() throws Exception
+    {
+        System.out.println("====> Starting XslDocumentTest.testTransform");
+
+        IXslDocument xsl = new XslDocument(createStylesheet("Values"));
+
+        // Repeated transforms reuse the compiled stylesheet
+        for (int i = 0; i < 3; i++)
+        {
+            Assert.assertEquals("<Values>test1;test2;</Values>", xsl.transform(createInput()).trim());
+            Assert.assertEquals("<Values>test1;test2;</Values>", xsl.transform(new XmlDocument(createInput())).trim());
+        }
+
+        IXmlDocument result = xsl.transformToXmlDocument(createInput());
+        Assert.assertEquals("test1;test2;", result.getChildValue("Values"));
+
+        System.out.println("====> Finished XslDocumentTest.testTransform");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testLoadReplacesStylesheet() throws Exception
+    {
+        System.out.println("====> Starting XslDocumentTest.testLoadReplacesStylesheet");
+
+        IXslDocument xsl = new XslDocument(createStylesheet("Before"));
+        Assert.assertEquals("<Before>test1;test2;</Before>", xsl.transform(createInput()).trim());
+
+        xsl.load(createStylesheet("After"));
+        Assert.assertEquals("<After>test1;test2;</After>", xsl.transform(createInput()).trim());
+
+        System.out.println("====> Finished XslDocumentTest.testLoadReplacesStylesheet");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testLoadWhileCompiling() throws Exception
+    {
+        System.out.println("====> Starting XslDocumentTest.testLoadWhileCompiling");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            for (int i = 0; i < 50; i++)
+            {
+                final XslDocument xsl = new XslDocument(createStylesheet("Before"));
+
+                // A pool compiled from the old stylesheet must never outlive the load.
+                Future<TransformerPool> compiled = executor.submit(new Callable<TransformerPool>()
+                {
+                    @Override
+                    public TransformerPool call() throws Exception
+                    {
+                        return xsl.getTransformerPool();
+                    }
+                });
+
+                Future<Object> loaded = executor.submit(new Callable<Object>()
+                {
+                    @Override
+                    public Object call() throws Exception
+                    {
+                        xsl.load(createStylesheet("After"));
+                        return null;
+                    }
+                });
+
+                compiled.get();
+                loaded.get();
+
+                Assert.assertEquals("<After>test1;test2;</After>", xsl.transform(createInput()).trim());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        System.out.println("====> Finished XslDocumentTest.testLoadWhileCompiling");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testFailedReload() throws Exception
+    {
+        System.out.println("====> Starting XslDocumentTest.testFailedReload");
+
+        IXslDocument xsl = new XslDocument(createStylesheet("Before"));
+        Assert.assertEquals("<Before>test1;test2;</Before>", xsl.transform(createInput()).trim());
+
+        try
+        {
+            xsl.load("<xsl:stylesheet");
+            Assert.fail("Expected the broken stylesheet to fail to load");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            // expected
+        }
+
+        // The stylesheet compiled before the failed load is not used.
+        try
+        {
+            xsl.transform(createInput());
+            Assert.fail("Expected the transform to fail after a failed load");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            // expected
+        }
+
+        xsl.load(createStylesheet("After"));
+        Assert.assertEquals("<After>test1;test2;</After>", xsl.transform(createInput()).trim());
+
+        System.out.println("====> Finished XslDocumentTest.testFailedReload");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testLoadFromPath() throws Exception
+    {
+        System.out.println("====> Starting XslDocumentTest.testLoadFromPath");
+
+        Path path = Files.createTempFile("XslDocumentTest", ".xsl");
+        try
+        {
+            Files.write(path, createStylesheet("FromFile").getBytes("UTF-8"));
+
+            IXslDocument xsl = new XslDocument(path);
+            Assert.assertEquals("<FromFile>test1;test2;</FromFile>", xsl.transform(createInput()).trim());
+
+            xsl.load(createStylesheet("Before"));
+            xsl.load(path);
+            Assert.assertEquals("<FromFile>test1;test2;</FromFile>", xsl.transform(createInput()).trim());
+        }
+        finally
+        {
+            Files.delete(path);
+        }
+
+        System.out.println("====> Finished XslDocumentTest.testLoadFromPath");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testConcurrentTransforms() throws Exception
+    {
+        System.out.println("====> Starting XslDocumentTest.testConcurrentTransforms");
+
+        final XslDocument xsl = new XslDocument(createStylesheet("Values"));
+        xsl.setTransformerPoolSize(4);
+
+        // One freshly parsed, shared input document
+        final IXmlDocument input = new XmlDocument(createInput());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+
+            for (int i = 0; i < 200; i++)
+            {
+                results.add(executor.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call() throws Exception
+                    {
+                        return xsl.transform(input);
+                    }
+                }));
+            }
+
+            for (Future<String> result : results)
+            {
+                Assert.assertEquals("<Values>test1;test2;</Values>", result.get().trim());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        TransformerPool pool = xsl.getTransformerPool();
+        Assert.assertEquals(4, pool.getMaximumSize());
+        Assert.assertEquals(200, pool.getBorrowCount());
+        Assert.assertTrue(pool.getCreatedCount() <= 4);
+        Assert.assertEquals(0, pool.getActiveCount());
+
+        System.out.println("====> Finished XslDocumentTest.testConcurrentTransforms");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testTransformerPoolExhausted() throws Exception
+    {
+        System.out.println("====> Starting XslDocumentTest.testTransformerPoolExhausted");
+
+        XslDocument xsl = new XslDocument(createStylesheet("Values"));
+        xsl.setTransformerPoolSize(1);
+        xsl.setTransformerPoolWait(10);
+
+        TransformerPool pool = xsl.getTransformerPool();
+        Transformer transformer = pool.borrow();
+        Assert.assertEquals(1.0, pool.getUtilization(), 0.0);
+
+        try
+        {
+            xsl.transform(createInput());
+            Assert.fail("Expected the pool to be exhausted");
+        }
+        catch (XmlDocumentCheckedException e)
+        {
+            Assert.assertEquals(1, pool.getTimeoutCount());
+        }
+
+        pool.release(transformer);
+        Assert.assertEquals("<Values>test1;test2;</Values>", xsl.transform(createInput()).trim());
+
+        System.out.println("====> Finished XslDocumentTest.testTransformerPoolExhausted");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testStreamingOutput() throws Exception
+    {
+        System.out.println("====> Starting XslDocumentTest.testStreamingOutput");
+
+        IXslDocument xsl = new XslDocument(createStylesheet("Values"));
+        IXmlDocument input = new XmlDocument(createInput());
+
+        StringWriter writer = new StringWriter();
+        xsl.transform(input, writer);
+        Assert.assertEquals("<Values>test1;test2;</Values>", writer.toString().trim());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        xsl.transform(input, out);
+        Assert.assertEquals("<Values>test1;test2;</Values>", out.toString("UTF-8").trim());
+
+        out = new ByteArrayOutputStream();
+        xsl.transform(input, Channels.newChannel(out));
+        Assert.assertEquals("<Values>test1;test2;</Values>", out.toString("UTF-8").trim());
+
+        InputStream piped = xsl.transformToInputStream(input);
+        try
+        {
+            Assert.assertEquals("<Values>test1;test2;</Values>", new String(piped.readAllBytes(), "UTF-8").trim());
+        }
+        finally
+        {
+            piped.close();
+        }
+
+        // A failing transform is reported to the reader
+        StringBuffer xslString = new StringBuffer();
+        xslString.append("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">");
+        xslString.append("  <xsl:template match=\"/\"><xsl:message terminate=\"yes\">stop</xsl:message></xsl:template>");
+        xslString.append("</xsl:stylesheet>");
+
+        piped = new XslDocument(xslString.toString()).transformToInputStream(input);
+        try
+        {
+            piped.readAllBytes();
+            Assert.fail("Expected the failed transform to be reported");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+        finally
+        {
+            piped.close();
+        }
+
+        System.out.println("====> Finished XslDocumentTest.testStreamingOutput");
+    }
+
+    /**
+     *
+     * @throws Exception
+     */
+    public void testStreamedInputs() throws Exception
+    {
+        System.out.println("====> Starting XslDocumentTest.testStreamedInputs");
+
+        IXslDocument xsl = new XslDocument(createStylesheet("Values"));
+        byte[] utf8 = createInput().getBytes("UTF-8");
+
+        Assert.assertEquals("<Values>test1;test2;</Values>", xsl.transform(new ByteArrayInputStream(utf8)).trim());
+        Assert.assertEquals("<Values>test1;test2;</Values>", xsl.transform(new ByteArrayInputStream(utf8), "UTF-8").trim());
+        Assert.assertEquals("<Values>test1;test2;</Values>", xsl.transform(new StringReader(createInput())).trim());
+        Assert.assertEquals("test1;test2;", xsl.transformToXmlDocument(new ByteArrayInputStream(utf8)).getChildValue("Values"));
+        Assert.assertEquals("test1;test2;", xsl.transformToXmlDocument(new StringReader(createInput())).getChildValue("Values"));
+
+        // The encoding argument overrides the declaration
+        String latin1 = "<ROOT><one>caf\u00e9</one></ROOT>";
+
+        Path path = Files.createTempFile("XslDocumentTest", ".xml");
+        try
+        {
+            Files.write(path, latin1.getBytes("ISO-8859-1"));
+
+            Assert.assertEquals("<Values>caf\u00e9;</Values>", xsl.transform(path.toFile(), "ISO-8859-1").trim());
+            Assert.assertEquals("caf\u00e9;", xsl.transformToXmlDocument(path.toFile(), "ISO-8859-1").getChildValue("Values"));
+
+            Files.write(path, utf8);
+            Assert.assertEquals("<Values>test1;test2;</Values>", xsl.transform(path.toFile()).trim());
+            Assert.assertEquals("test1;test2;", xsl.transformToXmlDocument(path.toFile()).getChildValue("Values"));
+        }
+        finally
+        {
+            Files.delete(path);
+        }
+
+        System.out.println("====> Finished XslDocumentTest.testStreamedInputs");
+    }
+}